@@ -0,0 +1,535 @@
+package com.cybozu.labs.langdetect.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.carrotsearch.labs.langid.DetectedLanguage;
+import com.carrotsearch.labs.langid.DetectionMetrics;
+import com.carrotsearch.labs.langid.LangIdV3;
+import com.carrotsearch.labs.langid.Model;
+import com.cybozu.labs.langdetect.Detector;
+import com.cybozu.labs.langdetect.DetectorFactory;
+import com.cybozu.labs.langdetect.LangDetectException;
+import com.cybozu.labs.langdetect.Language;
+import com.helger.json.IJson;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonArray;
+import com.helger.json.JsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A standalone HTTP language detection service on top of the JDK's
+ * {@link HttpServer}. Endpoints:
+ * <ul>
+ * <li><code>/detect</code> - detect the language of one text (request body or
+ * <code>text</code> query parameter),</li>
+ * <li><code>/detect/batch</code> - detect the languages of many texts (a JSON
+ * array or newline-delimited body),</li>
+ * <li><code>/metrics</code> - detection and batching statistics.</li>
+ * </ul>
+ * The engine is picked by the <code>engine</code> query parameter:
+ * {@link #ENGINE_LANGID} (a shared {@link Model}) or {@link #ENGINE_LANGDETECT}
+ * (the profiles loaded into {@link DetectorFactory}). Texts of all requests go
+ * through a {@link MicroBatcher} per engine, whose worker threads keep their
+ * own {@link LangIdV3} or {@link Detector}. Connections are kept alive (all
+ * responses have a content length).
+ */
+public final class DetectionServer implements AutoCloseable
+{
+  public static final String ENGINE_LANGID = "langid";
+  public static final String ENGINE_LANGDETECT = "langdetect";
+
+  /** Maximum request body size. */
+  private static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+  private static final String JSON_TYPE = "application/json";
+  private static final String NDJSON_TYPE = "application/x-ndjson";
+
+  @SuppressWarnings ("serial")
+  private static final class HttpError extends Exception
+  {
+    final int m_nStatus;
+
+    HttpError (final int nStatus, final String sMessage)
+    {
+      super (sMessage);
+      m_nStatus = nStatus;
+    }
+  }
+
+  private final HttpServer m_aServer;
+  private final ExecutorService m_aHandlers;
+  private final Map <String, MicroBatcher <String, IJsonObject>> m_aEngines = new LinkedHashMap<> ();
+  private final DetectionMetrics m_aMetrics = new DetectionMetrics ();
+  private final LongAdder m_aRequests = new LongAdder ();
+
+  /**
+   * @param address
+   *        address to listen on (port 0 picks a free port)
+   * @param model
+   *        model of the {@link #ENGINE_LANGID} engine, <code>null</code> to
+   *        disable it
+   * @param bLangDetect
+   *        enable the {@link #ENGINE_LANGDETECT} engine (profiles must be
+   *        loaded into {@link DetectorFactory} already)
+   * @param threads
+   *        number of detection threads of each engine
+   * @param maxBatchSize
+   *        maximum number of texts detected in one batch
+   * @param maxDelayMicros
+   *        maximum time a detection thread waits for a batch to fill up
+   * @param queueCapacity
+   *        maximum number of texts waiting for detection (per engine), more
+   *        are rejected with 503
+   * @throws IOException
+   *         if the server socket cannot be bound
+   */
+  public DetectionServer (@Nonnull final InetSocketAddress address,
+                          @Nullable final Model model,
+                          final boolean bLangDetect,
+                          final int threads,
+                          final int maxBatchSize,
+                          final long maxDelayMicros,
+                          final int queueCapacity) throws IOException
+  {
+    if (model != null)
+      m_aEngines.put (ENGINE_LANGID,
+                      new MicroBatcher<> (ENGINE_LANGID,
+                                          threads,
+                                          maxBatchSize,
+                                          maxDelayMicros,
+                                          queueCapacity,
+                                          _langIdProcessor (model)));
+    if (bLangDetect)
+    {
+      DetectorFactory.setMetrics (m_aMetrics);
+      try
+      {
+        m_aEngines.put (ENGINE_LANGDETECT,
+                        new MicroBatcher<> (ENGINE_LANGDETECT,
+                                            threads,
+                                            maxBatchSize,
+                                            maxDelayMicros,
+                                            queueCapacity,
+                                            DetectionServer::_langDetectProcessor));
+      }
+      catch (final RuntimeException e)
+      {
+        // No detectors (no profiles loaded): stop the other engine's workers.
+        for (final MicroBatcher <String, IJsonObject> batcher : m_aEngines.values ())
+          batcher.close ();
+        throw e;
+      }
+    }
+    if (m_aEngines.isEmpty ())
+      throw new IllegalArgumentException ("No detection engine enabled.");
+
+    // Request threads mostly wait for detection threads.
+    m_aHandlers = Executors.newFixedThreadPool (Math.max (16, 4 * threads));
+    m_aServer = HttpServer.create (address, 0);
+    m_aServer.setExecutor (m_aHandlers);
+    m_aServer.createContext ("/detect", exchange -> _handle (exchange, "/detect", this::_detect));
+    m_aServer.createContext ("/detect/batch", exchange -> _handle (exchange, "/detect/batch", this::_detectBatch));
+    m_aServer.createContext ("/metrics", exchange -> _handle (exchange, "/metrics", this::_metrics));
+  }
+
+  private Supplier <Function <String, IJsonObject>> _langIdProcessor (final Model model)
+  {
+    return () -> {
+      final LangIdV3 langid = new LangIdV3 (model);
+      langid.setMetrics (m_aMetrics);
+      return text -> {
+        final DetectedLanguage detected = langid.classify (text, true);
+        return new JsonObject ().add ("language", detected.getLangCode ())
+                                .add ("confidence", detected.getConfidence ());
+      };
+    };
+  }
+
+  private static Function <String, IJsonObject> _langDetectProcessor ()
+  {
+    final Detector detector;
+    try
+    {
+      detector = DetectorFactory.create ();
+    }
+    catch (final LangDetectException e)
+    {
+      throw new IllegalStateException (e);
+    }
+    return text -> {
+      detector.reset ();
+      detector.append (text);
+      try
+      {
+        final List <Language> probabilities = detector.getProbabilities ();
+        final JsonArray languages = new JsonArray ();
+        for (final Language language : probabilities)
+          languages.add (new JsonObject ().add ("language", language.getLanguage ())
+                                          .add ("probability", language.getProbability ()));
+        final IJsonObject result = new JsonObject ();
+        if (!probabilities.isEmpty ())
+          result.add ("language", probabilities.get (0).getLanguage ())
+                .add ("confidence", probabilities.get (0).getProbability ());
+        return result.add ("languages", languages);
+      }
+      catch (final LangDetectException e)
+      {
+        return new JsonObject ().add ("error", e.getMessage ());
+      }
+    };
+  }
+
+  public void start ()
+  {
+    m_aServer.start ();
+  }
+
+  /**
+   * @return the address the server listens on
+   */
+  @Nonnull
+  public InetSocketAddress getAddress ()
+  {
+    return m_aServer.getAddress ();
+  }
+
+  @Nonnull
+  public DetectionMetrics getMetrics ()
+  {
+    return m_aMetrics;
+  }
+
+  public void close ()
+  {
+    m_aServer.stop (0);
+    for (final MicroBatcher <String, IJsonObject> batcher : m_aEngines.values ())
+      batcher.close ();
+    m_aHandlers.shutdown ();
+  }
+
+  @FunctionalInterface
+  private interface IHandler
+  {
+    /**
+     * @return JSON response, or a list of JSON objects for a newline-delimited
+     *         response
+     */
+    Object handle (HttpExchange exchange, Map <String, String> params, byte [] body) throws HttpError;
+  }
+
+  private void _handle (final HttpExchange exchange, final String path, final IHandler handler) throws IOException
+  {
+    m_aRequests.increment ();
+    try
+    {
+      int status = 200;
+      String contentType = JSON_TYPE;
+      String response;
+      try
+      {
+        if (!exchange.getRequestURI ().getPath ().equals (path))
+          throw new HttpError (404, "Not found.");
+        final String method = exchange.getRequestMethod ();
+        if (!"GET".equals (method) && !"POST".equals (method))
+          throw new HttpError (405, "Method not allowed.");
+        final Object result = handler.handle (exchange,
+                                              _parseQuery (exchange.getRequestURI ().getRawQuery ()),
+                                              _readBody (exchange.getRequestBody ()));
+        if (result instanceof IJson)
+          response = ((IJson) result).getAsJsonString ();
+        else
+        {
+          final StringBuilder lines = new StringBuilder ();
+          for (final Object line : (List <?>) result)
+            lines.append (((IJson) line).getAsJsonString ()).append ('\n');
+          response = lines.toString ();
+          contentType = NDJSON_TYPE;
+        }
+      }
+      catch (final HttpError e)
+      {
+        status = e.m_nStatus;
+        response = new JsonObject ().add ("error", e.getMessage ()).getAsJsonString ();
+      }
+
+      final byte [] bytes = response.getBytes (StandardCharsets.UTF_8);
+      exchange.getResponseHeaders ().set ("Content-Type", contentType + "; charset=UTF-8");
+      exchange.sendResponseHeaders (status, bytes.length);
+      try (final OutputStream out = exchange.getResponseBody ())
+      {
+        out.write (bytes);
+      }
+    }
+    finally
+    {
+      exchange.close ();
+    }
+  }
+
+  private static Map <String, String> _parseQuery (final String query) throws UnsupportedEncodingException
+  {
+    final Map <String, String> params = new HashMap<> ();
+    if (query != null)
+      for (final String param : query.split ("&"))
+      {
+        final int eq = param.indexOf ('=');
+        if (eq > 0)
+          params.put (URLDecoder.decode (param.substring (0, eq), "UTF-8"),
+                      URLDecoder.decode (param.substring (eq + 1), "UTF-8"));
+      }
+    return params;
+  }
+
+  private static byte [] _readBody (final InputStream in) throws IOException, HttpError
+  {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream ();
+    final byte [] buffer = new byte [8192];
+    int len;
+    while ((len = in.read (buffer)) > 0)
+    {
+      body.write (buffer, 0, len);
+      if (body.size () > MAX_BODY_LENGTH)
+        throw new HttpError (413, "Request body too large.");
+    }
+    return body.toByteArray ();
+  }
+
+  private static String _contentType (final HttpExchange exchange)
+  {
+    final String type = exchange.getRequestHeaders ().getFirst ("Content-Type");
+    if (type == null)
+      return "text/plain";
+    final int semicolon = type.indexOf (';');
+    return (semicolon < 0 ? type : type.substring (0, semicolon)).trim ().toLowerCase ();
+  }
+
+  private static IJson _parseJson (final String text) throws HttpError
+  {
+    final IJson json = JsonReader.readFromString (text);
+    if (json == null)
+      throw new HttpError (400, "Malformed JSON.");
+    return json;
+  }
+
+  /**
+   * @return text of a JSON string or of the <code>text</code> member of a JSON
+   *         object.
+   */
+  private static String _textOf (final IJson json) throws HttpError
+  {
+    if (json != null)
+    {
+      if (json.isValue () && json.getAsValue ().isStringValue ())
+        return json.getAsValue ().getAsString ();
+      if (json.isObject ())
+        return _textOf (json.getAsObject ().get ("text"));
+    }
+    throw new HttpError (400, "Expected a string or an object with a \"text\" member.");
+  }
+
+  private MicroBatcher <String, IJsonObject> _engine (final Map <String, String> params) throws HttpError
+  {
+    final String name = params.get ("engine");
+    if (name == null)
+      return m_aEngines.values ().iterator ().next ();
+    final MicroBatcher <String, IJsonObject> engine = m_aEngines.get (name);
+    if (engine == null)
+      throw new HttpError (400, "Unknown or disabled engine: " + name);
+    return engine;
+  }
+
+  /**
+   * Detect all texts and wait for the results.
+   */
+  private List <IJsonObject> _detectAll (final MicroBatcher <String, IJsonObject> engine,
+                                         final List <String> texts) throws HttpError
+  {
+    final List <CompletableFuture <IJsonObject>> futures = new ArrayList<> (texts.size ());
+    for (final String text : texts)
+      futures.add (engine.submit (text));
+
+    final List <IJsonObject> results = new ArrayList<> (texts.size ());
+    try
+    {
+      for (final CompletableFuture <IJsonObject> future : futures)
+        results.add (future.join ());
+    }
+    catch (final CompletionException e)
+    {
+      if (e.getCause () instanceof RejectedExecutionException)
+        throw new HttpError (503, e.getCause ().getMessage ());
+      throw new HttpError (500, String.valueOf (e.getCause ()));
+    }
+    return results;
+  }
+
+  private Object _detect (final HttpExchange exchange,
+                          final Map <String, String> params,
+                          final byte [] body) throws HttpError
+  {
+    String text = params.get ("text");
+    if (text == null)
+    {
+      text = new String (body, StandardCharsets.UTF_8);
+      if (JSON_TYPE.equals (_contentType (exchange)))
+        text = _textOf (_parseJson (text));
+    }
+    return _detectAll (_engine (params), Arrays.asList (text)).get (0);
+  }
+
+  private Object _detectBatch (final HttpExchange exchange,
+                               final Map <String, String> params,
+                               final byte [] body) throws HttpError
+  {
+    final String type = _contentType (exchange);
+    final String content = new String (body, StandardCharsets.UTF_8);
+    final List <String> texts = new ArrayList<> ();
+    if (JSON_TYPE.equals (type))
+    {
+      // A JSON array of texts, or {"texts": [...]}.
+      IJson json = _parseJson (content);
+      if (json.isObject ())
+        json = json.getAsObject ().get ("texts");
+      if (json == null || !json.isArray ())
+        throw new HttpError (400, "Expected an array or an object with a \"texts\" array.");
+      for (final IJson element : json.getAsArray ())
+        texts.add (_textOf (element));
+      return new JsonObject ().add ("results", new JsonArray ().addAll (_detectAll (_engine (params), texts)));
+    }
+
+    // One text (or JSON text) per line, blank lines are skipped.
+    final boolean ndjson = NDJSON_TYPE.equals (type);
+    for (final String line : content.split ("\r?\n"))
+      if (!line.trim ().isEmpty ())
+        texts.add (ndjson ? _textOf (_parseJson (line)) : line);
+    return _detectAll (_engine (params), texts);
+  }
+
+  private Object _metrics (final HttpExchange exchange,
+                           final Map <String, String> params,
+                           final byte [] body)
+  {
+    final DetectionMetrics m = m_aMetrics;
+    final IJsonObject engines = new JsonObject ();
+    for (final Map.Entry <String, MicroBatcher <String, IJsonObject>> entry : m_aEngines.entrySet ())
+    {
+      final MicroBatcher <String, IJsonObject> batcher = entry.getValue ();
+      final long batches = batcher.getBatchCount ();
+      engines.add (entry.getKey (),
+                   new JsonObject ().add ("texts", batcher.getItemCount ())
+                                    .add ("batches", batches)
+                                    .add ("meanBatchSize",
+                                          batches == 0 ? 0.0 : (double) batcher.getItemCount () / batches)
+                                    .add ("queued", batcher.getQueueSize ())
+                                    .add ("rejected", batcher.getRejectedCount ()));
+    }
+    return new JsonObject ().add ("requests", m_aRequests.sum ())
+                            .add ("engines", engines)
+                            .add ("classify",
+                                  new JsonObject ().add ("count", m.getClassifyCount ())
+                                                   .add ("bytes", m.getClassifyBytes ())
+                                                   .add ("meanMicros", m.getClassifyMeanMicros ())
+                                                   .add ("p50Micros", m.getClassifyP50Micros ())
+                                                   .add ("p99Micros", m.getClassifyP99Micros ())
+                                                   .add ("maxMicros", m.getClassifyMaxMicros ()))
+                            .add ("detect",
+                                  new JsonObject ().add ("count", m.getDetectCount ())
+                                                   .add ("chars", m.getDetectChars ())
+                                                   .add ("ngrams", m.getDetectNGrams ())
+                                                   .add ("meanMicros", m.getDetectMeanMicros ())
+                                                   .add ("p50Micros", m.getDetectP50Micros ())
+                                                   .add ("p99Micros", m.getDetectP99Micros ())
+                                                   .add ("maxMicros", m.getDetectMaxMicros ()));
+  }
+
+  /**
+   * Command line interface.
+   * <p>
+   * Options: <code>-p port</code> (8080), <code>-d profile directory</code>
+   * (enables the langdetect engine), <code>-l languages</code> (comma
+   * separated, restricts the langid model), <code>-s seed</code>,
+   * <code>-t threads</code> (number of processors), <code>-b batch size</code>
+   * (32), <code>-w batch delay in microseconds</code> (200),
+   * <code>-q queue capacity</code> (10000) and <code>--no-langid</code>.
+   *
+   * @param args
+   *        command line arguments
+   */
+  public static void main (final String [] args) throws Exception
+  {
+    final Map <String, String> options = new HashMap<> ();
+    final Set <String> flags = new HashSet<> ();
+    for (int i = 0; i < args.length; ++i)
+    {
+      if (args[i].startsWith ("--"))
+        flags.add (args[i]);
+      else
+        if (args[i].startsWith ("-") && i + 1 < args.length)
+          options.put (args[i], args[++i]);
+        else
+        {
+          System.err.println ("Unexpected argument: " + args[i]);
+          return;
+        }
+    }
+
+    final String profiles = options.get ("-d");
+    if (profiles != null)
+    {
+      DetectorFactory.loadProfile (new File (profiles));
+      if (options.containsKey ("-s"))
+        DetectorFactory.setSeed (Long.parseLong (options.get ("-s")));
+    }
+    Model model = null;
+    if (!flags.contains ("--no-langid"))
+    {
+      model = Model.defaultModel ();
+      if (options.containsKey ("-l"))
+        model = model.subset (new HashSet<> (Arrays.asList (options.get ("-l").split (","))));
+    }
+
+    final int threads = Integer.parseInt (options.getOrDefault ("-t",
+                                                                Integer.toString (Runtime.getRuntime ()
+                                                                                         .availableProcessors ())));
+    final DetectionServer server = new DetectionServer (new InetSocketAddress (Integer.parseInt (options.getOrDefault ("-p",
+                                                                                                                      "8080"))),
+                                                        model,
+                                                        profiles != null,
+                                                        threads,
+                                                        Integer.parseInt (options.getOrDefault ("-b", "32")),
+                                                        Long.parseLong (options.getOrDefault ("-w", "200")),
+                                                        Integer.parseInt (options.getOrDefault ("-q", "10000")));
+    Runtime.getRuntime ().addShutdownHook (new Thread (server::close));
+    server.start ();
+    // The server's dispatcher thread keeps the JVM running.
+    System.out.println ("Listening on " + server.getAddress () + ", engines: " + server.m_aEngines.keySet ());
+  }
+}
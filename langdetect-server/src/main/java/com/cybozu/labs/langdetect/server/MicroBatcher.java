@@ -0,0 +1,204 @@
+package com.cybozu.labs.langdetect.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Coalesces items submitted by concurrent requests into batches processed by a
+ * fixed set of worker threads. Each worker waits for an item, then collects
+ * more for at most the configured delay (or until the batch is full) and
+ * processes the batch with its own processor, so processors (classifiers) are
+ * never shared between threads and stay warm.
+ * <p>
+ * The queue is bounded: submissions are rejected when it is full, which the
+ * server reports as overload instead of queueing without limit.
+ *
+ * @param <T>
+ *        item type
+ * @param <R>
+ *        result type
+ */
+final class MicroBatcher <T, R> implements AutoCloseable
+{
+  private static final class Task <T, R>
+  {
+    final T m_aItem;
+    final CompletableFuture <R> m_aResult = new CompletableFuture<> ();
+
+    Task (final T aItem)
+    {
+      m_aItem = aItem;
+    }
+  }
+
+  private final BlockingQueue <Task <T, R>> m_aQueue;
+  private final int m_nMaxBatchSize;
+  private final long m_nMaxDelayNanos;
+  private final Thread [] m_aWorkers;
+  private final LongAdder m_aBatches = new LongAdder ();
+  private final LongAdder m_aItems = new LongAdder ();
+  private final LongAdder m_aRejected = new LongAdder ();
+  private volatile boolean m_bRunning = true;
+
+  /**
+   * @param name
+   *        prefix of worker thread names
+   * @param threads
+   *        number of worker threads
+   * @param maxBatchSize
+   *        maximum number of items processed in one batch
+   * @param maxDelayMicros
+   *        maximum time a worker waits for more items once it has one
+   * @param queueCapacity
+   *        maximum number of waiting items
+   * @param processorFactory
+   *        called once for each worker to create its processor, before the
+   *        workers are started (so that a failure is reported here instead of
+   *        stopping a worker)
+   */
+  MicroBatcher (@Nonnull final String name,
+                final int threads,
+                final int maxBatchSize,
+                final long maxDelayMicros,
+                final int queueCapacity,
+                @Nonnull final Supplier <? extends Function <? super T, ? extends R>> processorFactory)
+  {
+    if (threads < 1 || maxBatchSize < 1 || maxDelayMicros < 0 || queueCapacity < 1)
+      throw new IllegalArgumentException ("Invalid batcher configuration.");
+    m_aQueue = new ArrayBlockingQueue<> (queueCapacity);
+    m_nMaxBatchSize = maxBatchSize;
+    m_nMaxDelayNanos = TimeUnit.MICROSECONDS.toNanos (maxDelayMicros);
+    final List <Function <? super T, ? extends R>> processors = new ArrayList<> (threads);
+    for (int i = 0; i < threads; i++)
+      processors.add (processorFactory.get ());
+    m_aWorkers = new Thread [threads];
+    for (int i = 0; i < threads; i++)
+    {
+      final Function <? super T, ? extends R> processor = processors.get (i);
+      m_aWorkers[i] = new Thread ( () -> _work (processor), name + "-" + i);
+      m_aWorkers[i].setDaemon (true);
+      m_aWorkers[i].start ();
+    }
+  }
+
+  /**
+   * @param item
+   *        item to process
+   * @return the future result; failed with a
+   *         {@link RejectedExecutionException} if the queue is full or the
+   *         batcher is closed
+   */
+  @Nonnull
+  CompletableFuture <R> submit (@Nonnull final T item)
+  {
+    final Task <T, R> task = new Task<> (item);
+    if (!m_bRunning || !m_aQueue.offer (task))
+    {
+      m_aRejected.increment ();
+      task.m_aResult.completeExceptionally (new RejectedExecutionException (m_bRunning ? "Detection queue is full."
+                                                                                       : "Detection server is closed."));
+    }
+    else
+      if (!m_bRunning && m_aQueue.remove (task))
+      {
+        // Closed meanwhile, possibly after the queue was drained.
+        m_aRejected.increment ();
+        task.m_aResult.completeExceptionally (new RejectedExecutionException ("Detection server is closed."));
+      }
+    return task.m_aResult;
+  }
+
+  private void _work (final Function <? super T, ? extends R> processor)
+  {
+    final List <Task <T, R>> batch = new ArrayList<> (m_nMaxBatchSize);
+    while (m_bRunning)
+    {
+      try
+      {
+        final Task <T, R> first = m_aQueue.poll (100, TimeUnit.MILLISECONDS);
+        if (first == null)
+          continue;
+        batch.add (first);
+        m_aQueue.drainTo (batch, m_nMaxBatchSize - 1);
+        if (batch.size () < m_nMaxBatchSize && m_nMaxDelayNanos > 0)
+        {
+          final long deadline = System.nanoTime () + m_nMaxDelayNanos;
+          long remaining;
+          while (batch.size () < m_nMaxBatchSize && (remaining = deadline - System.nanoTime ()) > 0)
+          {
+            final Task <T, R> next = m_aQueue.poll (remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+              break;
+            batch.add (next);
+            m_aQueue.drainTo (batch, m_nMaxBatchSize - batch.size ());
+          }
+        }
+      }
+      catch (final InterruptedException e)
+      {
+        Thread.currentThread ().interrupt ();
+        m_bRunning = false;
+      }
+
+      if (batch.isEmpty ())
+        continue;
+      m_aBatches.increment ();
+      m_aItems.add (batch.size ());
+      for (final Task <T, R> task : batch)
+      {
+        try
+        {
+          task.m_aResult.complete (processor.apply (task.m_aItem));
+        }
+        catch (final RuntimeException e)
+        {
+          task.m_aResult.completeExceptionally (e);
+        }
+      }
+      batch.clear ();
+    }
+  }
+
+  long getBatchCount ()
+  {
+    return m_aBatches.sum ();
+  }
+
+  long getItemCount ()
+  {
+    return m_aItems.sum ();
+  }
+
+  long getRejectedCount ()
+  {
+    return m_aRejected.sum ();
+  }
+
+  int getQueueSize ()
+  {
+    return m_aQueue.size ();
+  }
+
+  /**
+   * Stop the workers. Items still waiting are rejected.
+   */
+  public void close ()
+  {
+    m_bRunning = false;
+    for (final Thread worker : m_aWorkers)
+      worker.interrupt ();
+    Task <T, R> task;
+    while ((task = m_aQueue.poll ()) != null)
+      task.m_aResult.completeExceptionally (new RejectedExecutionException ("Detection server is closed."));
+  }
+}
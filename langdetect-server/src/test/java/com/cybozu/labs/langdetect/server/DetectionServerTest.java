@@ -0,0 +1,119 @@
+package com.cybozu.labs.langdetect.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.carrotsearch.labs.langid.Model;
+import com.cybozu.labs.langdetect.DetectorFactory;
+import com.helger.json.IJson;
+import com.helger.json.IJsonObject;
+import com.helger.json.serialize.JsonReader;
+
+public class DetectionServerTest
+{
+  private static DetectionServer s_aServer;
+
+  @BeforeClass
+  public static void startServer () throws Exception
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("../profiles");
+    DetectorFactory.setSeed (0);
+    s_aServer = new DetectionServer (new InetSocketAddress ("localhost", 0), Model.defaultModel (), true, 2, 8, 100, 100);
+    s_aServer.start ();
+  }
+
+  @AfterClass
+  public static void stopServer ()
+  {
+    s_aServer.close ();
+    DetectorFactory.clear ();
+  }
+
+  private static String _request (final String path, final String contentType, final String body) throws IOException
+  {
+    final URL url = new URL ("http://localhost:" + s_aServer.getAddress ().getPort () + path);
+    final HttpURLConnection connection = (HttpURLConnection) url.openConnection ();
+    if (body != null)
+    {
+      connection.setDoOutput (true);
+      connection.setRequestMethod ("POST");
+      connection.setRequestProperty ("Content-Type", contentType);
+      try (final OutputStream out = connection.getOutputStream ())
+      {
+        out.write (body.getBytes (StandardCharsets.UTF_8));
+      }
+    }
+    final int status = connection.getResponseCode ();
+    try (final InputStream in = status == 200 ? connection.getInputStream () : connection.getErrorStream ())
+    {
+      final ByteArrayOutputStream response = new ByteArrayOutputStream ();
+      final byte [] buffer = new byte [1024];
+      int len;
+      while ((len = in.read (buffer)) > 0)
+        response.write (buffer, 0, len);
+      return status + " " + new String (response.toByteArray (), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static IJsonObject _json (final String response)
+  {
+    assertTrue (response, response.startsWith ("200 "));
+    final IJson json = JsonReader.readFromString (response.substring (4));
+    return json.getAsObject ();
+  }
+
+  @Test
+  public void testDetect () throws IOException
+  {
+    IJsonObject result = _json (_request ("/detect", "text/plain", "Dies ist ein deutscher Satz."));
+    assertEquals ("de", result.getAsString ("language"));
+
+    result = _json (_request ("/detect?engine=langdetect",
+                              "application/json",
+                              "{\"text\":\"This is an English sentence.\"}"));
+    assertEquals ("en", result.getAsString ("language"));
+    assertTrue (result.getAsArray ("languages").size () > 0);
+
+    result = _json (_request ("/detect?text=Ceci+est+une+phrase+en+fran%C3%A7ais.", null, null));
+    assertEquals ("fr", result.getAsString ("language"));
+
+    assertTrue (_request ("/detect?engine=none", "text/plain", "text").startsWith ("400 "));
+    assertTrue (_request ("/detectx", "text/plain", "text").startsWith ("404 "));
+  }
+
+  @Test
+  public void testDetectBatch () throws IOException
+  {
+    final IJsonObject result = _json (_request ("/detect/batch",
+                                                "application/json",
+                                                "[\"This is an English sentence.\", {\"text\":\"Dies ist ein deutscher Satz.\"}]"));
+    assertEquals (2, result.getAsArray ("results").size ());
+    assertEquals ("en", result.getAsArray ("results").getObjectAtIndex (0).getAsString ("language"));
+    assertEquals ("de", result.getAsArray ("results").getObjectAtIndex (1).getAsString ("language"));
+
+    final String response = _request ("/detect/batch?engine=langdetect",
+                                      "text/plain",
+                                      "This is an English sentence.\n\nDies ist ein deutscher Satz.\n");
+    assertTrue (response, response.startsWith ("200 "));
+    final String [] lines = response.substring (4).split ("\n");
+    assertEquals (2, lines.length);
+    assertEquals ("de", JsonReader.readFromString (lines[1]).getAsObject ().getAsString ("language"));
+
+    final IJsonObject metrics = _json (_request ("/metrics", null, null));
+    assertTrue (metrics.getAsObject ("engines").getAsObject ("langdetect").getAsLong ("texts") >= 2);
+  }
+}
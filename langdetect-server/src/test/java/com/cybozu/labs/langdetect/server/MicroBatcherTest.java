@@ -0,0 +1,56 @@
+package com.cybozu.labs.langdetect.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class MicroBatcherTest
+{
+  @Test
+  public void testProcess ()
+  {
+    try (final MicroBatcher <String, Integer> batcher = new MicroBatcher<> ("test",
+                                                                             2,
+                                                                             4,
+                                                                             100,
+                                                                             16,
+                                                                             () -> String::length))
+    {
+      assertEquals (Integer.valueOf (3), batcher.submit ("abc").join ());
+    }
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testProcessorFactoryFails ()
+  {
+    new MicroBatcher<String, Integer> ("test", 2, 4, 100, 16, () -> {
+      throw new IllegalStateException ("No processor.");
+    });
+  }
+
+  @Test
+  public void testSubmitAfterClose ()
+  {
+    final Function <String, Integer> processor = String::length;
+    final MicroBatcher <String, Integer> batcher = new MicroBatcher<> ("test", 1, 4, 100, 16, () -> processor);
+    batcher.close ();
+    final CompletableFuture <Integer> future = batcher.submit ("abc");
+    try
+    {
+      future.join ();
+      fail ();
+    }
+    catch (final CompletionException e)
+    {
+      assertTrue (e.getCause () instanceof RejectedExecutionException);
+    }
+    assertEquals (1, batcher.getRejectedCount ());
+  }
+}
@@ -14,7 +14,12 @@ public class BenchmarkV3Size
     System.out.println ("m: " + RamUsageEstimator.humanSizeOf (classifier.getModel ()));
     System.out.println ("m.nb_pc: " + RamUsageEstimator.humanSizeOf (classifier.getModel ().nb_pc));
     System.out.println ("m.nb_ptc: " + RamUsageEstimator.humanSizeOf (classifier.getModel ().nb_ptc));
-    System.out.println ("m.tk_nextmove: " + RamUsageEstimator.humanSizeOf (classifier.getModel ().m_aDsa));
-    System.out.println ("m.tk_output: " + RamUsageEstimator.humanSizeOf (classifier.getModel ().m_aDsaOutput));
+    System.out.println ("m.tk_nextmove: " + RamUsageEstimator.humanSizeOf (classifier.getModel ().m_aDsa.m_aTransitions));
+    System.out.println ("m.tk_output: " +
+                        RamUsageEstimator.humanSizeOf (classifier.getModel ().m_aDsa.m_aOutputOffsets) +
+                        " + " +
+                        RamUsageEstimator.humanSizeOf (classifier.getModel ().m_aDsa.m_aOutputs));
+    System.out.println ("m.nb_ptc (quantized): " +
+                        RamUsageEstimator.humanSizeOf (classifier.getModel ().quantize ().nb_ptc_q));
   }
 }
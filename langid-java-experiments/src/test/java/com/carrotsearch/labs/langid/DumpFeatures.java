@@ -11,6 +11,8 @@ import com.carrotsearch.hppc.IntOpenHashSet;
 public class DumpFeatures
 {
   static Model m = Model.defaultModel ();
+  static short [] dsa = m.m_aDsa.toTransitionTable ();
+  static int [] [] dsaOutput = m.m_aDsa.toOutputTable ();
   static ByteStack seq = ByteStack.newInstance ();
   static IntOpenHashSet visited = IntOpenHashSet.newInstance ();
 
@@ -41,13 +43,13 @@ public class DumpFeatures
         continue;
       }
 
-      if (m.m_aDsaOutput[s.state] != null)
+      if (dsaOutput[s.state] != null)
       {
         b.setLength (0);
         b.append (s.depth + " # " + s.seq.size () + " ");
         b.append (new String (s.seq.toArray (), "UTF-8"));
 
-        for (final int fi : m.m_aDsaOutput[s.state])
+        for (final int fi : dsaOutput[s.state])
         {
           b.append (" " + fi);
         }
@@ -61,7 +63,7 @@ public class DumpFeatures
       {
         for (int i = 0; i <= 0xFF; i++)
         {
-          final int newState = m.m_aDsa[(s.state << 8) + i];
+          final int newState = dsa[(s.state << 8) + i];
           final State ns = new State ();
           ns.state = newState;
           ns.depth = s.depth + 1;
@@ -72,7 +74,7 @@ public class DumpFeatures
       }
     }
 
-    System.out.println (visited.size () + " " + m.m_aDsaOutput.length);
+    System.out.println (visited.size () + " " + dsaOutput.length);
 
     final String in = "Salsa Caliente! salsa caliente, latin music, latin dance, salsa, salsa music, latin-american music, spanish music ... 2002 Cammy Award! SALSA CALIENTE! BEST WORLD BEAT BAND ... Proudly Sponsored By. Salsa Caliente! performs your favorite Latin/Spanish dance music ...";
     final ByteBuffer buffer = ByteBuffer.wrap (in.getBytes (StandardCharsets.UTF_8));
@@ -80,8 +82,8 @@ public class DumpFeatures
     // Update predictions (without an intermediate statecount as in the
     // original)
     short state = 0;
-    final int [] [] tk_output = m.m_aDsaOutput;
-    final short [] tk_nextmove = m.m_aDsa;
+    final int [] [] tk_output = dsaOutput;
+    final short [] tk_nextmove = dsa;
 
     while (buffer.hasRemaining ())
     {
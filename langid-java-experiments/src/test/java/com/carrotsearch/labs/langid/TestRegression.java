@@ -1,8 +1,12 @@
 package com.carrotsearch.labs.langid;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
 import com.carrotsearch.randomizedtesting.RandomizedTest;
 import com.carrotsearch.randomizedtesting.annotations.Seed;
 import com.carrotsearch.randomizedtesting.annotations.Seeds;
@@ -46,4 +50,33 @@ public class TestRegression extends RandomizedTest
       assertEquals (c1.confidence + " " + c2.confidence, c1.confidence, c2.confidence, 0.01d);
     }
   }
+
+  @Test
+  public void testQuantizedAgainstV3OnEuroParl () throws IOException
+  {
+    final Model model = Model.defaultModel ();
+    final LangIdV3 v3 = new LangIdV3 (model);
+    final LangIdV3 v3q = new LangIdV3 (model.quantize ());
+
+    assertSameAccuracy (v3, v3q, EuroParlData.europarl21 ());
+    assertSameAccuracy (v3, v3q, EuroParlData.europarl18 ());
+  }
+
+  private static void assertSameAccuracy (final LangIdV3 expected,
+                                          final LangIdV3 actual,
+                                          final List <ObjectObjectCursor <String, String>> data)
+  {
+    int correctExpected = 0;
+    int correctActual = 0;
+    for (final ObjectObjectCursor <String, String> c : data)
+    {
+      if (c.key.equals (expected.classify (c.value, true).m_sLangCode))
+        correctExpected++;
+      if (c.key.equals (actual.classify (c.value, true).m_sLangCode))
+        correctActual++;
+    }
+
+    // Allow at most 0.1% of the documents to flip.
+    assertTrue (correctExpected + " vs. " + correctActual, correctExpected - correctActual <= data.size () / 1000);
+  }
 }
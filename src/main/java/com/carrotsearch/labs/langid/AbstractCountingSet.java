@@ -0,0 +1,36 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Common base of feature counting sets used by {@link LangIdV3}. Distinct keys
+ * and their counts are available in {@link #dense} and {@link #counts} at
+ * indexes <code>[0, elementsCount)</code>, in insertion order.
+ */
+public abstract class AbstractCountingSet
+{
+  public int [] dense;
+  public int [] counts;
+
+  public int elementsCount;
+
+  public abstract void increment (int key);
+
+  /**
+   * Add <code>count</code> (positive) occurrences of <code>key</code>.
+   */
+  public abstract void add (int key, int count);
+
+  /**
+   * Add all keys and counts of another set to this one.
+   */
+  public void addAll (final AbstractCountingSet other)
+  {
+    final int [] otherDense = other.dense;
+    final int [] otherCounts = other.counts;
+    for (int i = 0, max = other.elementsCount; i < max; i++)
+    {
+      add (otherDense[i], otherCounts[i]);
+    }
+  }
+
+  public abstract void clear ();
+}
@@ -0,0 +1,42 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * The result of a detection bounded by a {@link DetectionBudget}.
+ *
+ * @param <T>
+ *        result type
+ */
+public final class BudgetedResult <T>
+{
+  private final T m_aResult;
+  private final boolean m_bPartial;
+
+  public BudgetedResult (final T result, final boolean partial)
+  {
+    this.m_aResult = result;
+    this.m_bPartial = partial;
+  }
+
+  /**
+   * @return the result (for the input processed, if partial).
+   */
+  public T getResult ()
+  {
+    return m_aResult;
+  }
+
+  /**
+   * @return <code>true</code> if the budget ran out before the detection
+   *         completed, so that the result is the best so far.
+   */
+  public boolean isPartial ()
+  {
+    return m_bPartial;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return m_aResult + (m_bPartial ? " (partial)" : "");
+  }
+}
@@ -0,0 +1,131 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link ILangIdClassifier} that caches the results of single-call
+ * classification ({@link #classify(CharSequence, boolean)} and
+ * {@link #rank(CharSequence, boolean)}) in a {@link DetectionCache}. Streaming
+ * calls are passed to the delegate as they are.
+ * <p>
+ * Keys are computed from the whole text (see
+ * {@link DetectionCache#keyOfFullText(CharSequence, int)}), as the delegate
+ * classifies all of it: texts sharing a long prefix (like a templated header)
+ * have different keys. Texts that only differ in runs of whitespace share a
+ * result, which may differ slightly from the delegate's result for the other
+ * text.
+ * <p>
+ * Returned objects are copies, so they can be kept and modified by the caller.
+ * A cache may be shared between instances (typically one per thread, like the
+ * delegate) as long as they all use the same model.
+ * <p>
+ * <strong>Thread safety:</strong> as thread safe as the delegate.
+ */
+public final class CachingLangIdClassifier implements ILangIdClassifier
+{
+  /** Key variants. */
+  private static final int CLASSIFY = 0;
+  private static final int RANK = 2;
+
+  private final ILangIdClassifier m_aDelegate;
+  private final DetectionCache <DetectedLanguage []> m_aCache;
+
+  public CachingLangIdClassifier (final ILangIdClassifier delegate, final DetectionCache <DetectedLanguage []> cache)
+  {
+    this.m_aDelegate = delegate;
+    this.m_aCache = cache;
+  }
+
+  public DetectionCache <DetectedLanguage []> getCache ()
+  {
+    return m_aCache;
+  }
+
+  @Override
+  public DetectedLanguage classify (final CharSequence str, final boolean normalizeConfidence)
+  {
+    final long key = m_aCache.keyOfFullText (str, CLASSIFY + (normalizeConfidence ? 1 : 0));
+    DetectedLanguage [] cached = m_aCache.get (key);
+    if (cached == null)
+    {
+      final DetectedLanguage result = m_aDelegate.classify (str, normalizeConfidence);
+      if (result == null)
+        return null;
+      cached = new DetectedLanguage [] { result.clone () };
+      m_aCache.put (key, cached);
+    }
+    return cached[0].clone ();
+  }
+
+  /**
+   * Return a list of ranked languages for the input character sequence (same
+   * as {@link #reset()}, {@link #append(CharSequence)} and
+   * {@link #rank(boolean)}). Unlike {@link #rank(boolean)}, the returned list
+   * and its elements are not reused.
+   *
+   * @param str
+   *        The input character sequence to identify.
+   * @param normalizeConfidence
+   *        normalize confidence?
+   * @return List of {@link DetectedLanguage}
+   */
+  public List <DetectedLanguage> rank (final CharSequence str, final boolean normalizeConfidence)
+  {
+    final long key = m_aCache.keyOfFullText (str, RANK + (normalizeConfidence ? 1 : 0));
+    DetectedLanguage [] cached = m_aCache.get (key);
+    if (cached == null)
+    {
+      m_aDelegate.reset ();
+      m_aDelegate.append (str);
+      final List <DetectedLanguage> ranking = m_aDelegate.rank (normalizeConfidence);
+      cached = new DetectedLanguage [ranking.size ()];
+      for (int i = 0; i < cached.length; i++)
+        cached[i] = ranking.get (i).clone ();
+      m_aCache.put (key, cached);
+    }
+
+    final List <DetectedLanguage> copy = new ArrayList<> (cached.length);
+    for (final DetectedLanguage language : cached)
+      copy.add (language.clone ());
+    return Collections.unmodifiableList (copy);
+  }
+
+  @Override
+  public void reset ()
+  {
+    m_aDelegate.reset ();
+  }
+
+  @Override
+  public void append (final CharSequence str)
+  {
+    m_aDelegate.append (str);
+  }
+
+  @Override
+  public void append (final ByteBuffer buffer)
+  {
+    m_aDelegate.append (buffer);
+  }
+
+  @Override
+  public void append (final byte [] array, final int start, final int length)
+  {
+    m_aDelegate.append (array, start, length);
+  }
+
+  @Override
+  public DetectedLanguage classify (final boolean normalizeConfidence)
+  {
+    return m_aDelegate.classify (normalizeConfidence);
+  }
+
+  @Override
+  public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+  {
+    return m_aDelegate.rank (normalizeConfidence);
+  }
+}
@@ -0,0 +1,271 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A two-stage classifier: a fast classifier (like {@link LangIdV3}) decides
+ * whenever it is confident, a slower and more accurate one (like
+ * {@link com.cybozu.labs.langdetect.Detector}, see
+ * <code>DetectorFactory.createCascade</code>) only when the fast classifier's
+ * confidence is below a threshold or its two best languages are a known
+ * confusable pair (like Danish and Norwegian). The stage that decided the last
+ * classification is available from {@link #getLastStage()}.
+ * <p>
+ * Input is appended to the fast stage and kept (copied, without decoding) for
+ * the slow stage, which only gets it when it has to decide, so the slow
+ * stage's costs of appending (like the Detector's text cleaning) are only paid
+ * for the inputs it classifies. Confidences of both stages are compared
+ * to the threshold and reported normalized, so the
+ * <code>normalizeConfidence</code> arguments are ignored. If the slow stage
+ * cannot classify the input (returns {@link #UNKNOWN_LANG}), the fast stage's
+ * result is used.
+ * <p>
+ * <strong>Thread safety:</strong> this class is <b>not</b> thread safe, as
+ * neither are its stages.
+ */
+public final class CascadeClassifier implements ILangIdClassifier
+{
+  /** Language reported by a classifier that cannot classify the input. */
+  public static final String UNKNOWN_LANG = "unknown";
+
+  /** The stage of a cascade that decided a classification. */
+  public enum EStage
+  {
+    FAST,
+    SLOW
+  }
+
+  /**
+   * Default confidence below which the slow stage decides.
+   */
+  public static final float DEFAULT_THRESHOLD = 0.9f;
+
+  /**
+   * Pairs of closely related languages that the fast stage often confuses.
+   *
+   * @see #pair(String, String)
+   */
+  public static final Set <String> DEFAULT_CONFUSABLE_PAIRS;
+  static
+  {
+    final Set <String> pairs = new HashSet<> ();
+    final String [] [] languages = { { "da", "no" },
+                                     { "da", "nb" },
+                                     { "nb", "no" },
+                                     { "nn", "no" },
+                                     { "bs", "hr" },
+                                     { "bs", "sr" },
+                                     { "hr", "sr" },
+                                     { "id", "ms" },
+                                     { "cs", "sk" },
+                                     { "es", "gl" },
+                                     { "gl", "pt" },
+                                     { "be", "ru" },
+                                     { "ru", "uk" },
+                                     { "bg", "mk" },
+                                     { "af", "nl" },
+                                     { "hi", "mr" },
+                                     { "hi", "ne" } };
+    for (final String [] pair : languages)
+    {
+      pairs.add (pair (pair[0], pair[1]));
+    }
+    DEFAULT_CONFUSABLE_PAIRS = Collections.unmodifiableSet (pairs);
+  }
+
+  private final ILangIdClassifier m_aFast;
+  private final ILangIdClassifier m_aSlow;
+  private final float m_fThreshold;
+  private final Set <String> m_aConfusablePairs;
+
+  /** Input not appended to the slow stage yet: Strings and UTF-8 bytes. */
+  private final List <Object> m_aPending = new ArrayList<> ();
+
+  private EStage m_eLastStage;
+  private long m_nFastCount;
+  private long m_nSlowCount;
+
+  /**
+   * @param fast
+   *        The first stage.
+   * @param slow
+   *        The second stage.
+   * @param threshold
+   *        Normalized confidence of the fast stage below which the slow stage
+   *        decides.
+   * @param confusablePairs
+   *        Pairs of languages (see {@link #pair(String, String)}) for which
+   *        the slow stage decides if they are the fast stage's best two.
+   */
+  public CascadeClassifier (final ILangIdClassifier fast,
+                            final ILangIdClassifier slow,
+                            final float threshold,
+                            final Set <String> confusablePairs)
+  {
+    this.m_aFast = fast;
+    this.m_aSlow = slow;
+    this.m_fThreshold = threshold;
+    this.m_aConfusablePairs = confusablePairs;
+  }
+
+  /**
+   * @return the key of an (unordered) pair of languages.
+   */
+  public static String pair (final String lang1, final String lang2)
+  {
+    return lang1.compareTo (lang2) <= 0 ? lang1 + "|" + lang2 : lang2 + "|" + lang1;
+  }
+
+  /**
+   * @return the stage that decided the last classification (<code>null</code>
+   *         if there was none).
+   */
+  public EStage getLastStage ()
+  {
+    return m_eLastStage;
+  }
+
+  /**
+   * @return the number of classifications decided by the fast stage.
+   */
+  public long getFastCount ()
+  {
+    return m_nFastCount;
+  }
+
+  /**
+   * @return the number of classifications decided by the slow stage.
+   */
+  public long getSlowCount ()
+  {
+    return m_nSlowCount;
+  }
+
+  @Override
+  public DetectedLanguage classify (final CharSequence str, final boolean normalizeConfidence)
+  {
+    reset ();
+    append (str);
+    return classify (normalizeConfidence);
+  }
+
+  @Override
+  public void reset ()
+  {
+    m_aFast.reset ();
+    m_aSlow.reset ();
+    m_aPending.clear ();
+  }
+
+  @Override
+  public void append (final CharSequence str)
+  {
+    m_aFast.append (str);
+    m_aPending.add (str.toString ());
+  }
+
+  @Override
+  public void append (final ByteBuffer buffer)
+  {
+    final byte [] bytes = new byte [buffer.remaining ()];
+    buffer.duplicate ().get (bytes);
+    m_aFast.append (buffer);
+    m_aPending.add (bytes);
+  }
+
+  @Override
+  public void append (final byte [] array, final int start, final int length)
+  {
+    m_aFast.append (array, start, length);
+    m_aPending.add (Arrays.copyOfRange (array, start, start + length));
+  }
+
+  @Override
+  public DetectedLanguage classify (final boolean normalizeConfidence)
+  {
+    return decide ().clone ();
+  }
+
+  /**
+   * Returns the ranking of the stage that decided.
+   */
+  @Override
+  public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+  {
+    decide ();
+    return m_eLastStage == EStage.FAST ? m_aFast.rank (true) : m_aSlow.rank (true);
+  }
+
+  /*
+   * Run the fast stage and, if needed, the slow one. The result may be a
+   * reused instance of either stage.
+   */
+  private DetectedLanguage decide ()
+  {
+    DetectedLanguage first = null;
+    DetectedLanguage second = null;
+    for (final DetectedLanguage lang : m_aFast.rank (true))
+    {
+      if (first == null || lang.m_fConfidence > first.m_fConfidence)
+      {
+        second = first;
+        first = lang;
+      }
+      else
+        if (second == null || lang.m_fConfidence > second.m_fConfidence)
+        {
+          second = lang;
+        }
+    }
+
+    if (first != null &&
+        first.m_fConfidence >= m_fThreshold &&
+        (second == null || !m_aConfusablePairs.contains (pair (first.m_sLangCode, second.m_sLangCode))))
+    {
+      return fast (first);
+    }
+
+    appendPending ();
+    final DetectedLanguage slow = m_aSlow.classify (true);
+    if (slow == null || UNKNOWN_LANG.equals (slow.m_sLangCode))
+    {
+      return fast (first != null ? first : new DetectedLanguage (UNKNOWN_LANG, 0));
+    }
+    m_eLastStage = EStage.SLOW;
+    m_nSlowCount++;
+    return slow;
+  }
+
+  /*
+   * Append the input kept since the last classification to the slow stage.
+   */
+  private void appendPending ()
+  {
+    for (final Object input : m_aPending)
+    {
+      if (input instanceof String)
+      {
+        m_aSlow.append ((String) input);
+      }
+      else
+      {
+        final byte [] bytes = (byte []) input;
+        m_aSlow.append (bytes, 0, bytes.length);
+      }
+    }
+    m_aPending.clear ();
+  }
+
+  private DetectedLanguage fast (final DetectedLanguage result)
+  {
+    m_eLastStage = EStage.FAST;
+    m_nFastCount++;
+    return result;
+  }
+}
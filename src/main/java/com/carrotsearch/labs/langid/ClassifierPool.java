@@ -0,0 +1,159 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free pool of classifiers (or other stateful, single-threaded
+ * objects such as {@link com.cybozu.labs.langdetect.Detector}s). An alternative
+ * to thread-local instances when there are many more threads than concurrent
+ * classifications (large or virtual thread pools): at most
+ * <code>maxIdle</code> instances are retained when idle, regardless of the
+ * number of threads.
+ * <p>
+ * Idle instances are kept in a lock-free (Treiber) stack of at most
+ * <code>maxIdle</code> entries. A new instance is only created if the stack is
+ * empty, i.e. when all instances are borrowed (or being released), so if
+ * <code>maxIdle</code> is at least the peak number of concurrent borrowers,
+ * no more instances than that are ever created. If the stack is full on
+ * release the instance is dropped.
+ * <p>
+ * <strong>Thread safety:</strong> this class is thread safe, the borrowed
+ * instances are owned by the borrower until released.
+ *
+ * @param <T>
+ *        pooled type
+ */
+public final class ClassifierPool <T>
+{
+  /* An entry of the stack of idle instances, immutable. */
+  private static final class Node <T>
+  {
+    final T m_aInstance;
+    final Node <T> m_aNext;
+    /** Number of entries from this one to the bottom of the stack. */
+    final int m_nSize;
+
+    Node (final T instance, final Node <T> next)
+    {
+      this.m_aInstance = instance;
+      this.m_aNext = next;
+      this.m_nSize = next == null ? 1 : next.m_nSize + 1;
+    }
+  }
+
+  private final int m_nMaxIdle;
+  private final AtomicReference <Node <T>> m_aTop = new AtomicReference<> ();
+  private final Supplier <? extends T> m_aFactory;
+  private final Consumer <? super T> m_aReset;
+  private final LongAdder m_aCreated = new LongAdder ();
+
+  /**
+   * @param maxIdle
+   *        Maximum number of idle instances retained.
+   * @param factory
+   *        Creates new instances.
+   * @param reset
+   *        Called on an instance when it is released (to clear its state).
+   */
+  public ClassifierPool (final int maxIdle, final Supplier <? extends T> factory, final Consumer <? super T> reset)
+  {
+    if (maxIdle < 1)
+      throw new IllegalArgumentException ("Maximum number of idle instances must be positive: " + maxIdle);
+    this.m_nMaxIdle = maxIdle;
+    this.m_aFactory = factory;
+    this.m_aReset = reset;
+  }
+
+  /**
+   * A pool of {@link LangIdV3} classifiers sharing a model.
+   *
+   * @param model
+   *        The model.
+   * @param maxIdle
+   *        Maximum number of idle classifiers retained (typically about the
+   *        number of processors).
+   */
+  public static ClassifierPool <LangIdV3> forModel (final Model model, final int maxIdle)
+  {
+    return new ClassifierPool<> (maxIdle, () -> new LangIdV3 (model), LangIdV3::reset);
+  }
+
+  /**
+   * Take an idle instance or create a new one. The instance must be returned
+   * with {@link #release(Object)} (it is not an error not to, but it won't be
+   * reused then).
+   */
+  public T borrow ()
+  {
+    Node <T> top;
+    while ((top = m_aTop.get ()) != null)
+    {
+      // Nodes are never reused, so there is no ABA problem.
+      if (m_aTop.compareAndSet (top, top.m_aNext))
+        return top.m_aInstance;
+    }
+
+    m_aCreated.increment ();
+    return m_aFactory.get ();
+  }
+
+  /**
+   * Reset and return a borrowed instance to the pool. Must not be used by the
+   * caller afterwards.
+   */
+  public void release (final T instance)
+  {
+    m_aReset.accept (instance);
+    Node <T> top;
+    do
+    {
+      top = m_aTop.get ();
+      if (top != null && top.m_nSize >= m_nMaxIdle)
+      {
+        // The stack is full, leave the instance to the garbage collector.
+        return;
+      }
+    } while (!m_aTop.compareAndSet (top, new Node<> (instance, top)));
+  }
+
+  /**
+   * Scoped acquisition: borrow an instance, apply the function to it and
+   * release it.
+   *
+   * @return the function's result, which must not reference the instance's
+   *         reused state (like {@link LangIdV3#rank(boolean)}'s list).
+   */
+  public <R> R apply (final Function <? super T, ? extends R> function)
+  {
+    final T instance = borrow ();
+    try
+    {
+      return function.apply (instance);
+    }
+    finally
+    {
+      release (instance);
+    }
+  }
+
+  /**
+   * @return the number of idle instances.
+   */
+  public int getIdleCount ()
+  {
+    final Node <T> top = m_aTop.get ();
+    return top == null ? 0 : top.m_nSize;
+  }
+
+  /**
+   * @return the number of instances created so far.
+   */
+  public long getCreatedCount ()
+  {
+    return m_aCreated.sum ();
+  }
+}
@@ -0,0 +1,249 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact encoding of the byte n-gram state machine of a {@link Model}.
+ * <p>
+ * Byte values that lead to the same target state from every state are merged
+ * into a single byte class, so the transition table only has as many columns
+ * as there are distinct byte classes. Targets are stored as unsigned 16-bit
+ * values (up to 65535 states). Outputs of all states are kept in two flat
+ * arrays (offsets and features) instead of one small array per state.
+ */
+final class CompactDsa
+{
+  /** Maximum number of states addressable by the transition table. */
+  static final int MAX_STATES = Character.MAX_VALUE + 1;
+
+  /** Byte class of each byte value (unsigned). */
+  final byte [] m_aByteClasses;
+
+  /** Number of distinct byte classes (columns of the transition table). */
+  final int numByteClasses;
+
+  /** Number of states. */
+  final int numStates;
+
+  /**
+   * Flattened transition table.
+   *
+   * <pre>
+   * index = {@link #numByteClasses} * state + byteClass
+   * </pre>
+   */
+  final char [] m_aTransitions;
+
+  /**
+   * Outputs of state <code>s</code> are at indexes
+   * <code>[m_aOutputOffsets[s], m_aOutputOffsets[s + 1])</code> of
+   * {@link #m_aOutputs}.
+   */
+  final int [] m_aOutputOffsets;
+
+  /** Features emitted by all states, concatenated. */
+  final int [] m_aOutputs;
+
+  /**
+   * Length of the longest shortest path from the initial state to any state.
+   * In an Aho-Corasick automaton this is the length of the longest feature,
+   * and the state after any input only depends on its last
+   * <code>maxDepth</code> bytes.
+   */
+  final int maxDepth;
+
+  private CompactDsa (final byte [] byteClasses,
+                      final int numByteClasses,
+                      final char [] transitions,
+                      final int [] outputOffsets,
+                      final int [] outputs)
+  {
+    this.m_aByteClasses = byteClasses;
+    this.numByteClasses = numByteClasses;
+    this.m_aTransitions = transitions;
+    this.m_aOutputOffsets = outputOffsets;
+    this.m_aOutputs = outputs;
+    this.numStates = outputOffsets.length - 1;
+    this.maxDepth = computeMaxDepth ();
+  }
+
+  /*
+   * Breadth-first search from the initial state.
+   */
+  private int computeMaxDepth ()
+  {
+    final int [] depth = new int [numStates];
+    Arrays.fill (depth, -1);
+    final int [] queue = new int [numStates];
+    int head = 0;
+    int tail = 0;
+    depth[0] = 0;
+    queue[tail++] = 0;
+    int max = 0;
+    while (head < tail)
+    {
+      final int state = queue[head++];
+      for (int c = 0, i = state * numByteClasses; c < numByteClasses; c++, i++)
+      {
+        final int target = m_aTransitions[i];
+        if (depth[target] < 0)
+        {
+          depth[target] = depth[state] + 1;
+          max = Math.max (max, depth[target]);
+          queue[tail++] = target;
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Compile the state machine from its classic (langid.py) form: a transition
+   * table indexed by <code>(state &lt;&lt; 8) + byte</code> and an optional
+   * array of outputs for each state. Transition targets are read as unsigned
+   * 16-bit values.
+   */
+  static CompactDsa compile (final short [] dsa, final int [] [] dsaOutput)
+  {
+    if (dsa.length % 256 != 0)
+    {
+      throw new IllegalArgumentException ("Transition table length must be a multiple of 256: " + dsa.length);
+    }
+
+    final int numStates = dsa.length >>> 8;
+    if (numStates > MAX_STATES || dsaOutput.length > numStates)
+    {
+      throw new IllegalArgumentException ("Invalid number of states: " + numStates + ", outputs: " + dsaOutput.length);
+    }
+
+    // Merge byte values with identical columns into byte classes.
+    final byte [] byteClasses = new byte [256];
+    final Map <ColumnKey, Integer> classes = new HashMap<> ();
+    final char [] [] columns = new char [256] [];
+    for (int b = 0; b < 256; b++)
+    {
+      final char [] column = new char [numStates];
+      for (int state = 0; state < numStates; state++)
+      {
+        final int target = dsa[(state << 8) + b] & 0xffff;
+        if (target >= numStates)
+        {
+          throw new IllegalArgumentException ("Transition to a non-existent state: " + target);
+        }
+        column[state] = (char) target;
+      }
+
+      final Integer existing = classes.putIfAbsent (new ColumnKey (column), Integer.valueOf (classes.size ()));
+      final int byteClass = existing != null ? existing.intValue () : classes.size () - 1;
+      byteClasses[b] = (byte) byteClass;
+      columns[byteClass] = column;
+    }
+
+    final int numByteClasses = classes.size ();
+    final char [] transitions = new char [numStates * numByteClasses];
+    for (int c = 0; c < numByteClasses; c++)
+    {
+      final char [] column = columns[c];
+      for (int state = 0, i = c; state < numStates; state++, i += numByteClasses)
+      {
+        transitions[i] = column[state];
+      }
+    }
+
+    // Flatten outputs.
+    final int [] outputOffsets = new int [numStates + 1];
+    int total = 0;
+    for (int state = 0; state < numStates; state++)
+    {
+      outputOffsets[state] = total;
+      if (state < dsaOutput.length && dsaOutput[state] != null)
+      {
+        total += dsaOutput[state].length;
+      }
+    }
+    outputOffsets[numStates] = total;
+
+    final int [] outputs = new int [total];
+    for (int state = 0; state < dsaOutput.length; state++)
+    {
+      if (dsaOutput[state] != null)
+      {
+        System.arraycopy (dsaOutput[state], 0, outputs, outputOffsets[state], dsaOutput[state].length);
+      }
+    }
+
+    return new CompactDsa (byteClasses, numByteClasses, transitions, outputOffsets, outputs);
+  }
+
+  /**
+   * @return the transition table in its classic (langid.py) form.
+   */
+  short [] toTransitionTable ()
+  {
+    final short [] dsa = new short [numStates << 8];
+    for (int state = 0; state < numStates; state++)
+    {
+      for (int b = 0; b < 256; b++)
+      {
+        dsa[(state << 8) + b] = (short) nextState (state, b);
+      }
+    }
+    return dsa;
+  }
+
+  /**
+   * @return the outputs in their classic (langid.py) form, one array (or
+   *         <code>null</code>) per state.
+   */
+  int [] [] toOutputTable ()
+  {
+    final int [] [] dsaOutput = new int [numStates] [];
+    for (int state = 0; state < numStates; state++)
+    {
+      final int from = m_aOutputOffsets[state];
+      final int to = m_aOutputOffsets[state + 1];
+      if (to > from)
+      {
+        dsaOutput[state] = Arrays.copyOfRange (m_aOutputs, from, to);
+      }
+    }
+    return dsaOutput;
+  }
+
+  /**
+   * @return the state reached from <code>state</code> on byte <code>b</code>.
+   */
+  int nextState (final int state, final int b)
+  {
+    return m_aTransitions[state * numByteClasses + (m_aByteClasses[b & 0xff] & 0xff)];
+  }
+
+  /**
+   * Hash key wrapper for a transition table column.
+   */
+  private static final class ColumnKey
+  {
+    private final char [] m_aColumn;
+    private final int m_nHashCode;
+
+    ColumnKey (final char [] column)
+    {
+      this.m_aColumn = column;
+      this.m_nHashCode = Arrays.hashCode (column);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public boolean equals (final Object other)
+    {
+      return other instanceof ColumnKey && Arrays.equals (m_aColumn, ((ColumnKey) other).m_aColumn);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit of the time and/or the amount of input a detection may spend. A
+ * detection that runs out of its budget stops and returns the best result for
+ * the input processed so far (see {@link BudgetedResult#isPartial()}).
+ * <p>
+ * A time budget is a deadline fixed when the budget is created, so a budget
+ * is created for each request (and may be passed to several detections of
+ * that request). Instances are immutable and thread safe.
+ */
+public final class DetectionBudget
+{
+  /** No limit. */
+  public static final DetectionBudget UNLIMITED = new DetectionBudget (0, false, Long.MAX_VALUE);
+
+  private final long m_nDeadline;
+  private final boolean m_bHasDeadline;
+  private final long m_nMaxChars;
+
+  private DetectionBudget (final long deadline, final boolean hasDeadline, final long maxChars)
+  {
+    if (maxChars < 0)
+      throw new IllegalArgumentException ("Maximum number of characters must not be negative: " + maxChars);
+    this.m_nDeadline = deadline;
+    this.m_bHasDeadline = hasDeadline;
+    this.m_nMaxChars = maxChars;
+  }
+
+  /**
+   * @return a budget expiring after the given time (from now).
+   */
+  public static DetectionBudget ofTime (final long duration, final TimeUnit unit)
+  {
+    return new DetectionBudget (System.nanoTime () + unit.toNanos (duration), true, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return a budget limiting the number of input characters processed.
+   */
+  public static DetectionBudget ofChars (final long maxChars)
+  {
+    return new DetectionBudget (0, false, maxChars);
+  }
+
+  /**
+   * @return a copy of this budget also limiting the number of input characters
+   *         processed.
+   */
+  public DetectionBudget withMaxChars (final long maxChars)
+  {
+    return new DetectionBudget (m_nDeadline, m_bHasDeadline, maxChars);
+  }
+
+  /**
+   * @return <code>true</code> if the time budget has run out.
+   */
+  public boolean isExpired ()
+  {
+    return m_bHasDeadline && System.nanoTime () - m_nDeadline >= 0;
+  }
+
+  /**
+   * @return the maximum number of input characters to process.
+   */
+  public long getMaxChars ()
+  {
+    return m_nMaxChars;
+  }
+}
@@ -0,0 +1,254 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of detection results keyed by the text they were
+ * computed for. Used by {@link CachingLangIdClassifier} and
+ * {@link com.cybozu.labs.langdetect.DetectorCache} to skip detection of
+ * repeated texts (boilerplate, templated messages, retries).
+ * <p>
+ * Keys are 64-bit hashes of the text, with runs of whitespace collapsed and
+ * leading and trailing whitespace removed; texts are not stored. Texts that
+ * only differ in whitespace share a result, and so (with a negligible
+ * probability) may texts with colliding hashes. {@link #keyOf(CharSequence, int)}
+ * only hashes a prefix of at most {@link #getPrefixLength()} characters, for
+ * detectors that ignore the rest of the text anyway (like the Detector, see
+ * {@link com.cybozu.labs.langdetect.Detector#setMaxTextLength(int)}); texts
+ * that only differ after the prefix share a result.
+ * {@link #keyOfFullText(CharSequence, int)} hashes the whole text, for
+ * classifiers that read all of it (like {@link LangIdV3}).
+ * <p>
+ * The cache is split into independently locked segments, each evicting its
+ * least recently used entries. Cached values must be immutable (or never be
+ * handed out without copying).
+ *
+ * @param <V>
+ *        cached value type
+ */
+public final class DetectionCache <V>
+{
+  /** Default prefix length (the default maximum text length of the Detector). */
+  public static final int DEFAULT_PREFIX_LENGTH = 10000;
+
+  private static final int SEGMENTS = 16;
+
+  private final Segment <V> [] m_aSegments;
+  private final int m_nPrefixLength;
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+
+  /**
+   * @param maxEntries
+   *        Maximum number of cached results.
+   */
+  public DetectionCache (final int maxEntries)
+  {
+    this (maxEntries, DEFAULT_PREFIX_LENGTH);
+  }
+
+  /**
+   * @param maxEntries
+   *        Maximum number of cached results.
+   * @param prefixLength
+   *        Number of (normalized) characters of a text its key is computed
+   *        from.
+   */
+  @SuppressWarnings ({ "unchecked", "rawtypes" })
+  public DetectionCache (final int maxEntries, final int prefixLength)
+  {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException ("Maximum number of entries must be positive: " + maxEntries);
+    if (prefixLength < 1)
+      throw new IllegalArgumentException ("Prefix length must be positive: " + prefixLength);
+
+    this.m_nPrefixLength = prefixLength;
+    final int segments = Math.min (SEGMENTS, Integer.highestOneBit (maxEntries));
+    this.m_aSegments = new Segment [segments];
+    for (int i = 0; i < segments; i++)
+    {
+      // Spread the remainder so that the total is exactly maxEntries.
+      m_aSegments[i] = new Segment<> (maxEntries / segments + (i < maxEntries % segments ? 1 : 0));
+    }
+  }
+
+  /**
+   * @return the number of characters of a text its key is computed from.
+   */
+  public int getPrefixLength ()
+  {
+    return m_nPrefixLength;
+  }
+
+  /**
+   * Compute the key of a text from its prefix of at most
+   * {@link #getPrefixLength()} (normalized) characters.
+   *
+   * @param text
+   *        The text.
+   * @param variant
+   *        Distinguishes results computed differently for the same text (e.g.
+   *        with or without normalized confidence).
+   * @return the key.
+   */
+  public long keyOf (final CharSequence text, final int variant)
+  {
+    return _keyOf (text, variant, m_nPrefixLength);
+  }
+
+  /**
+   * Compute the key of a text from all its (normalized) characters.
+   *
+   * @param text
+   *        The text.
+   * @param variant
+   *        Distinguishes results computed differently for the same text (e.g.
+   *        with or without normalized confidence).
+   * @return the key.
+   */
+  public long keyOfFullText (final CharSequence text, final int variant)
+  {
+    return _keyOf (text, variant, Integer.MAX_VALUE);
+  }
+
+  private static long _keyOf (final CharSequence text, final int variant, final int prefixLength)
+  {
+    // FNV-1a over the normalized prefix.
+    long h = 0xcbf29ce484222325L ^ variant;
+    int count = 0;
+    boolean pendingSpace = false;
+    for (int i = 0, max = text.length (); i < max && count < prefixLength; i++)
+    {
+      final char c = text.charAt (i);
+      if (Character.isWhitespace (c))
+      {
+        pendingSpace = count > 0;
+        continue;
+      }
+      if (pendingSpace)
+      {
+        h = (h ^ ' ') * 0x100000001b3L;
+        pendingSpace = false;
+        if (++count == prefixLength)
+          break;
+      }
+      h = (h ^ c) * 0x100000001b3L;
+      count++;
+    }
+
+    // Final avalanche (MurmurHash3 fmix64), segments are picked by the top bits.
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * @return the cached value or <code>null</code>; counts a hit or a miss.
+   */
+  public V get (final long key)
+  {
+    final V value = _segment (key).get (key);
+    if (value != null)
+      m_aHits.increment ();
+    else
+      m_aMisses.increment ();
+    return value;
+  }
+
+  /**
+   * Cache a value, evicting the least recently used entry of its segment if
+   * the segment is full.
+   */
+  public void put (final long key, final V value)
+  {
+    if (value == null)
+      throw new IllegalArgumentException ("Null values cannot be cached.");
+    _segment (key).put (key, value);
+  }
+
+  private Segment <V> _segment (final long key)
+  {
+    return m_aSegments[(int) (key >>> 32) & (m_aSegments.length - 1)];
+  }
+
+  /**
+   * @return the number of lookups that found a cached value.
+   */
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /**
+   * @return the number of lookups that did not find a cached value.
+   */
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  /**
+   * @return the number of cached values.
+   */
+  public int size ()
+  {
+    int size = 0;
+    for (final Segment <V> segment : m_aSegments)
+      size += segment.size ();
+    return size;
+  }
+
+  /**
+   * Remove all cached values (counters are kept).
+   */
+  public void clear ()
+  {
+    for (final Segment <V> segment : m_aSegments)
+      segment.clear ();
+  }
+
+  /**
+   * One lock stripe: a LRU map guarded by its own monitor.
+   */
+  private static final class Segment <V>
+  {
+    private final Map <Long, V> m_aMap;
+
+    Segment (final int capacity)
+    {
+      this.m_aMap = new LinkedHashMap <Long, V> (16, 0.75f, true)
+      {
+        @Override
+        protected boolean removeEldestEntry (final Map.Entry <Long, V> eldest)
+        {
+          return size () > capacity;
+        }
+      };
+    }
+
+    synchronized V get (final long key)
+    {
+      return m_aMap.get (Long.valueOf (key));
+    }
+
+    synchronized void put (final long key, final V value)
+    {
+      m_aMap.put (Long.valueOf (key), value);
+    }
+
+    synchronized int size ()
+    {
+      return m_aMap.size ();
+    }
+
+    synchronized void clear ()
+    {
+      m_aMap.clear ();
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package com.carrotsearch.labs.langid;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Default {@link IDetectionMetrics}: lock-free counters and latency histograms
+ * ({@link LongAdderHistogram}), readable directly or over JMX (see
+ * {@link #register(String)}).
+ */
+public final class DetectionMetrics implements IDetectionMetrics, DetectionMetricsMBean
+{
+  private final LongAdderHistogram m_aClassifyLatency = new LongAdderHistogram ();
+  private final LongAdder m_aClassifyBytes = new LongAdder ();
+  private final LongAdder m_aClassifyFeaturesHit = new LongAdder ();
+  private final LongAdder m_aClassifyEarlyExits = new LongAdder ();
+
+  private final LongAdderHistogram m_aDetectLatency = new LongAdderHistogram ();
+  private final LongAdder m_aDetectChars = new LongAdder ();
+  private final LongAdder m_aDetectNGrams = new LongAdder ();
+  private final LongAdder m_aDetectTrials = new LongAdder ();
+  private final LongAdder m_aDetectIterations = new LongAdder ();
+
+  private final LongAdderHistogram m_aModelLoad = new LongAdderHistogram ();
+  private final LongAdderHistogram m_aProfileLoad = new LongAdderHistogram ();
+
+  @Override
+  public void onClassify (final long nanos, final long bytes, final int featuresHit, final boolean earlyExit)
+  {
+    m_aClassifyLatency.record (nanos);
+    m_aClassifyBytes.add (bytes);
+    m_aClassifyFeaturesHit.add (featuresHit);
+    if (earlyExit)
+    {
+      m_aClassifyEarlyExits.increment ();
+    }
+  }
+
+  @Override
+  public void onDetect (final long nanos, final int chars, final int ngrams, final int trials, final int iterations)
+  {
+    m_aDetectLatency.record (nanos);
+    m_aDetectChars.add (chars);
+    m_aDetectNGrams.add (ngrams);
+    m_aDetectTrials.add (trials);
+    m_aDetectIterations.add (iterations);
+  }
+
+  @Override
+  public void onModelLoad (final long nanos)
+  {
+    m_aModelLoad.record (nanos);
+  }
+
+  @Override
+  public void onProfileLoad (final String lang, final long nanos)
+  {
+    m_aProfileLoad.record (nanos);
+  }
+
+  /**
+   * Register this object in the platform MBean server as
+   * <code>com.carrotsearch.labs.langid:type=DetectionMetrics,name=[name]</code>.
+   *
+   * @return the name it was registered with.
+   */
+  public ObjectName register (final String name) throws JMException
+  {
+    final ObjectName objectName = new ObjectName ("com.carrotsearch.labs.langid:type=DetectionMetrics,name=" +
+                                                  ObjectName.quote (name));
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+    server.registerMBean (this, objectName);
+    return objectName;
+  }
+
+  public LongAdderHistogram getClassifyLatency ()
+  {
+    return m_aClassifyLatency;
+  }
+
+  public LongAdderHistogram getDetectLatency ()
+  {
+    return m_aDetectLatency;
+  }
+
+  private static long micros (final long nanos)
+  {
+    return nanos / 1000;
+  }
+
+  @Override
+  public long getClassifyCount ()
+  {
+    return m_aClassifyLatency.getCount ();
+  }
+
+  @Override
+  public double getClassifyMeanMicros ()
+  {
+    return m_aClassifyLatency.getMean () / 1000;
+  }
+
+  @Override
+  public long getClassifyP50Micros ()
+  {
+    return micros (m_aClassifyLatency.getQuantile (0.5));
+  }
+
+  @Override
+  public long getClassifyP99Micros ()
+  {
+    return micros (m_aClassifyLatency.getQuantile (0.99));
+  }
+
+  @Override
+  public long getClassifyMaxMicros ()
+  {
+    return micros (m_aClassifyLatency.getMax ());
+  }
+
+  @Override
+  public long getClassifyBytes ()
+  {
+    return m_aClassifyBytes.sum ();
+  }
+
+  @Override
+  public long getClassifyFeaturesHit ()
+  {
+    return m_aClassifyFeaturesHit.sum ();
+  }
+
+  @Override
+  public long getClassifyEarlyExits ()
+  {
+    return m_aClassifyEarlyExits.sum ();
+  }
+
+  @Override
+  public long getDetectCount ()
+  {
+    return m_aDetectLatency.getCount ();
+  }
+
+  @Override
+  public double getDetectMeanMicros ()
+  {
+    return m_aDetectLatency.getMean () / 1000;
+  }
+
+  @Override
+  public long getDetectP50Micros ()
+  {
+    return micros (m_aDetectLatency.getQuantile (0.5));
+  }
+
+  @Override
+  public long getDetectP99Micros ()
+  {
+    return micros (m_aDetectLatency.getQuantile (0.99));
+  }
+
+  @Override
+  public long getDetectMaxMicros ()
+  {
+    return micros (m_aDetectLatency.getMax ());
+  }
+
+  @Override
+  public long getDetectChars ()
+  {
+    return m_aDetectChars.sum ();
+  }
+
+  @Override
+  public long getDetectNGrams ()
+  {
+    return m_aDetectNGrams.sum ();
+  }
+
+  @Override
+  public long getDetectTrials ()
+  {
+    return m_aDetectTrials.sum ();
+  }
+
+  @Override
+  public long getDetectIterations ()
+  {
+    return m_aDetectIterations.sum ();
+  }
+
+  @Override
+  public long getModelLoadCount ()
+  {
+    return m_aModelLoad.getCount ();
+  }
+
+  @Override
+  public long getModelLoadTotalMicros ()
+  {
+    return micros (m_aModelLoad.getSum ());
+  }
+
+  @Override
+  public long getProfileLoadCount ()
+  {
+    return m_aProfileLoad.getCount ();
+  }
+
+  @Override
+  public long getProfileLoadTotalMicros ()
+  {
+    return micros (m_aProfileLoad.getSum ());
+  }
+
+  @Override
+  public void reset ()
+  {
+    m_aClassifyLatency.reset ();
+    m_aClassifyBytes.reset ();
+    m_aClassifyFeaturesHit.reset ();
+    m_aClassifyEarlyExits.reset ();
+    m_aDetectLatency.reset ();
+    m_aDetectChars.reset ();
+    m_aDetectNGrams.reset ();
+    m_aDetectTrials.reset ();
+    m_aDetectIterations.reset ();
+    m_aModelLoad.reset ();
+    m_aProfileLoad.reset ();
+  }
+}
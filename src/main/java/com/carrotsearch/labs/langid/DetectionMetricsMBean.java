@@ -0,0 +1,54 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * JMX view of {@link DetectionMetrics}. Times are in microseconds.
+ */
+public interface DetectionMetricsMBean
+{
+  long getClassifyCount ();
+
+  double getClassifyMeanMicros ();
+
+  long getClassifyP50Micros ();
+
+  long getClassifyP99Micros ();
+
+  long getClassifyMaxMicros ();
+
+  long getClassifyBytes ();
+
+  long getClassifyFeaturesHit ();
+
+  long getClassifyEarlyExits ();
+
+  long getDetectCount ();
+
+  double getDetectMeanMicros ();
+
+  long getDetectP50Micros ();
+
+  long getDetectP99Micros ();
+
+  long getDetectMaxMicros ();
+
+  long getDetectChars ();
+
+  long getDetectNGrams ();
+
+  long getDetectTrials ();
+
+  long getDetectIterations ();
+
+  long getModelLoadCount ();
+
+  long getModelLoadTotalMicros ();
+
+  long getProfileLoadCount ();
+
+  long getProfileLoadTotalMicros ();
+
+  /**
+   * Reset all counters and histograms.
+   */
+  void reset ();
+}
@@ -0,0 +1,318 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A Reactive Streams {@link Processor} detecting the languages of the items it
+ * receives. Items are classified on an {@link Executor}, at most
+ * <code>parallelism</code> at a time, and the results are emitted in the order
+ * of the items or as soon as they are available.
+ * <p>
+ * Backpressure: at most <code>parallelism</code> items are requested from the
+ * upstream publisher ahead of being emitted, so a slow subscriber stops the
+ * upstream once the results it has not requested fill that window. Neither
+ * the upstream's nor the subscriber's thread ever blocks on classification.
+ * <p>
+ * The Reactive Streams interfaces are the Java 8 equivalent of
+ * <code>java.util.concurrent.Flow</code>; on Java 9+ use
+ * <code>org.reactivestreams.FlowAdapters.toFlowProcessor</code> to get a
+ * <code>Flow.Processor</code>. The processor accepts a single subscriber; an
+ * error of the classification function or the upstream cancels the stream
+ * and is passed on at once.
+ *
+ * @param <T>
+ *        item type
+ */
+public final class DetectionProcessor <T> implements Processor <T, DetectedLanguage>
+{
+  /** A classified (or failed) item. */
+  private static final class Slot
+  {
+    volatile DetectedLanguage m_aResult;
+    volatile Throwable m_aError;
+    volatile boolean m_bDone;
+  }
+
+  private final Function <? super T, DetectedLanguage> m_aClassify;
+  private final Executor m_aExecutor;
+  private final int m_nParallelism;
+  private final boolean m_bOrdered;
+
+  /** Slots in item order (ordered) or in completion order (unordered). */
+  private final Queue <Slot> m_aSlots = new ConcurrentLinkedQueue<> ();
+  private final AtomicInteger m_aWip = new AtomicInteger ();
+  private final AtomicLong m_aRequested = new AtomicLong ();
+  private final AtomicLong m_aReceived = new AtomicLong ();
+
+  private volatile Subscription m_aUpstream;
+  private volatile Subscriber <? super DetectedLanguage> m_aDownstream;
+  private volatile boolean m_bUpstreamDone;
+  private volatile Throwable m_aError;
+  private volatile boolean m_bCancelled;
+  /** Guarded by this. */
+  private boolean m_bSubscribed;
+
+  // Accessed by the drain loop only.
+  private long m_nRequestedUpstream;
+  private long m_nEmitted;
+  private boolean m_bTerminated;
+
+  /**
+   * @param classify
+   *        Classifies an item, called on the executor's threads (concurrently).
+   *        Must not return <code>null</code>.
+   * @param executor
+   *        Executor running the classifications.
+   * @param parallelism
+   *        Maximum number of items requested and not yet emitted.
+   * @param ordered
+   *        Emit results in the order of the items?
+   */
+  public DetectionProcessor (final Function <? super T, DetectedLanguage> classify,
+                             final Executor executor,
+                             final int parallelism,
+                             final boolean ordered)
+  {
+    if (parallelism < 1)
+      throw new IllegalArgumentException ("Parallelism must be positive: " + parallelism);
+    this.m_aClassify = classify;
+    this.m_aExecutor = executor;
+    this.m_nParallelism = parallelism;
+    this.m_bOrdered = ordered;
+  }
+
+  /**
+   * A processor classifying {@link CharSequence} and {@link ByteBuffer} (UTF-8)
+   * items with classifiers of a pool.
+   */
+  public static DetectionProcessor <Object> forClassifiers (final ClassifierPool <? extends ILangIdClassifier> pool,
+                                                            final Executor executor,
+                                                            final int parallelism,
+                                                            final boolean ordered)
+  {
+    return new DetectionProcessor<> (item -> pool.apply (classifier -> {
+      if (item instanceof CharSequence)
+        return classifier.classify ((CharSequence) item, true);
+      if (item instanceof ByteBuffer)
+      {
+        classifier.append (((ByteBuffer) item).duplicate ());
+        return classifier.classify (true);
+      }
+      throw new IllegalArgumentException ("Not a CharSequence or ByteBuffer: " + item.getClass ().getName ());
+    }), executor, parallelism, ordered);
+  }
+
+  @Override
+  public void onSubscribe (final Subscription subscription)
+  {
+    if (m_aUpstream != null || m_bCancelled)
+    {
+      subscription.cancel ();
+      return;
+    }
+    m_aUpstream = subscription;
+    _drain ();
+  }
+
+  @Override
+  public void onNext (final T item)
+  {
+    if (item == null)
+      throw new NullPointerException ("Null items are not allowed.");
+
+    m_aReceived.incrementAndGet ();
+    final Slot slot = new Slot ();
+    if (m_bOrdered)
+      m_aSlots.add (slot);
+    try
+    {
+      m_aExecutor.execute ( () -> {
+        try
+        {
+          slot.m_aResult = m_aClassify.apply (item);
+        }
+        catch (final Throwable t)
+        {
+          slot.m_aError = t;
+        }
+        _complete (slot);
+      });
+    }
+    catch (final RuntimeException e)
+    {
+      // Rejected by the executor.
+      slot.m_aError = e;
+      _complete (slot);
+    }
+  }
+
+  private void _complete (final Slot slot)
+  {
+    slot.m_bDone = true;
+    if (!m_bOrdered)
+      m_aSlots.add (slot);
+    _drain ();
+  }
+
+  @Override
+  public void onError (final Throwable t)
+  {
+    m_aError = t;
+    m_bUpstreamDone = true;
+    _drain ();
+  }
+
+  @Override
+  public void onComplete ()
+  {
+    m_bUpstreamDone = true;
+    _drain ();
+  }
+
+  @Override
+  public void subscribe (final Subscriber <? super DetectedLanguage> subscriber)
+  {
+    if (subscriber == null)
+      throw new NullPointerException ("Null subscriber.");
+
+    synchronized (this)
+    {
+      if (m_bSubscribed)
+      {
+        subscriber.onSubscribe (new Subscription ()
+        {
+          public void request (final long n)
+          {}
+
+          public void cancel ()
+          {}
+        });
+        subscriber.onError (new IllegalStateException ("This processor allows a single subscriber only."));
+        return;
+      }
+      m_bSubscribed = true;
+    }
+
+    subscriber.onSubscribe (new Subscription ()
+    {
+      public void request (final long n)
+      {
+        if (n <= 0)
+        {
+          m_aError = new IllegalArgumentException ("Non-positive request: " + n);
+          m_bUpstreamDone = true;
+        }
+        else
+        {
+          long r, u;
+          do
+          {
+            r = m_aRequested.get ();
+            u = r + n < 0 ? Long.MAX_VALUE : r + n;
+          } while (!m_aRequested.compareAndSet (r, u));
+        }
+        _drain ();
+      }
+
+      public void cancel ()
+      {
+        m_bCancelled = true;
+        _drain ();
+      }
+    });
+    // Published after onSubscribe, so that no signal precedes it.
+    m_aDownstream = subscriber;
+    _drain ();
+  }
+
+  /**
+   * Emit available results, terminate and request more items; serialized by
+   * the work-in-progress counter so that signals never overlap.
+   */
+  private void _drain ()
+  {
+    if (m_aWip.getAndIncrement () != 0)
+      return;
+
+    int missed = 1;
+    do
+    {
+      final Subscriber <? super DetectedLanguage> downstream = m_aDownstream;
+      final Subscription upstream = m_aUpstream;
+      if (!m_bTerminated && downstream != null)
+      {
+        if (m_bCancelled)
+          _terminate (upstream);
+        else
+          _emit (downstream, upstream);
+      }
+      missed = m_aWip.addAndGet (-missed);
+    } while (missed != 0);
+  }
+
+  private void _emit (final Subscriber <? super DetectedLanguage> downstream, final Subscription upstream)
+  {
+    final long requested = m_aRequested.get ();
+    long emitted = 0;
+    while (emitted != requested)
+    {
+      final Slot slot = m_aSlots.peek ();
+      if (slot == null || !slot.m_bDone)
+        break;
+      m_aSlots.poll ();
+      if (slot.m_aError != null && m_aError == null)
+        m_aError = slot.m_aError;
+      if (m_aError != null)
+        break;
+      downstream.onNext (slot.m_aResult);
+      emitted++;
+    }
+    m_nEmitted += emitted;
+    if (emitted != 0 && requested != Long.MAX_VALUE)
+      m_aRequested.addAndGet (-emitted);
+
+    final Throwable error = m_aError;
+    if (error != null)
+    {
+      _terminate (upstream);
+      downstream.onError (error);
+      return;
+    }
+
+    // No more items arrive once the upstream is done.
+    if (m_bUpstreamDone && m_nEmitted == m_aReceived.get ())
+    {
+      _terminate (null);
+      downstream.onComplete ();
+      return;
+    }
+
+    if (upstream != null && !m_bUpstreamDone)
+    {
+      final long window = m_nParallelism - (m_nRequestedUpstream - m_nEmitted);
+      if (window > 0)
+      {
+        m_nRequestedUpstream += window;
+        upstream.request (window);
+      }
+    }
+  }
+
+  private void _terminate (final Subscription upstream)
+  {
+    m_bTerminated = true;
+    m_aSlots.clear ();
+    if (upstream != null)
+      upstream.cancel ();
+  }
+}
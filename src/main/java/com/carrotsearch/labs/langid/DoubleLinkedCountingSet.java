@@ -2,14 +2,11 @@ package com.carrotsearch.labs.langid;
 
 /**
  * A double linked set with counting; trimmed and specific to this use case.
+ * Keys are kept in insertion order unless {@link #decrement(int)} removes one.
  */
-public final class DoubleLinkedCountingSet
+public final class DoubleLinkedCountingSet extends AbstractCountingSet
 {
   public final int [] sparse;
-  public final int [] dense;
-  public final int [] counts;
-
-  public int elementsCount;
 
   public DoubleLinkedCountingSet (final int maxValue, final int maxValues)
   {
@@ -22,6 +19,7 @@ public final class DoubleLinkedCountingSet
     this.counts = new int [maxValues];
   }
 
+  @Override
   public void increment (final int key)
   {
     int index = sparse[key];
@@ -38,6 +36,46 @@ public final class DoubleLinkedCountingSet
     }
   }
 
+  @Override
+  public void add (final int key, final int count)
+  {
+    int index = sparse[key];
+    if (index < elementsCount && dense[index] == key)
+    {
+      counts[index] += count;
+    }
+    else
+    {
+      index = elementsCount++;
+      sparse[key] = index;
+      dense[index] = key;
+      counts[index] = count;
+    }
+  }
+
+  /**
+   * Remove one occurrence of a key, which must be in the set. A key whose
+   * count drops to zero is removed, its place in {@link #dense} is taken by
+   * the last key.
+   */
+  public void decrement (final int key)
+  {
+    final int index = sparse[key];
+    assert index < elementsCount && dense[index] == key : "Not in the set: " + key;
+    if (--counts[index] == 0)
+    {
+      final int last = --elementsCount;
+      if (index != last)
+      {
+        final int moved = dense[last];
+        dense[index] = moved;
+        counts[index] = counts[last];
+        sparse[moved] = index;
+      }
+    }
+  }
+
+  @Override
   public void clear ()
   {
     this.elementsCount = 0;
@@ -0,0 +1,137 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the byte n-gram state machine ({@link CompactDsa}) of a {@link Model}
+ * for a given set of features. This is an Aho-Corasick automaton with all
+ * failure transitions resolved, so every input byte is exactly one transition
+ * and each state emits the features (byte sequences) ending at it.
+ */
+final class DsaBuilder
+{
+  private DsaBuilder ()
+  {}
+
+  /**
+   * @param features
+   *        Byte sequences of features; the index of a sequence is its feature
+   *        number.
+   * @return the compiled state machine.
+   */
+  static CompactDsa build (final List <byte []> features)
+  {
+    // Build the trie (goto function).
+    final List <int []> gotos = new ArrayList<> ();
+    final List <int []> outputs = new ArrayList<> ();
+    gotos.add (newRow ());
+    outputs.add (null);
+    for (int f = 0; f < features.size (); f++)
+    {
+      final byte [] feature = features.get (f);
+      if (feature.length == 0)
+      {
+        throw new IllegalArgumentException ("Empty feature: " + f);
+      }
+
+      int state = 0;
+      for (final byte b : feature)
+      {
+        int next = gotos.get (state)[b & 0xff];
+        if (next < 0)
+        {
+          next = gotos.size ();
+          if (next >= CompactDsa.MAX_STATES)
+          {
+            throw new IllegalArgumentException ("Too many states, at most " + CompactDsa.MAX_STATES + " allowed.");
+          }
+          gotos.get (state)[b & 0xff] = next;
+          gotos.add (newRow ());
+          outputs.add (null);
+        }
+        state = next;
+      }
+      outputs.set (state, append (outputs.get (state), f));
+    }
+
+    // Resolve failure transitions breadth-first and merge outputs of suffixes.
+    final int numStates = gotos.size ();
+    final short [] dsa = new short [numStates << 8];
+    final int [] fail = new int [numStates];
+    final int [] queue = new int [numStates];
+    int head = 0, tail = 0;
+    for (int b = 0; b < 256; b++)
+    {
+      final int next = gotos.get (0)[b];
+      if (next < 0)
+      {
+        dsa[b] = 0;
+      }
+      else
+      {
+        dsa[b] = (short) next;
+        fail[next] = 0;
+        queue[tail++] = next;
+      }
+    }
+
+    while (head < tail)
+    {
+      final int state = queue[head++];
+      outputs.set (state, merge (outputs.get (state), outputs.get (fail[state])));
+
+      final int [] row = gotos.get (state);
+      for (int b = 0; b < 256; b++)
+      {
+        final int next = row[b];
+        if (next < 0)
+        {
+          dsa[(state << 8) + b] = dsa[(fail[state] << 8) + b];
+        }
+        else
+        {
+          dsa[(state << 8) + b] = (short) next;
+          fail[next] = dsa[(fail[state] << 8) + b] & 0xffff;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    return CompactDsa.compile (dsa, outputs.toArray (new int [numStates] []));
+  }
+
+  private static int [] newRow ()
+  {
+    final int [] row = new int [256];
+    Arrays.fill (row, -1);
+    return row;
+  }
+
+  private static int [] append (final int [] array, final int value)
+  {
+    if (array == null)
+    {
+      return new int [] { value };
+    }
+    final int [] copy = Arrays.copyOf (array, array.length + 1);
+    copy[array.length] = value;
+    return copy;
+  }
+
+  private static int [] merge (final int [] own, final int [] inherited)
+  {
+    if (inherited == null)
+    {
+      return own;
+    }
+    if (own == null)
+    {
+      return inherited;
+    }
+    final int [] merged = Arrays.copyOf (own, own.length + inherited.length);
+    System.arraycopy (inherited, 0, merged, own.length, inherited.length);
+    return merged;
+  }
+}
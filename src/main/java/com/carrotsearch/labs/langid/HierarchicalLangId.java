@@ -0,0 +1,198 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-level language identification with a {@link HierarchicalModel}: the
+ * router model scores the clusters of languages, then only the languages of
+ * the best <code>beam</code> clusters are scored. Features are extracted once
+ * and shared by both levels. The result is the same as that of
+ * {@link LangIdV3} with the full model unless the best language is in a
+ * cluster that was not scored; a wider beam trades speed for accuracy.
+ * <p>
+ * Normalized confidences are relative to the scored languages only.
+ * <p>
+ * <strong>Thread safety:</strong> an instance of this class is <b>not</b> safe
+ * for use by multiple threads at the same time (the model can be shared).
+ */
+public final class HierarchicalLangId implements ILangIdClassifier
+{
+  /** Default number of clusters scored. */
+  public static final int DEFAULT_BEAM = 2;
+
+  private final HierarchicalModel m_aModel;
+  private final int m_nBeam;
+
+  private final LangIdV3 m_aRouter;
+  private final LangIdV3 [] m_aClusters;
+
+  // Scratch data.
+  private final float [] m_aRouterScores;
+  private final boolean [] m_aScored;
+
+  // Reusable rank list, in the order of the original model's languages.
+  private final List <DetectedLanguage> m_aRankList;
+  private final List <DetectedLanguage> m_aRankListView;
+  private final Map <String, DetectedLanguage> m_aRankByLang;
+
+  /**
+   * Identify with the default beam.
+   */
+  public HierarchicalLangId (final HierarchicalModel model)
+  {
+    this (model, DEFAULT_BEAM);
+  }
+
+  /**
+   * @param model
+   *        The model.
+   * @param beam
+   *        Number of clusters whose languages are scored.
+   */
+  public HierarchicalLangId (final HierarchicalModel model, final int beam)
+  {
+    if (beam < 1)
+    {
+      throw new IllegalArgumentException ("Beam must be positive: " + beam);
+    }
+    this.m_aModel = model;
+    this.m_nBeam = Math.min (beam, model.getClusterCount ());
+
+    final AbstractCountingSet fv = LangIdV3.createFeatureVector (model.getModel (),
+                                                                 LangIdV3.DEFAULT_EXPECTED_DOCUMENT_LENGTH);
+    this.m_aRouter = new LangIdV3 (model.getRouter (), fv);
+    this.m_aClusters = new LangIdV3 [model.getClusterCount ()];
+    for (int k = 0; k < m_aClusters.length; k++)
+    {
+      m_aClusters[k] = new LangIdV3 (model.getClusterModel (k), fv);
+    }
+    this.m_aRouterScores = new float [model.getClusterCount ()];
+    this.m_aScored = new boolean [model.getClusterCount ()];
+
+    this.m_aRankList = new ArrayList<> ();
+    this.m_aRankByLang = new HashMap<> ();
+    for (final String langCode : model.getModel ().m_aLangClasses)
+    {
+      final DetectedLanguage lang = new DetectedLanguage (langCode, 0);
+      m_aRankList.add (lang);
+      m_aRankByLang.put (langCode, lang);
+    }
+    this.m_aRankListView = Collections.unmodifiableList (m_aRankList);
+  }
+
+  public HierarchicalModel getModel ()
+  {
+    return m_aModel;
+  }
+
+  @Override
+  public DetectedLanguage classify (final CharSequence str, final boolean normalizeConfidence)
+  {
+    reset ();
+    append (str);
+    return classify (normalizeConfidence);
+  }
+
+  @Override
+  public void reset ()
+  {
+    m_aRouter.reset ();
+  }
+
+  @Override
+  public void append (final CharSequence str)
+  {
+    m_aRouter.append (str);
+  }
+
+  @Override
+  public void append (final ByteBuffer buffer)
+  {
+    m_aRouter.append (buffer);
+  }
+
+  @Override
+  public void append (final byte [] array, final int start, final int length)
+  {
+    m_aRouter.append (array, start, length);
+  }
+
+  @Override
+  public DetectedLanguage classify (final boolean normalizeConfidence)
+  {
+    DetectedLanguage best = null;
+    for (final DetectedLanguage lang : rank (normalizeConfidence))
+    {
+      if (best == null || lang.m_fConfidence > best.m_fConfidence)
+      {
+        best = lang;
+      }
+    }
+    return best.clone ();
+  }
+
+  /**
+   * Languages of clusters that were not scored have a confidence of
+   * <code>0</code> if normalized, negative infinity otherwise.
+   */
+  @Override
+  public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+  {
+    // Pick the best clusters.
+    final List <DetectedLanguage> clusters = m_aRouter.rank (false);
+    for (int k = 0; k < m_aRouterScores.length; k++)
+    {
+      m_aRouterScores[k] = clusters.get (k).m_fConfidence;
+      m_aScored[k] = false;
+    }
+    for (int i = 0; i < m_nBeam; i++)
+    {
+      int best = -1;
+      for (int k = 0; k < m_aRouterScores.length; k++)
+      {
+        if (!m_aScored[k] && (best < 0 || m_aRouterScores[k] > m_aRouterScores[best]))
+        {
+          best = k;
+        }
+      }
+      m_aScored[best] = true;
+    }
+
+    // Score their languages, the others are out.
+    for (final DetectedLanguage lang : m_aRankList)
+    {
+      lang.m_fConfidence = Float.NEGATIVE_INFINITY;
+    }
+    float max = Float.NEGATIVE_INFINITY;
+    for (int k = 0; k < m_aClusters.length; k++)
+    {
+      if (m_aScored[k])
+      {
+        for (final DetectedLanguage lang : m_aClusters[k].rank (false))
+        {
+          m_aRankByLang.get (lang.m_sLangCode).m_fConfidence = lang.m_fConfidence;
+          max = Math.max (max, lang.m_fConfidence);
+        }
+      }
+    }
+
+    if (normalizeConfidence)
+    {
+      double sum = 0;
+      for (final DetectedLanguage lang : m_aRankList)
+      {
+        sum += Math.exp (lang.m_fConfidence - max);
+      }
+      for (final DetectedLanguage lang : m_aRankList)
+      {
+        lang.m_fConfidence = (float) (Math.exp (lang.m_fConfidence - max) / sum);
+      }
+    }
+    return m_aRankListView;
+  }
+}
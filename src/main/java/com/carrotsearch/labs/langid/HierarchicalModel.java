@@ -0,0 +1,252 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link Model} split into clusters of similar languages (language families,
+ * languages sharing a script), for two-level classification with
+ * {@link HierarchicalLangId}: a router model with one class per cluster picks
+ * the cluster(s) of a document, then only the languages of those clusters are
+ * scored. With about <code>sqrt(numClasses)</code> clusters of similar size,
+ * this takes about <code>2 * sqrt(numClasses)</code> instead of
+ * <code>numClasses</code> dot products per document.
+ * <p>
+ * Clusters are derived from the model: languages are grouped by average
+ * linkage agglomerative clustering of their feature distributions (cosine
+ * similarity of the square roots of feature probabilities), with a cap on the
+ * size of a cluster to keep them balanced. The router's distribution of a
+ * feature in a cluster is the mean of its members' distributions and its
+ * prior is the sum of theirs. All models share the state machine (features)
+ * of the original one.
+ */
+public final class HierarchicalModel
+{
+  private final Model m_aModel;
+  private final Model m_aRouter;
+  private final Model [] m_aClusterModels;
+
+  private HierarchicalModel (final Model model, final Model router, final Model [] clusterModels)
+  {
+    this.m_aModel = model;
+    this.m_aRouter = router;
+    this.m_aClusterModels = clusterModels;
+  }
+
+  /**
+   * Cluster a model into about <code>sqrt(numClasses)</code> clusters.
+   */
+  public static HierarchicalModel build (final Model model)
+  {
+    return build (model, (int) Math.round (Math.sqrt (model.numClasses)));
+  }
+
+  /**
+   * Cluster a model.
+   *
+   * @param model
+   *        The model.
+   * @param clusters
+   *        The number of clusters, at least 2 and at most half the number of
+   *        languages (each cluster has at least two languages). There may be
+   *        more clusters if the size cap keeps some from merging.
+   * @return the clustered model.
+   */
+  public static HierarchicalModel build (final Model model, final int clusters)
+  {
+    if (clusters < 2 || clusters > model.numClasses / 2)
+    {
+      throw new IllegalArgumentException ("Number of clusters must be in [2, " + model.numClasses / 2 + "]: " + clusters);
+    }
+
+    final List <int []> groups = cluster (model, clusters);
+    final int numFeatures = model.numFeatures;
+    final String [] routerClasses = new String [groups.size ()];
+    final float [] routerPtc = new float [groups.size () * numFeatures];
+    final float [] routerPc = new float [groups.size ()];
+    final Model [] clusterModels = new Model [groups.size ()];
+    for (int k = 0; k < groups.size (); k++)
+    {
+      final int [] members = groups.get (k);
+      final Set <String> langCodes = new HashSet<> ();
+      double prior = 0;
+      for (final int c : members)
+      {
+        langCodes.add (model.m_aLangClasses[c]);
+        prior += Math.exp (model.nb_pc[c]);
+      }
+      routerClasses[k] = "cluster" + k;
+      routerPc[k] = (float) Math.log (prior);
+      for (int f = 0; f < numFeatures; f++)
+      {
+        double p = 0;
+        for (final int c : members)
+        {
+          p += Math.exp (model.ptc (c, f));
+        }
+        routerPtc[k * numFeatures + f] = (float) Math.log (p / members.length);
+      }
+      clusterModels[k] = model.subset (langCodes);
+    }
+
+    return new HierarchicalModel (model, new Model (routerClasses, routerPtc, routerPc, model.m_aDsa), clusterModels);
+  }
+
+  /*
+   * Average linkage clustering with a cluster size cap.
+   */
+  private static List <int []> cluster (final Model model, final int clusters)
+  {
+    final int n = model.numClasses;
+    final int numFeatures = model.numFeatures;
+
+    // Unit vectors of square roots of feature probabilities.
+    final float [] [] vectors = new float [n] [numFeatures];
+    for (int c = 0; c < n; c++)
+    {
+      double norm = 0;
+      for (int f = 0; f < numFeatures; f++)
+      {
+        final double v = Math.exp (model.ptc (c, f) / 2);
+        vectors[c][f] = (float) v;
+        norm += v * v;
+      }
+      norm = Math.sqrt (norm);
+      for (int f = 0; f < numFeatures; f++)
+      {
+        vectors[c][f] /= norm;
+      }
+    }
+
+    final double [] [] similarity = new double [n] [n];
+    for (int a = 0; a < n; a++)
+    {
+      for (int b = a + 1; b < n; b++)
+      {
+        double dot = 0;
+        for (int f = 0; f < numFeatures; f++)
+        {
+          dot += vectors[a][f] * vectors[b][f];
+        }
+        similarity[a][b] = similarity[b][a] = dot;
+      }
+    }
+
+    final List <List <Integer>> groups = new ArrayList<> ();
+    for (int c = 0; c < n; c++)
+    {
+      groups.add (new ArrayList<> (Collections.singletonList (Integer.valueOf (c))));
+    }
+    final int maxSize = (2 * n + clusters - 1) / clusters;
+    final boolean [] merged = new boolean [n];
+    int remaining = n;
+    while (remaining > clusters)
+    {
+      int bestA = -1;
+      int bestB = -1;
+      for (int a = 0; a < n; a++)
+      {
+        if (merged[a])
+        {
+          continue;
+        }
+        for (int b = a + 1; b < n; b++)
+        {
+          if (!merged[b] &&
+              groups.get (a).size () + groups.get (b).size () <= maxSize &&
+              (bestA < 0 || similarity[a][b] > similarity[bestA][bestB]))
+          {
+            bestA = a;
+            bestB = b;
+          }
+        }
+      }
+      if (bestA < 0)
+      {
+        break;
+      }
+
+      // Merge b into a, average linkage (Lance-Williams update).
+      final double sizeA = groups.get (bestA).size ();
+      final double sizeB = groups.get (bestB).size ();
+      for (int x = 0; x < n; x++)
+      {
+        if (!merged[x] && x != bestA && x != bestB)
+        {
+          similarity[bestA][x] = similarity[x][bestA] = (sizeA * similarity[bestA][x] + sizeB * similarity[bestB][x]) /
+                                                        (sizeA + sizeB);
+        }
+      }
+      groups.get (bestA).addAll (groups.get (bestB));
+      merged[bestB] = true;
+      remaining--;
+    }
+
+    // A model needs two languages: merge single languages (outliers) into
+    // their most similar clusters regardless of the cap.
+    for (int a = 0; a < n; a++)
+    {
+      if (!merged[a] && groups.get (a).size () == 1)
+      {
+        int best = -1;
+        for (int b = 0; b < n; b++)
+        {
+          if (!merged[b] && b != a && (best < 0 || similarity[a][b] > similarity[a][best]))
+          {
+            best = b;
+          }
+        }
+        groups.get (best).addAll (groups.get (a));
+        merged[a] = true;
+      }
+    }
+
+    final List <int []> result = new ArrayList<> ();
+    for (int c = 0; c < n; c++)
+    {
+      if (!merged[c])
+      {
+        final int [] members = groups.get (c).stream ().mapToInt (Integer::intValue).toArray ();
+        Arrays.sort (members);
+        result.add (members);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the original model.
+   */
+  public Model getModel ()
+  {
+    return m_aModel;
+  }
+
+  /**
+   * @return the model scoring clusters.
+   */
+  Model getRouter ()
+  {
+    return m_aRouter;
+  }
+
+  /**
+   * @return the number of clusters.
+   */
+  public int getClusterCount ()
+  {
+    return m_aClusterModels.length;
+  }
+
+  /**
+   * @return the model of a cluster (a subset of the original model).
+   */
+  public Model getClusterModel (final int cluster)
+  {
+    return m_aClusterModels[cluster];
+  }
+}
@@ -0,0 +1,71 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Hooks reporting what the language detection engines ({@link LangIdV3} and
+ * {@link com.cybozu.labs.langdetect.Detector}) do. All methods do nothing by
+ * default; implementations must be thread safe and cheap, as they are called
+ * on every detection.
+ *
+ * @see DetectionMetrics
+ */
+public interface IDetectionMetrics
+{
+  /** Metrics that are not collected. */
+  IDetectionMetrics NONE = new IDetectionMetrics ()
+  {};
+
+  /**
+   * A {@link LangIdV3} classification.
+   *
+   * @param nanos
+   *        Time since the classifier was reset.
+   * @param bytes
+   *        UTF-8 bytes appended since the classifier was reset.
+   * @param featuresHit
+   *        Number of distinct features found in the input.
+   * @param earlyExit
+   *        A {@link DetectionBudget} ran out before the end of the input, so
+   *        only part of it was classified.
+   */
+  default void onClassify (final long nanos, final long bytes, final int featuresHit, final boolean earlyExit)
+  {}
+
+  /**
+   * A {@link com.cybozu.labs.langdetect.Detector} detection.
+   *
+   * @param nanos
+   *        Time taken.
+   * @param chars
+   *        Characters of the (cleaned) text processed, less than all if a
+   *        {@link DetectionBudget} ran out.
+   * @param ngrams
+   *        Number of n-grams extracted from the text.
+   * @param trials
+   *        Number of trials run.
+   * @param iterations
+   *        Number of n-grams sampled over all trials.
+   */
+  default void onDetect (final long nanos, final int chars, final int ngrams, final int trials, final int iterations)
+  {}
+
+  /**
+   * A {@link Model} was loaded.
+   *
+   * @param nanos
+   *        Time taken.
+   */
+  default void onModelLoad (final long nanos)
+  {}
+
+  /**
+   * A {@link com.cybozu.labs.langdetect.Detector} language profile was
+   * loaded.
+   *
+   * @param lang
+   *        Language of the profile.
+   * @param nanos
+   *        Time taken.
+   */
+  default void onProfileLoad (final String lang, final long nanos)
+  {}
+}
@@ -2,6 +2,7 @@ package com.carrotsearch.labs.langid;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
@@ -9,6 +10,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 // TODO: sub-sampling for stable detection and quicker termination?
 // TODO: add a classify method operating directly on a byte[] or a byte buffer.
@@ -31,17 +34,36 @@ import java.util.List;
  * for use by multiple threads at the same time. There are data buffers that are
  * reused internally (allocated statically for performance reasons). Model data
  * can be safely shared though so it's trivial to create a thread-local factory
- * of language identifiers.
+ * of language identifiers, or a {@link ClassifierPool} (when there are many
+ * threads, like virtual threads).
+ * <p>
+ * Feature extraction of very large inputs may be split among the threads of a
+ * {@link ForkJoinPool}, see {@link #setExtractionPool(ForkJoinPool, int)}.
  *
  * @see "https://github.com/saffsd/langid.py"
  */
 public final class LangIdV3 implements ILangIdClassifier
 {
+  /**
+   * Expected length of a classified document (in characters) if none is given
+   * explicitly.
+   */
+  public static final int DEFAULT_EXPECTED_DOCUMENT_LENGTH = 2048;
+
+  /**
+   * Input length (in bytes) from which feature extraction is parallel if an
+   * extraction pool is set, unless given explicitly.
+   */
+  public static final int DEFAULT_PARALLEL_EXTRACTION_THRESHOLD = 1 << 20;
+
+  /** Minimum length of a chunk of input extracted by a single task. */
+  static final int MIN_EXTRACTION_CHUNK_LENGTH = 1 << 16;
+
   /** Data model for the classifier. */
   private final Model m_aModel;
 
   // Reusable feature vector.
-  private final DoubleLinkedCountingSet m_aFV;
+  private final AbstractCountingSet m_aFV;
 
   // Scratch data.
   private final float [] m_aScratchPdc;
@@ -57,6 +79,15 @@ public final class LangIdV3 implements ILangIdClassifier
   private final List <DetectedLanguage> m_aRankList;
   private final List <DetectedLanguage> m_aRankListView;
 
+  // Metrics and the state they are computed from.
+  private IDetectionMetrics m_aMetrics = IDetectionMetrics.NONE;
+  private long m_nResetNanos;
+  private long m_nBytes;
+
+  // Parallel feature extraction.
+  private ForkJoinPool m_aExtractionPool;
+  private int m_nParallelThreshold = DEFAULT_PARALLEL_EXTRACTION_THRESHOLD;
+
   /**
    * Create a language identifier with the default model (full set of
    * languages).
@@ -73,10 +104,38 @@ public final class LangIdV3 implements ILangIdClassifier
    * Create a language identifier with a restricted model (set of languages).
    */
   public LangIdV3 (final Model model)
+  {
+    this (model, DEFAULT_EXPECTED_DOCUMENT_LENGTH);
+  }
+
+  /**
+   * Create a language identifier for documents of the given expected length.
+   * The feature vector implementation is picked based on the number of
+   * features of the model and the expected document length: a hash-based one
+   * (proportional to document length) if the model has many more features than
+   * a typical document could hit, a dense one (proportional to the number of
+   * features, but faster) otherwise.
+   *
+   * @param model
+   *        The model to use.
+   * @param expectedDocumentLength
+   *        Expected (typical) length of a document, in characters.
+   */
+  public LangIdV3 (final Model model, final int expectedDocumentLength)
+  {
+    this (model, createFeatureVector (model, expectedDocumentLength));
+  }
+
+  /*
+   * Create a language identifier with the given feature vector, which may be
+   * shared with identifiers of models with the same features (the same state
+   * machine).
+   */
+  LangIdV3 (final Model model, final AbstractCountingSet featureVector)
   {
     this.m_aModel = model;
 
-    this.m_aFV = new DoubleLinkedCountingSet (model.numFeatures, model.numFeatures);
+    this.m_aFV = featureVector;
     this.m_aScratchPdc = new float [model.numClasses];
 
     this.m_aRankList = new ArrayList<> ();
@@ -91,11 +150,69 @@ public final class LangIdV3 implements ILangIdClassifier
                                             .onUnmappableCharacter (CodingErrorAction.IGNORE);
   }
 
+  /**
+   * Report classifications to the given metrics.
+   *
+   * @param metrics
+   *        Metrics, {@link IDetectionMetrics#NONE} (the default) to collect
+   *        nothing.
+   */
+  public void setMetrics (final IDetectionMetrics metrics)
+  {
+    this.m_aMetrics = metrics;
+    this.m_nResetNanos = System.nanoTime ();
+  }
+
+  /**
+   * Extract features of inputs of at least <code>threshold</code> bytes in
+   * parallel: the input is split into chunks at UTF-8 character boundaries,
+   * the chunks are processed by tasks of the pool with their own feature
+   * vectors and the counts are merged. Each task starts the state machine a
+   * few bytes (the length of the longest feature) before its chunk, so
+   * features spanning chunk boundaries are counted exactly once and the counts
+   * are the same as those of a serial extraction.
+   * <p>
+   * Applies to {@link #append(ByteBuffer)}, {@link #append(byte[], int, int)}
+   * and to character sequences, which are then encoded at once rather than in
+   * 4 kB chunks.
+   *
+   * @param pool
+   *        The pool (like {@link ForkJoinPool#commonPool()}),
+   *        <code>null</code> to extract serially (the default).
+   * @param threshold
+   *        Minimum input length (in bytes, or characters) for a parallel
+   *        extraction.
+   */
+  public void setExtractionPool (final ForkJoinPool pool, final int threshold)
+  {
+    if (threshold < 1)
+    {
+      throw new IllegalArgumentException ("Threshold must be positive: " + threshold);
+    }
+    this.m_aExtractionPool = pool;
+    this.m_nParallelThreshold = threshold;
+  }
+
   public Model getModel ()
   {
     return m_aModel;
   }
 
+  /*
+   * Pick a feature vector implementation. A document hits at most a few
+   * features per input byte, so a dense set sized to all features only pays
+   * off if the model does not have many more features than that.
+   */
+  static AbstractCountingSet createFeatureVector (final Model model, final int expectedDocumentLength)
+  {
+    final long expectedFeatures = Math.max (16L, expectedDocumentLength * 4L);
+    if (model.numFeatures > expectedFeatures)
+    {
+      return new OpenHashCountingSet ((int) Math.min (expectedFeatures, model.numFeatures));
+    }
+    return new DoubleLinkedCountingSet (model.numFeatures, model.numFeatures);
+  }
+
   /*
    *
    */
@@ -105,7 +222,82 @@ public final class LangIdV3 implements ILangIdClassifier
     // Compute the features and apply NB
     reset ();
     append (str);
-    return classify (normalizeConfidence);
+    return classify (normalizeConfidence, false);
+  }
+
+  /**
+   * Same as {@link #classify(CharSequence, boolean)}, but stops processing the
+   * input when the budget runs out and classifies the input processed so far.
+   * The budget is checked after every chunk of encoded input (4 kB).
+   *
+   * @param str
+   *        The input character sequence to identify.
+   * @param normalizeConfidence
+   *        normalize confidence?
+   * @param budget
+   *        limit of time and input characters
+   * @return the language, partial if not all input was processed
+   */
+  public BudgetedResult <DetectedLanguage> classify (final CharSequence str,
+                                                     final boolean normalizeConfidence,
+                                                     final DetectionBudget budget)
+  {
+    reset ();
+    final boolean partial = !appendWithin (str, budget);
+    return new BudgetedResult<> (classify (normalizeConfidence, partial), partial);
+  }
+
+  /**
+   * Same as {@link #classify(CharSequence, boolean, DetectionBudget)} but
+   * returns the confidence of all languages. The list is reused, as the one
+   * returned by {@link #rank(boolean)}.
+   *
+   * @return list of {@link DetectedLanguage}, partial if not all input was
+   *         processed
+   */
+  public BudgetedResult <List <DetectedLanguage>> rank (final CharSequence str,
+                                                        final boolean normalizeConfidence,
+                                                        final DetectionBudget budget)
+  {
+    reset ();
+    final boolean partial = !appendWithin (str, budget);
+    return new BudgetedResult<> (rank (normalizeConfidence, partial), partial);
+  }
+
+  /**
+   * Append as much of the input as the budget allows (whole chunks, as
+   * {@link #append(CharSequence)}).
+   *
+   * @return <code>true</code> if all input was appended
+   */
+  private boolean appendWithin (final CharSequence str, final DetectionBudget budget)
+  {
+    CharSequence input = str;
+    if (str.length () > budget.getMaxChars ())
+    {
+      int end = (int) budget.getMaxChars ();
+      if (end > 0 && Character.isHighSurrogate (str.charAt (end - 1)))
+      {
+        end--;
+      }
+      input = str.subSequence (0, end);
+    }
+    m_aEncoder.reset ();
+    final CharBuffer chbuf = CharBuffer.wrap (input);
+    CoderResult result;
+    do
+    {
+      if (budget.isExpired ())
+      {
+        return false;
+      }
+      m_aScratchUtf8.clear ();
+      result = m_aEncoder.encode (chbuf, m_aScratchUtf8, true);
+      m_aScratchUtf8.flip ();
+
+      append (m_aScratchUtf8);
+    } while (result.isOverflow ());
+    return input == str;
   }
 
   /*
@@ -115,6 +307,11 @@ public final class LangIdV3 implements ILangIdClassifier
   public void reset ()
   {
     m_aFV.clear ();
+    m_nBytes = 0;
+    if (m_aMetrics != IDetectionMetrics.NONE)
+    {
+      m_nResetNanos = System.nanoTime ();
+    }
   }
 
   /*
@@ -123,6 +320,20 @@ public final class LangIdV3 implements ILangIdClassifier
   @Override
   public void append (final CharSequence str)
   {
+    if (m_aExtractionPool != null && str.length () >= m_nParallelThreshold)
+    {
+      try
+      {
+        appendInParallel (m_aEncoder.encode (CharBuffer.wrap (str)));
+        return;
+      }
+      catch (final CharacterCodingException e)
+      {
+        // Not possible, malformed and unmappable input is ignored.
+        throw new IllegalStateException (e);
+      }
+    }
+
     m_aEncoder.reset ();
     final CharBuffer chbuf = CharBuffer.wrap (str);
     CoderResult result;
@@ -142,24 +353,31 @@ public final class LangIdV3 implements ILangIdClassifier
   @Override
   public void append (final ByteBuffer buffer)
   {
+    if (m_aExtractionPool != null && buffer.remaining () >= m_nParallelThreshold)
+    {
+      appendInParallel (buffer);
+      return;
+    }
+
     // Update predictions (without an intermediate statecount as in the
     // original)
-    short state = 0;
-    final int [] [] tk_output = m_aModel.m_aDsaOutput;
-    final short [] tk_nextmove = m_aModel.m_aDsa;
+    int state = 0;
+    final CompactDsa dsa = m_aModel.m_aDsa;
+    final byte [] tk_classes = dsa.m_aByteClasses;
+    final char [] tk_nextmove = dsa.m_aTransitions;
+    final int tk_stride = dsa.numByteClasses;
+    final int [] tk_offsets = dsa.m_aOutputOffsets;
+    final int [] tk_output = dsa.m_aOutputs;
+    m_nBytes += buffer.remaining ();
 
     while (buffer.hasRemaining ())
     {
       final byte b = buffer.get ();
-      state = tk_nextmove[(state << 8) + (b & 0xff)];
+      state = tk_nextmove[state * tk_stride + (tk_classes[b & 0xff] & 0xff)];
 
-      final int [] is = tk_output[state];
-      if (is != null)
+      for (int k = tk_offsets[state], max = tk_offsets[state + 1]; k < max; k++)
       {
-        for (final int feature : is)
-        {
-          m_aFV.increment (feature);
-        }
+        m_aFV.increment (tk_output[k]);
       }
     }
   }
@@ -170,25 +388,136 @@ public final class LangIdV3 implements ILangIdClassifier
   @Override
   public void append (final byte [] array, final int start, final int length)
   {
+    if (m_aExtractionPool != null && length >= m_nParallelThreshold)
+    {
+      appendInParallel (ByteBuffer.wrap (array, start, length));
+      return;
+    }
+
     // Update predictions (without an intermediate statecount as in the
     // original)
-    short state = 0;
-    final int [] [] tk_output = m_aModel.m_aDsaOutput;
-    final short [] tk_nextmove = m_aModel.m_aDsa;
+    int state = 0;
+    final CompactDsa dsa = m_aModel.m_aDsa;
+    final byte [] tk_classes = dsa.m_aByteClasses;
+    final char [] tk_nextmove = dsa.m_aTransitions;
+    final int tk_stride = dsa.numByteClasses;
+    final int [] tk_offsets = dsa.m_aOutputOffsets;
+    final int [] tk_output = dsa.m_aOutputs;
+    m_nBytes += length;
 
     for (int i = start, max = start + length; i < max; i++)
     {
       final byte b = array[i];
-      state = tk_nextmove[(state << 8) + (b & 0xff)];
+      state = tk_nextmove[state * tk_stride + (tk_classes[b & 0xff] & 0xff)];
+
+      for (int k = tk_offsets[state], kmax = tk_offsets[state + 1]; k < kmax; k++)
+      {
+        m_aFV.increment (tk_output[k]);
+      }
+    }
+  }
+
+  /*
+   * Extract features of the buffer's remaining bytes on the extraction pool.
+   */
+  private void appendInParallel (final ByteBuffer buffer)
+  {
+    final int from = buffer.position ();
+    final int to = buffer.limit ();
+    final int chunkLength = Math.max (MIN_EXTRACTION_CHUNK_LENGTH,
+                                      (to - from) / (m_aExtractionPool.getParallelism () * 4));
+    m_aFV.addAll (m_aExtractionPool.invoke (new ExtractionTask (m_aModel, buffer, from, from, to, chunkLength)));
+    buffer.position (to);
+    m_nBytes += to - from;
+  }
+
+  /**
+   * Extracts features of a range of the input, split in halves (at UTF-8
+   * character boundaries) until the range is no longer than the chunk length.
+   */
+  @SuppressWarnings ("serial")
+  private static final class ExtractionTask extends RecursiveTask <AbstractCountingSet>
+  {
+    private final Model m_aModel;
+    private final ByteBuffer m_aInput;
+    private final int m_nInputStart;
+    private final int m_nFrom;
+    private final int m_nTo;
+    private final int m_nChunkLength;
+
+    ExtractionTask (final Model model,
+                    final ByteBuffer input,
+                    final int inputStart,
+                    final int from,
+                    final int to,
+                    final int chunkLength)
+    {
+      this.m_aModel = model;
+      this.m_aInput = input;
+      this.m_nInputStart = inputStart;
+      this.m_nFrom = from;
+      this.m_nTo = to;
+      this.m_nChunkLength = chunkLength;
+    }
+
+    @Override
+    protected AbstractCountingSet compute ()
+    {
+      if (m_nTo - m_nFrom > m_nChunkLength)
+      {
+        // Don't split a multi-byte sequence (10xxxxxx are continuation bytes).
+        int mid = m_nFrom + (m_nTo - m_nFrom) / 2;
+        while (mid < m_nTo && (m_aInput.get (mid) & 0xc0) == 0x80)
+        {
+          mid++;
+        }
+        if (mid < m_nTo)
+        {
+          final ExtractionTask left = new ExtractionTask (m_aModel, m_aInput, m_nInputStart, m_nFrom, mid, m_nChunkLength);
+          left.fork ();
+          final AbstractCountingSet right = new ExtractionTask (m_aModel,
+                                                                m_aInput,
+                                                                m_nInputStart,
+                                                                mid,
+                                                                m_nTo,
+                                                                m_nChunkLength).compute ();
+          final AbstractCountingSet merged = left.join ();
+          merged.addAll (right);
+          return merged;
+        }
+      }
+      return extract ();
+    }
+
+    private AbstractCountingSet extract ()
+    {
+      final CompactDsa dsa = m_aModel.m_aDsa;
+      final byte [] tk_classes = dsa.m_aByteClasses;
+      final char [] tk_nextmove = dsa.m_aTransitions;
+      final int tk_stride = dsa.numByteClasses;
+      final int [] tk_offsets = dsa.m_aOutputOffsets;
+      final int [] tk_output = dsa.m_aOutputs;
+      final ByteBuffer input = m_aInput;
+
+      // The state at the start of the chunk only depends on the preceding
+      // maxDepth bytes; features ending there belong to the previous chunk.
+      int state = 0;
+      for (int i = Math.max (m_nInputStart, m_nFrom - dsa.maxDepth); i < m_nFrom; i++)
+      {
+        state = tk_nextmove[state * tk_stride + (tk_classes[input.get (i) & 0xff] & 0xff)];
+      }
 
-      final int [] is = tk_output[state];
-      if (is != null)
+      final AbstractCountingSet fv = createFeatureVector (m_aModel, m_nTo - m_nFrom);
+      for (int i = m_nFrom; i < m_nTo; i++)
       {
-        for (final int feature : is)
+        state = tk_nextmove[state * tk_stride + (tk_classes[input.get (i) & 0xff] & 0xff)];
+
+        for (int k = tk_offsets[state], kmax = tk_offsets[state + 1]; k < kmax; k++)
         {
-          m_aFV.increment (feature);
+          fv.increment (tk_output[k]);
         }
       }
+      return fv;
     }
   }
 
@@ -197,6 +526,11 @@ public final class LangIdV3 implements ILangIdClassifier
    */
   @Override
   public DetectedLanguage classify (final boolean normalizeConfidence)
+  {
+    return classify (normalizeConfidence, false);
+  }
+
+  private DetectedLanguage classify (final boolean normalizeConfidence, final boolean earlyExit)
   {
     final float [] probs = naiveBayesClassConfidence ();
 
@@ -217,14 +551,28 @@ public final class LangIdV3 implements ILangIdClassifier
       max = normalizeConfidenceAsProbability (probs, c);
     }
 
+    reportMetrics (earlyExit);
     return new DetectedLanguage (m_aModel.m_aLangClasses[c], max);
   }
 
+  private void reportMetrics (final boolean earlyExit)
+  {
+    if (m_aMetrics != IDetectionMetrics.NONE)
+    {
+      m_aMetrics.onClassify (System.nanoTime () - m_nResetNanos, m_nBytes, m_aFV.elementsCount, earlyExit);
+    }
+  }
+
   /*
    *
    */
   @Override
   public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+  {
+    return rank (normalizeConfidence, false);
+  }
+
+  private List <DetectedLanguage> rank (final boolean normalizeConfidence, final boolean earlyExit)
   {
     final float [] probs = naiveBayesClassConfidence ();
 
@@ -235,6 +583,7 @@ public final class LangIdV3 implements ILangIdClassifier
       m_aRankList.get (c).m_fConfidence = confidence;
     }
 
+    reportMetrics (earlyExit);
     return m_aRankListView;
   }
 
@@ -268,6 +617,11 @@ public final class LangIdV3 implements ILangIdClassifier
     final int [] dense = this.m_aFV.dense;
     final int [] counts = this.m_aFV.counts;
     final int nz = this.m_aFV.elementsCount;
+    if (m_aModel.isQuantized ())
+    {
+      return naiveBayesClassConfidenceQuantized (pdc, dense, counts, nz);
+    }
+
     final float [] nb_ptc = m_aModel.nb_ptc;
     for (int i = 0, fi = 0; i < numClasses; i++, fi += numFeatures)
     {
@@ -282,4 +636,38 @@ public final class LangIdV3 implements ILangIdClassifier
 
     return pdc;
   }
+
+  /*
+   * Compute naive bayes class confidence values on a quantized model. The
+   * affine mapping of each class is applied once to the integer dot product
+   * rather than to each feature.
+   */
+  private float [] naiveBayesClassConfidenceQuantized (final float [] pdc,
+                                                       final int [] dense,
+                                                       final int [] counts,
+                                                       final int nz)
+  {
+    long total = 0;
+    for (int j = 0; j < nz; j++)
+    {
+      total += counts[j];
+    }
+
+    final int numClasses = m_aModel.numClasses;
+    final int numFeatures = m_aModel.numFeatures;
+    final byte [] nb_ptc_q = m_aModel.nb_ptc_q;
+    final float [] nb_ptc_min = m_aModel.nb_ptc_min;
+    final float [] nb_ptc_scale = m_aModel.nb_ptc_scale;
+    for (int i = 0, fi = 0; i < numClasses; i++, fi += numFeatures)
+    {
+      long v = 0;
+      for (int j = 0; j < nz; j++)
+      {
+        v += counts[j] * (nb_ptc_q[fi + dense[j]] & 0xff);
+      }
+      pdc[i] += (float) ((double) nb_ptc_min[i] * total + (double) nb_ptc_scale[i] * v);
+    }
+
+    return pdc;
+  }
 }
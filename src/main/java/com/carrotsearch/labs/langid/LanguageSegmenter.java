@@ -0,0 +1,303 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a text into contiguous spans of one language (code-switched text,
+ * quotations, multilingual pages).
+ * <p>
+ * The text is divided into blocks of <code>step</code> characters and each
+ * block is labelled with the language of a window of
+ * <code>windowLength</code> characters centered on it. Consecutive blocks of
+ * the same language are merged into a span; span boundaries are moved back to
+ * a word boundary (whitespace) if there is one in the preceding block.
+ * <p>
+ * The window slides instead of being classified anew for every block: two
+ * cursors walk the text once with the model's state machine, the leading one
+ * adds the features of characters entering the window, the trailing one
+ * removes the features of characters leaving it. Class scores are updated
+ * with each added or removed feature, so segmentation takes time linear in
+ * the length of the text, independent of the window length.
+ * <p>
+ * <strong>Thread safety:</strong> an instance of this class is <b>not</b> safe
+ * for use by multiple threads at the same time (the model can be shared).
+ */
+public final class LanguageSegmenter
+{
+  public static final int DEFAULT_WINDOW_LENGTH = 256;
+  public static final int DEFAULT_STEP = 32;
+
+  private final Model m_aModel;
+  private final int m_nWindowLength;
+  private final int m_nStep;
+
+  // Features of the window.
+  private final DoubleLinkedCountingSet m_aWindow;
+  // Log-probabilities of the window given each class.
+  private final double [] m_aScores;
+
+  /**
+   * A segmenter with the default model and window.
+   */
+  public LanguageSegmenter ()
+  {
+    this (Model.defaultModel (), DEFAULT_WINDOW_LENGTH, DEFAULT_STEP);
+  }
+
+  /**
+   * @param model
+   *        The model.
+   * @param windowLength
+   *        Length of the window classified for each block, in characters.
+   *        Longer windows are more accurate but miss shorter spans.
+   * @param step
+   *        Length of a block (the resolution of span boundaries), in
+   *        characters; at most the window length.
+   */
+  public LanguageSegmenter (final Model model, final int windowLength, final int step)
+  {
+    if (step < 1 || step > windowLength)
+    {
+      throw new IllegalArgumentException ("Step must be in [1, " + windowLength + "]: " + step);
+    }
+    this.m_aModel = model;
+    this.m_nWindowLength = windowLength;
+    this.m_nStep = step;
+    this.m_aWindow = new DoubleLinkedCountingSet (model.numFeatures, model.numFeatures);
+    this.m_aScores = new double [model.numClasses];
+  }
+
+  public Model getModel ()
+  {
+    return m_aModel;
+  }
+
+  /**
+   * @return spans covering the whole text, in order (none for an empty text).
+   */
+  public List <LanguageSpan> segment (final CharSequence text)
+  {
+    final List <LanguageSpan> spans = new ArrayList<> ();
+    final int length = text.length ();
+    if (length == 0)
+    {
+      return spans;
+    }
+
+    resetWindow ();
+    final Cursor lead = new Cursor (text, true);
+    final Cursor trail = new Cursor (text, false);
+
+    int spanStart = 0;
+    int spanClass = -1;
+    double confidenceSum = 0;
+    int blocks = 0;
+    for (int blockStart = 0; blockStart < length; blockStart += m_nStep)
+    {
+      final int blockEnd = Math.min (length, blockStart + m_nStep);
+      final int to = Math.min (length, Math.max ((blockStart + blockEnd) / 2 + m_nWindowLength / 2, m_nWindowLength));
+      final int from = Math.max (0, to - m_nWindowLength);
+      lead.advanceTo (to);
+      trail.advanceTo (from);
+
+      if (m_aWindow.elementsCount == 0)
+      {
+        // No evidence, the block joins the current span.
+        continue;
+      }
+
+      final int clazz = argmax ();
+      final double confidence = confidence (clazz);
+      if (clazz != spanClass)
+      {
+        if (spanClass >= 0)
+        {
+          final int boundary = wordBoundary (text, blockStart, Math.max (spanStart + 1, blockStart - m_nStep));
+          spans.add (span (spanStart, boundary, spanClass, confidenceSum / blocks));
+          spanStart = boundary;
+        }
+        spanClass = clazz;
+        confidenceSum = 0;
+        blocks = 0;
+      }
+      confidenceSum += confidence;
+      blocks++;
+    }
+
+    if (spanClass < 0)
+    {
+      // No features at all, classify by the priors (as LangIdV3 does).
+      resetWindow ();
+      spanClass = argmax ();
+      confidenceSum = confidence (spanClass);
+      blocks = 1;
+    }
+    spans.add (span (spanStart, length, spanClass, confidenceSum / blocks));
+    return spans;
+  }
+
+  private LanguageSpan span (final int start, final int end, final int clazz, final double confidence)
+  {
+    return new LanguageSpan (start, end, m_aModel.m_aLangClasses[clazz], (float) confidence);
+  }
+
+  /*
+   * Index after the last whitespace in [min, pos), or pos if there is none.
+   */
+  private static int wordBoundary (final CharSequence text, final int pos, final int min)
+  {
+    for (int i = pos; i > min; i--)
+    {
+      if (Character.isWhitespace (text.charAt (i - 1)))
+      {
+        return i;
+      }
+    }
+    return pos;
+  }
+
+  private void resetWindow ()
+  {
+    m_aWindow.clear ();
+    for (int c = 0; c < m_aScores.length; c++)
+    {
+      m_aScores[c] = m_aModel.nb_pc[c];
+    }
+  }
+
+  private int argmax ()
+  {
+    int c = 0;
+    for (int i = 1; i < m_aScores.length; i++)
+    {
+      if (m_aScores[i] > m_aScores[c])
+      {
+        c = i;
+      }
+    }
+    return c;
+  }
+
+  /*
+   * Confidence of a class normalized to a probability.
+   */
+  private double confidence (final int clazz)
+  {
+    double s = 0;
+    final double v = m_aScores[clazz];
+    for (final double score : m_aScores)
+    {
+      s += Math.exp (score - v);
+    }
+    return 1 / s;
+  }
+
+  private void addFeature (final int feature)
+  {
+    m_aWindow.increment (feature);
+    for (int c = 0; c < m_aScores.length; c++)
+    {
+      m_aScores[c] += m_aModel.ptc (c, feature);
+    }
+  }
+
+  private void removeFeature (final int feature)
+  {
+    m_aWindow.decrement (feature);
+    if (m_aWindow.elementsCount == 0)
+    {
+      // Exact priors again, no rounding errors accumulate over long texts.
+      resetWindow ();
+      return;
+    }
+    for (int c = 0; c < m_aScores.length; c++)
+    {
+      m_aScores[c] -= m_aModel.ptc (c, feature);
+    }
+  }
+
+  /**
+   * Walks the text (encoded to UTF-8 on the fly) with the state machine. Both
+   * cursors pass the same bytes from the start of the text, so the trailing
+   * cursor meets exactly the features the leading one added.
+   */
+  private final class Cursor
+  {
+    private final CharSequence m_aText;
+    private final boolean m_bAdd;
+    private int m_nPosition;
+    private int m_nState;
+
+    Cursor (final CharSequence text, final boolean add)
+    {
+      this.m_aText = text;
+      this.m_bAdd = add;
+    }
+
+    void advanceTo (final int target)
+    {
+      final CharSequence text = m_aText;
+      while (m_nPosition < target)
+      {
+        final char c = text.charAt (m_nPosition++);
+        int cp = c;
+        if (Character.isHighSurrogate (c) &&
+            m_nPosition < text.length () &&
+            Character.isLowSurrogate (text.charAt (m_nPosition)))
+        {
+          cp = Character.toCodePoint (c, text.charAt (m_nPosition++));
+        }
+        else
+          if (Character.isSurrogate (c))
+          {
+            // Unpaired surrogates are ignored, as by LangIdV3's encoder.
+            continue;
+          }
+
+        if (cp < 0x80)
+        {
+          consume (cp);
+        }
+        else
+          if (cp < 0x800)
+          {
+            consume (0xc0 | (cp >> 6));
+            consume (0x80 | (cp & 0x3f));
+          }
+          else
+            if (cp < 0x10000)
+            {
+              consume (0xe0 | (cp >> 12));
+              consume (0x80 | ((cp >> 6) & 0x3f));
+              consume (0x80 | (cp & 0x3f));
+            }
+            else
+            {
+              consume (0xf0 | (cp >> 18));
+              consume (0x80 | ((cp >> 12) & 0x3f));
+              consume (0x80 | ((cp >> 6) & 0x3f));
+              consume (0x80 | (cp & 0x3f));
+            }
+      }
+    }
+
+    private void consume (final int b)
+    {
+      final CompactDsa dsa = m_aModel.m_aDsa;
+      m_nState = dsa.nextState (m_nState, b);
+      final int [] outputs = dsa.m_aOutputs;
+      for (int k = dsa.m_aOutputOffsets[m_nState], max = dsa.m_aOutputOffsets[m_nState + 1]; k < max; k++)
+      {
+        if (m_bAdd)
+        {
+          addFeature (outputs[k]);
+        }
+        else
+        {
+          removeFeature (outputs[k]);
+        }
+      }
+    }
+  }
+}
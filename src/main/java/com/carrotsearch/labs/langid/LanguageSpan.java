@@ -0,0 +1,57 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * A contiguous part of a text in one language.
+ *
+ * @see LanguageSegmenter
+ */
+public final class LanguageSpan
+{
+  private final int m_nStart;
+  private final int m_nEnd;
+  private final String m_sLangCode;
+  private final float m_fConfidence;
+
+  public LanguageSpan (final int start, final int end, final String langCode, final float confidence)
+  {
+    this.m_nStart = start;
+    this.m_nEnd = end;
+    this.m_sLangCode = langCode;
+    this.m_fConfidence = confidence;
+  }
+
+  /**
+   * @return index of the first character of the span.
+   */
+  public int getStart ()
+  {
+    return m_nStart;
+  }
+
+  /**
+   * @return index after the last character of the span.
+   */
+  public int getEnd ()
+  {
+    return m_nEnd;
+  }
+
+  public String getLangCode ()
+  {
+    return m_sLangCode;
+  }
+
+  /**
+   * @return the mean confidence (normalized) of the windows in the span.
+   */
+  public double getConfidence ()
+  {
+    return m_fConfidence;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "[" + m_nStart + ", " + m_nEnd + ") " + m_sLangCode + ": " + m_fConfidence;
+  }
+}
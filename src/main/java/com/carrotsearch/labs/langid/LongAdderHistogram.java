@@ -0,0 +1,104 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with power-of-two buckets
+ * (bucket <code>i</code> counts values in <code>[2^i, 2^(i+1))</code>).
+ * Percentiles are accurate to a factor of two, which is enough to spot
+ * latency regressions.
+ */
+public final class LongAdderHistogram
+{
+  private final LongAdder [] m_aBuckets = new LongAdder [64];
+  private final LongAdder m_aCount = new LongAdder ();
+  private final LongAdder m_aSum = new LongAdder ();
+  private final LongAccumulator m_aMax = new LongAccumulator (Math::max, 0);
+
+  public LongAdderHistogram ()
+  {
+    for (int i = 0; i < m_aBuckets.length; i++)
+    {
+      m_aBuckets[i] = new LongAdder ();
+    }
+  }
+
+  /**
+   * Record a value (negative values are recorded as zero).
+   */
+  public void record (final long value)
+  {
+    final long v = Math.max (0, value);
+    m_aBuckets[63 - Long.numberOfLeadingZeros (v | 1)].increment ();
+    m_aCount.increment ();
+    m_aSum.add (v);
+    m_aMax.accumulate (v);
+  }
+
+  public long getCount ()
+  {
+    return m_aCount.sum ();
+  }
+
+  public long getSum ()
+  {
+    return m_aSum.sum ();
+  }
+
+  public long getMax ()
+  {
+    return m_aMax.get ();
+  }
+
+  public double getMean ()
+  {
+    final long count = getCount ();
+    return count == 0 ? 0 : (double) getSum () / count;
+  }
+
+  /**
+   * @param quantile
+   *        Quantile, between 0 and 1.
+   * @return the upper bound of the bucket the quantile falls into (capped by
+   *         the maximum value), or zero if nothing was recorded.
+   */
+  public long getQuantile (final double quantile)
+  {
+    final long [] counts = new long [m_aBuckets.length];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++)
+    {
+      counts[i] = m_aBuckets[i].sum ();
+      total += counts[i];
+    }
+    if (total == 0)
+    {
+      return 0;
+    }
+
+    final long rank = (long) Math.ceil (quantile * total);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++)
+    {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0)
+      {
+        final long upper = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+        return Math.min (upper, getMax ());
+      }
+    }
+    return getMax ();
+  }
+
+  public void reset ()
+  {
+    for (final LongAdder bucket : m_aBuckets)
+    {
+      bucket.reset ();
+    }
+    m_aCount.reset ();
+    m_aSum.reset ();
+    m_aMax.reset ();
+  }
+}
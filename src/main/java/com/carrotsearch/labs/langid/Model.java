@@ -1,17 +1,16 @@
 package com.carrotsearch.labs.langid;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import com.carrotsearch.labs.lzma.LzmaDecoder;
 
@@ -22,6 +21,12 @@ import com.carrotsearch.labs.lzma.LzmaDecoder;
  */
 public final class Model
 {
+  /** Minimum number of copied values to copy matrix rows in parallel. */
+  private static final int PARALLEL_COPY_THRESHOLD = 1 << 22;
+
+  /** Metrics reporting model loads. */
+  private static volatile IDetectionMetrics loadMetrics = IDetectionMetrics.NONE;
+
   /** The default model, initialized lazily (once). */
   private static Model defaultModel;
 
@@ -42,19 +47,30 @@ public final class Model
   final float [] nb_ptc;
 
   /**
-   * Conditional init per-language probabilities (?).
+   * Quantized variant of {@link #nb_ptc} (same layout, one unsigned byte per
+   * value) or <code>null</code> if this model is not quantized. A value is
+   * restored as <code>nb_ptc_min[langIndex] + nb_ptc_scale[langIndex] * q</code>.
+   *
+   * @see #quantize()
    */
-  final float [] nb_pc;
+  final byte [] nb_ptc_q;
+
+  /** Per-class offset of {@link #nb_ptc_q} (<code>null</code> if not quantized). */
+  final float [] nb_ptc_min;
+
+  /** Per-class step of {@link #nb_ptc_q} (<code>null</code> if not quantized). */
+  final float [] nb_ptc_scale;
 
   /**
-   * State machine for walking byte n-grams.
+   * Conditional init per-language probabilities (?).
    */
-  final short [] m_aDsa;
+  final float [] nb_pc;
 
   /**
-   * An output (may be null) associated with each state.
+   * State machine for walking byte n-grams, with the outputs (features)
+   * associated with each state.
    */
-  final int [] [] m_aDsaOutput;
+  final CompactDsa m_aDsa;
 
   /** Number of classes (languages). */
   final int numClasses;
@@ -70,16 +86,42 @@ public final class Model
          final float [] pc,
          final short [] dsa,
          final int [] [] dsaOutput)
+  {
+    this (langClasses, ptc, null, null, null, pc, CompactDsa.compile (dsa, dsaOutput));
+  }
+
+  /*
+   * Create a new model with a compiled state machine.
+   */
+  Model (final String [] langClasses, final float [] ptc, final float [] pc, final CompactDsa dsa)
+  {
+    this (langClasses, ptc, null, null, null, pc, dsa);
+  }
+
+  /*
+   * Create a new model with either a full precision or a quantized feature
+   * matrix.
+   */
+  private Model (final String [] langClasses,
+                 final float [] ptc,
+                 final byte [] ptcQ,
+                 final float [] ptcMin,
+                 final float [] ptcScale,
+                 final float [] pc,
+                 final CompactDsa dsa)
   {
     this.m_aLangClasses = langClasses;
     this.nb_ptc = ptc;
+    this.nb_ptc_q = ptcQ;
+    this.nb_ptc_min = ptcMin;
+    this.nb_ptc_scale = ptcScale;
     this.nb_pc = pc;
     this.m_aDsa = dsa;
-    this.m_aDsaOutput = dsaOutput;
 
     assert nb_pc.length == langClasses.length;
+    assert (ptc == null) != (ptcQ == null);
     this.numClasses = langClasses.length;
-    this.numFeatures = nb_ptc.length / numClasses;
+    this.numFeatures = (ptc != null ? ptc.length : ptcQ.length) / numClasses;
   }
 
   /*
@@ -97,48 +139,222 @@ public final class Model
 
   void writeExternal (final ObjectOutput out) throws IOException
   {
+    if (isQuantized ())
+    {
+      throw new IllegalStateException ("Quantized models cannot be serialized.");
+    }
+
     out.writeObject (m_aLangClasses);
     out.writeObject (nb_ptc);
     out.writeObject (nb_pc);
-    out.writeObject (m_aDsa);
-    out.writeObject (m_aDsaOutput);
+    out.writeObject (m_aDsa.toTransitionTable ());
+    out.writeObject (m_aDsa.toOutputTable ());
   }
 
   /*
-   * Return a copy of this model trimmed to detect only a subset of languages.
+   * Return a copy of the default model trimmed to detect only a subset of
+   * languages.
    */
   public static Model detectOnly (final Set <String> langCodes)
   {
-    final Model source = defaultModel ();
+    return defaultModel ().subset (langCodes);
+  }
+
+  /**
+   * Return a copy of this model trimmed to detect only a subset of languages
+   * (fewer languages = tighter loops and faster execution). The state machine
+   * is shared with this model.
+   *
+   * @param langCodes
+   *        Languages to keep. Languages not supported by this model are
+   *        ignored.
+   * @return the trimmed model.
+   */
+  public Model subset (final Set <String> langCodes)
+  {
+    final int [] kept = selectClasses (m_aLangClasses, langCodes);
+    final String [] trimmed_nb_classes = new String [kept.length];
+    final float [] trimmed_nb_pc = new float [kept.length];
+    for (int j = 0; j < kept.length; j++)
+    {
+      trimmed_nb_classes[j] = m_aLangClasses[kept[j]];
+      trimmed_nb_pc[j] = nb_pc[kept[j]];
+    }
+
+    // Class rows are contiguous, copy them in bulk.
+    if (isQuantized ())
+    {
+      final byte [] trimmed_nb_ptc_q = new byte [kept.length * numFeatures];
+      final float [] trimmed_nb_ptc_min = new float [kept.length];
+      final float [] trimmed_nb_ptc_scale = new float [kept.length];
+      for (int j = 0; j < kept.length; j++)
+      {
+        trimmed_nb_ptc_min[j] = nb_ptc_min[kept[j]];
+        trimmed_nb_ptc_scale[j] = nb_ptc_scale[kept[j]];
+      }
+      copyRows (kept.length, numFeatures / 4, j -> System.arraycopy (nb_ptc_q,
+                                                                      kept[j] * numFeatures,
+                                                                      trimmed_nb_ptc_q,
+                                                                      j * numFeatures,
+                                                                      numFeatures));
+      return new Model (trimmed_nb_classes,
+                        null,
+                        trimmed_nb_ptc_q,
+                        trimmed_nb_ptc_min,
+                        trimmed_nb_ptc_scale,
+                        trimmed_nb_pc,
+                        m_aDsa);
+    }
+
+    final float [] trimmed_nb_ptc = new float [kept.length * numFeatures];
+    copyRows (kept.length, numFeatures, j -> System.arraycopy (nb_ptc,
+                                                                kept[j] * numFeatures,
+                                                                trimmed_nb_ptc,
+                                                                j * numFeatures,
+                                                                numFeatures));
+    return new Model (trimmed_nb_classes, trimmed_nb_ptc, null, null, null, trimmed_nb_pc, m_aDsa);
+  }
+
+  /**
+   * Read a model trimmed to a subset of languages directly from its serialized
+   * form (as written by {@link ModelTrainer#write(Model, java.io.OutputStream)}
+   * ), without materializing the full model. The buffer may be a
+   * memory-mapped file.
+   *
+   * @param serialized
+   *        Serialized model, from the buffer's position to its limit. The
+   *        buffer's position is not modified.
+   * @param langCodes
+   *        Languages to keep or <code>null</code> to keep all of them.
+   * @return the model.
+   * @throws IOException
+   *         If the buffer does not contain a valid serialized model.
+   */
+  public static Model readSubset (final ByteBuffer serialized, final Set <String> langCodes) throws IOException
+  {
+    final long start = System.nanoTime ();
+    final Model model = SerializedModelReader.read (serialized, langCodes);
+    loadMetrics.onModelLoad (System.nanoTime () - start);
+    return model;
+  }
+
+  /**
+   * Report loads of models ({@link #defaultModel()},
+   * {@link #readSubset(ByteBuffer, Set)}) to the given metrics.
+   *
+   * @param metrics
+   *        Metrics, {@link IDetectionMetrics#NONE} (the default) to collect
+   *        nothing.
+   */
+  public static void setLoadMetrics (final IDetectionMetrics metrics)
+  {
+    loadMetrics = metrics;
+  }
+
+  /*
+   * Indexes of classes to keep, in source order.
+   */
+  static int [] selectClasses (final String [] langClasses, final Set <String> langCodes)
+  {
+    final int [] kept = new int [langClasses.length];
+    int count = 0;
+    for (int i = 0; i < langClasses.length; i++)
+    {
+      if (langCodes == null || langCodes.contains (langClasses[i]))
+      {
+        kept[count++] = i;
+      }
+    }
 
-    final Set <String> newClasses = new LinkedHashSet<> (Arrays.asList (source.m_aLangClasses));
-    newClasses.retainAll (langCodes);
-    if (newClasses.size () < 2)
+    if (count < 2)
     {
       throw new IllegalArgumentException ("A model must contain at least two languages.");
     }
+    return Arrays.copyOf (kept, count);
+  }
 
-    // Limit the set of supported languages (fewer languages = tighter loops and
-    // faster execution).
-    final String [] trimmed_nb_classes = newClasses.toArray (new String [newClasses.size ()]);
-    final float [] trimmed_nb_pc = new float [newClasses.size ()];
-    final float [] trimmed_nb_ptc = new float [newClasses.size () * source.numFeatures];
-    for (int i = 0, j = 0; i < source.numClasses; i++)
+  /*
+   * Copy rows of a feature matrix, in parallel if there is enough data to make
+   * it worthwhile.
+   */
+  static void copyRows (final int numRows, final int rowLength, final IntConsumer copyRow)
+  {
+    if ((long) numRows * rowLength >= PARALLEL_COPY_THRESHOLD)
     {
-      if (newClasses.contains (source.m_aLangClasses[i]))
+      IntStream.range (0, numRows).parallel ().forEach (copyRow);
+    }
+    else
+    {
+      for (int j = 0; j < numRows; j++)
       {
-        trimmed_nb_pc[j] = source.nb_pc[i];
-        for (int f = 0; f < source.numFeatures; f++)
-        {
-          final int iFrom = source.numFeatures * i + f;
-          final int iTo = source.numFeatures * j + f;
-          trimmed_nb_ptc[iTo] = source.nb_ptc[iFrom];
-        }
-        j++;
+        copyRow.accept (j);
       }
     }
+  }
+
+  /**
+   * Return a copy of this model with the feature matrix quantized to 8 bits per
+   * value (an affine mapping with a separate offset and step for each class).
+   * The quantized matrix takes a quarter of the memory of the original one and
+   * is scored directly by {@link LangIdV3}, at the price of a slight loss of
+   * precision in the computed confidence values.
+   *
+   * @return a quantized copy of this model or this model if it is already
+   *         quantized.
+   */
+  public Model quantize ()
+  {
+    if (isQuantized ())
+    {
+      return this;
+    }
 
-    return new Model (trimmed_nb_classes, trimmed_nb_ptc, trimmed_nb_pc, source.m_aDsa, source.m_aDsaOutput);
+    final byte [] q = new byte [nb_ptc.length];
+    final float [] min = new float [numClasses];
+    final float [] scale = new float [numClasses];
+    for (int i = 0, fi = 0; i < numClasses; i++, fi += numFeatures)
+    {
+      float lo = Float.POSITIVE_INFINITY;
+      float hi = Float.NEGATIVE_INFINITY;
+      for (int f = fi; f < fi + numFeatures; f++)
+      {
+        lo = Math.min (lo, nb_ptc[f]);
+        hi = Math.max (hi, nb_ptc[f]);
+      }
+
+      final float step = hi > lo ? (hi - lo) / 255 : 1;
+      for (int f = fi; f < fi + numFeatures; f++)
+      {
+        q[f] = (byte) Math.round ((nb_ptc[f] - lo) / step);
+      }
+      min[i] = lo;
+      scale[i] = step;
+    }
+
+    return new Model (m_aLangClasses, null, q, min, scale, nb_pc, m_aDsa);
+  }
+
+  /**
+   * @return <code>true</code> if the feature matrix of this model is quantized.
+   * @see #quantize()
+   */
+  public boolean isQuantized ()
+  {
+    return nb_ptc_q != null;
+  }
+
+  /**
+   * @return the log-probability of a feature given a class (restored from
+   *         the quantized matrix if this model is quantized).
+   */
+  float ptc (final int langIndex, final int featureIndex)
+  {
+    final int index = langIndex * numFeatures + featureIndex;
+    if (nb_ptc != null)
+    {
+      return nb_ptc[index];
+    }
+    return nb_ptc_min[langIndex] + nb_ptc_scale[langIndex] * (nb_ptc_q[index] & 0xff);
   }
 
   /**
@@ -159,11 +375,11 @@ public final class Model
       return defaultModel;
     }
 
+    final long start = System.nanoTime ();
     DataInputStream is = null;
     try
     {
-      final ByteArrayOutputStream os = new ByteArrayOutputStream ();
-      is = new DataInputStream (new BufferedInputStream (Model.class.getResourceAsStream ("langid.lzma")));
+      is = new DataInputStream (Model.class.getResourceAsStream ("langid.lzma"));
 
       final byte [] streamProperties = new byte [5];
       is.readFully (streamProperties);
@@ -182,14 +398,21 @@ public final class Model
         streamSizeLong |= streamSize[i] & 0xFF;
       }
 
-      if (!decoder.code (is, os, streamSizeLong))
+      if (streamSizeLong < 0 || streamSizeLong > Integer.MAX_VALUE - 8)
       {
-        throw new IOException ("Error in data stream");
+        throw new IOException ("Unsupported stream size: " + streamSizeLong);
       }
 
-      os.flush ();
+      // Decode straight into an array of the known size and parse it in place.
+      final byte [] serialized = new byte [(int) streamSizeLong];
+      if (!decoder.code (is, serialized))
+      {
+        throw new IOException ("Error in data stream");
+      }
 
-      return Model.readExternal (new ObjectInputStream (new ByteArrayInputStream (os.toByteArray ())));
+      defaultModel = SerializedModelReader.read (ByteBuffer.wrap (serialized), null);
+      loadMetrics.onModelLoad (System.nanoTime () - start);
+      return defaultModel;
     }
     catch (final Exception e)
     {
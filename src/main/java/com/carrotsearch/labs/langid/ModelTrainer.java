@@ -0,0 +1,579 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Trains a {@link Model} for {@link LangIdV3} from labelled documents, along
+ * the lines of langid.py's training pipeline:
+ * <ul>
+ * <li>byte n-grams (1 to {@link #setMaxOrder(int)} bytes) are counted per
+ * document and per language,</li>
+ * <li>for each language, the n-grams with the highest information gain about
+ * that language are selected as features,</li>
+ * <li>a byte n-gram state machine is built for the selected features,</li>
+ * <li>per-language feature log-probabilities (with add-one smoothing) and
+ * class priors are estimated from the training documents.</li>
+ * </ul>
+ * Both counting passes are parallelized over documents with fork-join.
+ * <p>
+ * <strong>Thread safety:</strong> instances are not thread safe.
+ */
+public final class ModelTrainer
+{
+  /** Maximum supported length of a byte n-gram. */
+  public static final int MAX_ORDER = 4;
+
+  private final List <String> m_aLangClasses = new ArrayList<> ();
+  private final List <byte []> m_aDocuments = new ArrayList<> ();
+  private int [] m_aDocumentLangs = new int [16];
+
+  private int m_nMaxOrder = MAX_ORDER;
+  private int m_nFeaturesPerLanguage = 300;
+  private int m_nMinDocumentFrequency = 2;
+  private ForkJoinPool m_aPool = ForkJoinPool.commonPool ();
+
+  /**
+   * Set the maximum length of byte n-grams (1 to {@link #MAX_ORDER}). The
+   * default is {@value #MAX_ORDER}.
+   */
+  public void setMaxOrder (final int maxOrder)
+  {
+    if (maxOrder < 1 || maxOrder > MAX_ORDER)
+      throw new IllegalArgumentException ("Max order must be between 1 and " + MAX_ORDER + ": " + maxOrder);
+    m_nMaxOrder = maxOrder;
+  }
+
+  /**
+   * Set the number of features selected for each language (the model's
+   * features are the union of these). The default is 300.
+   */
+  public void setFeaturesPerLanguage (final int featuresPerLanguage)
+  {
+    if (featuresPerLanguage < 1)
+      throw new IllegalArgumentException ("Features per language must be positive: " + featuresPerLanguage);
+    m_nFeaturesPerLanguage = featuresPerLanguage;
+  }
+
+  /**
+   * Set the minimum number of documents an n-gram must occur in to be
+   * considered a feature. The default is 2.
+   */
+  public void setMinDocumentFrequency (final int minDocumentFrequency)
+  {
+    m_nMinDocumentFrequency = minDocumentFrequency;
+  }
+
+  /**
+   * Set the fork-join pool used for counting. The common pool is used by
+   * default.
+   */
+  public void setPool (final ForkJoinPool pool)
+  {
+    m_aPool = pool;
+  }
+
+  /**
+   * Add a training document.
+   *
+   * @param lang
+   *        Language code (class) of the document.
+   * @param text
+   *        Document text.
+   */
+  public void addDocument (final String lang, final CharSequence text)
+  {
+    addDocument (lang, text.toString ().getBytes (StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Add a training document.
+   *
+   * @param lang
+   *        Language code (class) of the document.
+   * @param utf8
+   *        UTF-8 encoded document text.
+   */
+  public void addDocument (final String lang, final byte [] utf8)
+  {
+    int langIndex = m_aLangClasses.indexOf (lang);
+    if (langIndex < 0)
+    {
+      langIndex = m_aLangClasses.size ();
+      m_aLangClasses.add (lang);
+    }
+
+    final int docIndex = m_aDocuments.size ();
+    if (docIndex == m_aDocumentLangs.length)
+    {
+      m_aDocumentLangs = Arrays.copyOf (m_aDocumentLangs, docIndex * 2);
+    }
+    m_aDocumentLangs[docIndex] = langIndex;
+    m_aDocuments.add (utf8);
+  }
+
+  /**
+   * Add training documents in the tab-delimited format of the EuroParl test
+   * data (one <code>[language code]\t[text]</code> document per line).
+   *
+   * @return the number of added documents.
+   */
+  public int addTabDelimited (final Reader reader) throws IOException
+  {
+    final BufferedReader br = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader (reader);
+    int count = 0;
+    String line;
+    while ((line = br.readLine ()) != null)
+    {
+      final int tabIndex = line.indexOf ('\t');
+      if (tabIndex <= 0)
+        continue;
+      addDocument (line.substring (0, tabIndex), line.substring (tabIndex + 1));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Train a model on all documents added so far.
+   */
+  public Model train ()
+  {
+    final int numClasses = m_aLangClasses.size ();
+    if (numClasses < 2)
+    {
+      throw new IllegalStateException ("A model must contain at least two languages.");
+    }
+
+    final int numDocuments = m_aDocuments.size ();
+    final int [] docsPerClass = new int [numClasses];
+    for (int d = 0; d < numDocuments; d++)
+    {
+      docsPerClass[m_aDocumentLangs[d]]++;
+    }
+
+    // Pass 1: document frequencies of all n-grams, per language.
+    final LongIntMap df = m_aPool.invoke (new DocumentFrequencyTask (0, numDocuments, leafSize ()));
+    final List <byte []> features = selectFeatures (df, docsPerClass, numDocuments);
+    if (features.isEmpty ())
+    {
+      throw new IllegalStateException ("No features selected; training data too small?");
+    }
+
+    // Pass 2: term frequencies of the selected features, per language.
+    final CompactDsa dsa = DsaBuilder.build (features);
+    final int numFeatures = features.size ();
+    final long [] tf = m_aPool.invoke (new TermFrequencyTask (dsa, numClasses, numFeatures, 0, numDocuments, leafSize ()));
+
+    final float [] nb_ptc = new float [numClasses * numFeatures];
+    final float [] nb_pc = new float [numClasses];
+    for (int c = 0, fi = 0; c < numClasses; c++, fi += numFeatures)
+    {
+      long total = 0;
+      for (int f = fi; f < fi + numFeatures; f++)
+      {
+        total += tf[f];
+      }
+
+      final double norm = Math.log (total + numFeatures);
+      for (int f = fi; f < fi + numFeatures; f++)
+      {
+        nb_ptc[f] = (float) (Math.log (1 + tf[f]) - norm);
+      }
+      nb_pc[c] = (float) Math.log ((double) docsPerClass[c] / numDocuments);
+    }
+
+    return new Model (m_aLangClasses.toArray (new String [numClasses]), nb_ptc, nb_pc, dsa);
+  }
+
+  /**
+   * Write a model in the binary format read by
+   * {@link Model#readExternal(java.io.ObjectInput)}.
+   */
+  public static void write (final Model model, final OutputStream os) throws IOException
+  {
+    final ObjectOutputStream oos = new ObjectOutputStream (os);
+    model.writeExternal (oos);
+    oos.flush ();
+  }
+
+  private int leafSize ()
+  {
+    return Math.max (1, m_aDocuments.size () / (m_aPool.getParallelism () * 4));
+  }
+
+  /*
+   * Pick the top n-grams of each language by information gain of their
+   * (binarized) presence in a document about that language.
+   */
+  private List <byte []> selectFeatures (final LongIntMap df, final int [] docsPerClass, final int numDocuments)
+  {
+    // Total document frequency of each n-gram.
+    final LongIntMap totalDf = new LongIntMap (df.size ());
+    for (int slot = 0; slot < df.m_aKeys.length; slot++)
+    {
+      if (df.m_aKeys[slot] != LongIntMap.EMPTY)
+      {
+        totalDf.add (gramOf (df.m_aKeys[slot]), df.m_aValues[slot]);
+      }
+    }
+
+    final int numClasses = docsPerClass.length;
+    @SuppressWarnings ({ "unchecked", "rawtypes" })
+    final PriorityQueue <ScoredGram> [] top = new PriorityQueue [numClasses];
+    for (int c = 0; c < numClasses; c++)
+    {
+      top[c] = new PriorityQueue<> ();
+    }
+
+    for (int slot = 0; slot < df.m_aKeys.length; slot++)
+    {
+      final long key = df.m_aKeys[slot];
+      if (key == LongIntMap.EMPTY)
+        continue;
+
+      final long gram = gramOf (key);
+      final int gramDf = totalDf.get (gram);
+      if (gramDf < m_nMinDocumentFrequency)
+        continue;
+
+      final int c = (int) (key >>> 35);
+      final double score = informationGain (df.m_aValues[slot], gramDf, docsPerClass[c], numDocuments);
+      final PriorityQueue <ScoredGram> queue = top[c];
+      if (queue.size () < m_nFeaturesPerLanguage)
+      {
+        queue.add (new ScoredGram (gram, score));
+      }
+      else
+        if (queue.peek ().m_dScore < score)
+        {
+          queue.poll ();
+          queue.add (new ScoredGram (gram, score));
+        }
+    }
+
+    // Union of per-language features, in a stable order.
+    final TreeMap <Long, byte []> selected = new TreeMap<> ();
+    for (final PriorityQueue <ScoredGram> queue : top)
+    {
+      for (final ScoredGram g : queue)
+      {
+        selected.computeIfAbsent (Long.valueOf (g.m_nGram), k -> bytesOf (k.longValue ()));
+      }
+    }
+    return new ArrayList<> (selected.values ());
+  }
+
+  /*
+   * Information gain of the presence of an n-gram about a document being in a
+   * given class or not.
+   */
+  static double informationGain (final int docsInClassWithGram,
+                                 final int docsWithGram,
+                                 final int docsInClass,
+                                 final int numDocuments)
+  {
+    final double pGram = (double) docsWithGram / numDocuments;
+    final double hClass = entropy ((double) docsInClass / numDocuments);
+    final double hWithGram = entropy ((double) docsInClassWithGram / docsWithGram);
+    final int docsWithoutGram = numDocuments - docsWithGram;
+    final double hWithoutGram = docsWithoutGram == 0 ? 0
+                                                     : entropy ((double) (docsInClass - docsInClassWithGram) /
+                                                                docsWithoutGram);
+    return hClass - pGram * hWithGram - (1 - pGram) * hWithoutGram;
+  }
+
+  private static double entropy (final double p)
+  {
+    if (p <= 0 || p >= 1)
+      return 0;
+    return -(p * Math.log (p) + (1 - p) * Math.log (1 - p));
+  }
+
+  /*
+   * An n-gram of up to four bytes is packed into a long as [length:3][bytes:32].
+   * Document frequency keys additionally hold the language index above bit 35.
+   */
+  static long gramKey (final byte [] buffer, final int start, final int length)
+  {
+    long key = 0;
+    for (int i = start; i < start + length; i++)
+    {
+      key = (key << 8) | (buffer[i] & 0xff);
+    }
+    return ((long) length << 32) | key;
+  }
+
+  private static long gramOf (final long key)
+  {
+    return key & ((1L << 35) - 1);
+  }
+
+  static byte [] bytesOf (final long gram)
+  {
+    final int length = (int) (gram >>> 32);
+    final byte [] bytes = new byte [length];
+    for (int i = length; --i >= 0;)
+    {
+      bytes[length - 1 - i] = (byte) (gram >>> (i * 8));
+    }
+    return bytes;
+  }
+
+  private static final class ScoredGram implements Comparable <ScoredGram>
+  {
+    final long m_nGram;
+    final double m_dScore;
+
+    ScoredGram (final long gram, final double score)
+    {
+      this.m_nGram = gram;
+      this.m_dScore = score;
+    }
+
+    @Override
+    public int compareTo (final ScoredGram other)
+    {
+      final int cmp = Double.compare (m_dScore, other.m_dScore);
+      return cmp != 0 ? cmp : Long.compare (other.m_nGram, m_nGram);
+    }
+  }
+
+  /*
+   * Counts documents containing each (language, n-gram) pair.
+   */
+  @SuppressWarnings ("serial")
+  private final class DocumentFrequencyTask extends RecursiveTask <LongIntMap>
+  {
+    private final int m_nFrom;
+    private final int m_nTo;
+    private final int m_nLeafSize;
+
+    DocumentFrequencyTask (final int from, final int to, final int leafSize)
+    {
+      this.m_nFrom = from;
+      this.m_nTo = to;
+      this.m_nLeafSize = leafSize;
+    }
+
+    @Override
+    protected LongIntMap compute ()
+    {
+      if (m_nTo - m_nFrom > m_nLeafSize)
+      {
+        final int mid = (m_nFrom + m_nTo) >>> 1;
+        final DocumentFrequencyTask right = new DocumentFrequencyTask (mid, m_nTo, m_nLeafSize);
+        right.fork ();
+        final LongIntMap left = new DocumentFrequencyTask (m_nFrom, mid, m_nLeafSize).compute ();
+        return left.addAll (right.join ());
+      }
+
+      final LongIntMap counts = new LongIntMap (1024);
+      long [] keys = new long [256];
+      for (int d = m_nFrom; d < m_nTo; d++)
+      {
+        final byte [] doc = m_aDocuments.get (d);
+        final long lang = (long) m_aDocumentLangs[d] << 35;
+
+        int n = 0;
+        for (int i = 0; i < doc.length; i++)
+        {
+          for (int len = 1; len <= m_nMaxOrder && i + len <= doc.length; len++)
+          {
+            if (n == keys.length)
+              keys = Arrays.copyOf (keys, n * 2);
+            keys[n++] = lang | gramKey (doc, i, len);
+          }
+        }
+
+        // Count each distinct n-gram once per document.
+        Arrays.sort (keys, 0, n);
+        for (int i = 0; i < n; i++)
+        {
+          if (i == 0 || keys[i] != keys[i - 1])
+            counts.add (keys[i], 1);
+        }
+      }
+      return counts;
+    }
+  }
+
+  /*
+   * Counts occurrences of each feature in each language.
+   */
+  @SuppressWarnings ("serial")
+  private final class TermFrequencyTask extends RecursiveTask <long []>
+  {
+    private final CompactDsa m_aDsa;
+    private final int m_nNumClasses;
+    private final int m_nNumFeatures;
+    private final int m_nFrom;
+    private final int m_nTo;
+    private final int m_nLeafSize;
+
+    TermFrequencyTask (final CompactDsa dsa,
+                       final int numClasses,
+                       final int numFeatures,
+                       final int from,
+                       final int to,
+                       final int leafSize)
+    {
+      this.m_aDsa = dsa;
+      this.m_nNumClasses = numClasses;
+      this.m_nNumFeatures = numFeatures;
+      this.m_nFrom = from;
+      this.m_nTo = to;
+      this.m_nLeafSize = leafSize;
+    }
+
+    @Override
+    protected long [] compute ()
+    {
+      if (m_nTo - m_nFrom > m_nLeafSize)
+      {
+        final int mid = (m_nFrom + m_nTo) >>> 1;
+        final TermFrequencyTask right = new TermFrequencyTask (m_aDsa,
+                                                               m_nNumClasses,
+                                                               m_nNumFeatures,
+                                                               mid,
+                                                               m_nTo,
+                                                               m_nLeafSize);
+        right.fork ();
+        final long [] left = new TermFrequencyTask (m_aDsa,
+                                                    m_nNumClasses,
+                                                    m_nNumFeatures,
+                                                    m_nFrom,
+                                                    mid,
+                                                    m_nLeafSize).compute ();
+        final long [] other = right.join ();
+        for (int i = 0; i < left.length; i++)
+        {
+          left[i] += other[i];
+        }
+        return left;
+      }
+
+      final long [] tf = new long [m_nNumClasses * m_nNumFeatures];
+      final int [] offsets = m_aDsa.m_aOutputOffsets;
+      final int [] outputs = m_aDsa.m_aOutputs;
+      for (int d = m_nFrom; d < m_nTo; d++)
+      {
+        final int base = m_aDocumentLangs[d] * m_nNumFeatures;
+        int state = 0;
+        for (final byte b : m_aDocuments.get (d))
+        {
+          state = m_aDsa.nextState (state, b);
+          for (int k = offsets[state], max = offsets[state + 1]; k < max; k++)
+          {
+            tf[base + outputs[k]]++;
+          }
+        }
+      }
+      return tf;
+    }
+  }
+
+  /*
+   * A minimal open-addressing long to int map for n-gram counting (boxed keys
+   * would take several times more memory).
+   */
+  private static final class LongIntMap
+  {
+    static final long EMPTY = -1L;
+
+    long [] m_aKeys;
+    int [] m_aValues;
+    private int m_nSize;
+
+    LongIntMap (final int expectedSize)
+    {
+      final int slots = Integer.highestOneBit (Math.max (16, expectedSize)) << 2;
+      m_aKeys = new long [slots];
+      Arrays.fill (m_aKeys, EMPTY);
+      m_aValues = new int [slots];
+    }
+
+    int size ()
+    {
+      return m_nSize;
+    }
+
+    private int slotOf (final long key)
+    {
+      final long h = key * 0x9e3779b97f4a7c15L;
+      final int mask = m_aKeys.length - 1;
+      int slot = (int) (h ^ (h >>> 32)) & mask;
+      while (m_aKeys[slot] != EMPTY && m_aKeys[slot] != key)
+      {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    int get (final long key)
+    {
+      final int slot = slotOf (key);
+      return m_aKeys[slot] == key ? m_aValues[slot] : 0;
+    }
+
+    void add (final long key, final int delta)
+    {
+      final int slot = slotOf (key);
+      if (m_aKeys[slot] == key)
+      {
+        m_aValues[slot] += delta;
+        return;
+      }
+
+      m_aKeys[slot] = key;
+      m_aValues[slot] = delta;
+      if (++m_nSize > m_aKeys.length >>> 1)
+      {
+        rehash ();
+      }
+    }
+
+    LongIntMap addAll (final LongIntMap other)
+    {
+      final LongIntMap target = other.m_nSize > m_nSize ? other : this;
+      final LongIntMap source = target == this ? other : this;
+      for (int slot = 0; slot < source.m_aKeys.length; slot++)
+      {
+        if (source.m_aKeys[slot] != EMPTY)
+        {
+          target.add (source.m_aKeys[slot], source.m_aValues[slot]);
+        }
+      }
+      return target;
+    }
+
+    private void rehash ()
+    {
+      final long [] keys = m_aKeys;
+      final int [] values = m_aValues;
+      m_aKeys = new long [keys.length * 2];
+      Arrays.fill (m_aKeys, EMPTY);
+      m_aValues = new int [keys.length * 2];
+      for (int slot = 0; slot < keys.length; slot++)
+      {
+        if (keys[slot] != EMPTY)
+        {
+          final int newSlot = slotOf (keys[slot]);
+          m_aKeys[newSlot] = keys[slot];
+          m_aValues[newSlot] = values[slot];
+        }
+      }
+    }
+  }
+}
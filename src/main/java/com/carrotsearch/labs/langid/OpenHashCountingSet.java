@@ -0,0 +1,133 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.Arrays;
+
+/**
+ * A counting set backed by a small open-addressing (linear probing) hash
+ * table. Unlike {@link DoubleLinkedCountingSet}, its memory does not depend on
+ * the range of keys, only on the number of distinct keys seen since the last
+ * {@link #clear()}, so it is the better choice for short documents and models
+ * with a very large number of features.
+ */
+public final class OpenHashCountingSet extends AbstractCountingSet
+{
+  /** Golden ratio based multiplier to spread keys over slots. */
+  private static final int PHI_C32 = 0x9e3779b9;
+
+  private final int m_nInitialCapacity;
+
+  /**
+   * Hash slots; each holds <code>index + 1</code> of a key in {@link #dense}
+   * or zero for an empty slot.
+   */
+  private int [] m_aSlots;
+  private int m_nMask;
+  private int m_nResizeAt;
+
+  /**
+   * @param initialCapacity
+   *        Expected number of distinct keys. The set grows on demand and
+   *        shrinks back to this capacity on {@link #clear()}.
+   */
+  public OpenHashCountingSet (final int initialCapacity)
+  {
+    if (initialCapacity < 1)
+    {
+      throw new IllegalArgumentException ("Initial capacity must be positive: " + initialCapacity);
+    }
+    this.m_nInitialCapacity = initialCapacity;
+    allocate (initialCapacity);
+  }
+
+  private void allocate (final int capacity)
+  {
+    int slots = Integer.highestOneBit (capacity) << 2;
+    if (slots < 0 || slots > (1 << 30))
+    {
+      slots = 1 << 30;
+    }
+    this.m_aSlots = new int [slots];
+    this.m_nMask = slots - 1;
+    this.m_nResizeAt = slots >>> 1;
+    this.dense = new int [m_nResizeAt];
+    this.counts = new int [m_nResizeAt];
+  }
+
+  @Override
+  public void increment (final int key)
+  {
+    add (key, 1);
+  }
+
+  @Override
+  public void add (final int key, final int count)
+  {
+    final int [] slots = m_aSlots;
+    final int mask = m_nMask;
+    int slot = hash (key) & mask;
+    int index;
+    while ((index = slots[slot]) != 0)
+    {
+      if (dense[index - 1] == key)
+      {
+        counts[index - 1] += count;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (elementsCount == m_nResizeAt)
+    {
+      grow ();
+      add (key, count);
+      return;
+    }
+
+    index = elementsCount++;
+    slots[slot] = index + 1;
+    dense[index] = key;
+    counts[index] = count;
+  }
+
+  private void grow ()
+  {
+    final int [] oldDense = dense;
+    final int [] oldCounts = counts;
+    final int size = elementsCount;
+
+    allocate (m_nResizeAt << 1);
+    System.arraycopy (oldDense, 0, dense, 0, size);
+    System.arraycopy (oldCounts, 0, counts, 0, size);
+    for (int i = 0; i < size; i++)
+    {
+      int slot = hash (dense[i]) & m_nMask;
+      while (m_aSlots[slot] != 0)
+      {
+        slot = (slot + 1) & m_nMask;
+      }
+      m_aSlots[slot] = i + 1;
+    }
+  }
+
+  private static int hash (final int key)
+  {
+    final int h = key * PHI_C32;
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  public void clear ()
+  {
+    if (m_aSlots.length > (Integer.highestOneBit (m_nInitialCapacity) << 2))
+    {
+      // Release memory taken by an unusually large document.
+      allocate (m_nInitialCapacity);
+    }
+    else
+      if (elementsCount > 0)
+      {
+        Arrays.fill (m_aSlots, 0);
+      }
+    this.elementsCount = 0;
+  }
+}
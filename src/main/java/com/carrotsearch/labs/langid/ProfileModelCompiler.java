@@ -0,0 +1,168 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cybozu.labs.langdetect.util.LangProfile;
+import com.cybozu.labs.langdetect.util.NGram;
+
+/**
+ * Compiles language profiles of {@link com.cybozu.labs.langdetect.Detector}
+ * (see <code>GenProfile</code>) into a {@link Model} for {@link LangIdV3}:
+ * <ul>
+ * <li>the features are the UTF-8 bytes of the most probable 1 to
+ * {@link NGram#N_GRAM} character n-grams of each language (see
+ * {@link #setFeaturesPerLanguage(int)}),</li>
+ * <li>the byte state machine of the features is built as for trained
+ * models,</li>
+ * <li>the log-probability of a feature in a language is
+ * <code>log(alpha / BASE_FREQ + p)</code> where <code>p</code> is the
+ * n-gram's frequency in the profile relative to the n-grams of the same
+ * length. This is the factor the Detector multiplies a language's probability
+ * by for each n-gram, so the smoothing is the same (without the random
+ * variation of <code>alpha</code> between trials),</li>
+ * <li>language priors are uniform, as the Detector's without a prior map.</li>
+ * </ul>
+ * The Detector extracts n-grams from normalized text (see
+ * {@link NGram#normalize(char)}), while the state machine matches the bytes of
+ * the input. Text in scripts whose normalization maps many characters to one
+ * (CJK ideographs, kana) or with punctuation between words should be passed
+ * through {@link #normalize(CharSequence)} first. N-grams of all-capital words,
+ * which the Detector skips, are counted.
+ * <p>
+ * <strong>Thread safety:</strong> instances are not thread safe.
+ */
+public final class ProfileModelCompiler
+{
+  /** Default smoothing parameter, the same as the Detector's. */
+  public static final double DEFAULT_ALPHA = 0.5;
+
+  /** The Detector's base frequency of smoothing. */
+  private static final int BASE_FREQ = 10000;
+
+  private double m_dAlpha = DEFAULT_ALPHA;
+  private int m_nFeaturesPerLanguage = 1000;
+
+  /**
+   * Set the smoothing parameter. The default is {@value #DEFAULT_ALPHA}.
+   */
+  public void setAlpha (final double alpha)
+  {
+    if (!(alpha > 0))
+      throw new IllegalArgumentException ("Alpha must be positive: " + alpha);
+    m_dAlpha = alpha;
+  }
+
+  /**
+   * Set the number of n-grams of each language used as features (the model's
+   * features are the union of these). The default is 1000. The state machine
+   * is limited to 65536 states, so large numbers only
+   * work with a few languages.
+   */
+  public void setFeaturesPerLanguage (final int featuresPerLanguage)
+  {
+    if (featuresPerLanguage < 1)
+      throw new IllegalArgumentException ("Features per language must be positive: " + featuresPerLanguage);
+    m_nFeaturesPerLanguage = featuresPerLanguage;
+  }
+
+  /**
+   * Compile profiles into a model.
+   *
+   * @param profiles
+   *        Profiles of at least two languages.
+   * @return the model, its languages are the profiles' names.
+   * @throws IllegalArgumentException
+   *         if there are too few languages or features for the state machine.
+   */
+  public Model compile (final Collection <LangProfile> profiles)
+  {
+    if (profiles.size () < 2)
+      throw new IllegalArgumentException ("A model must contain at least two languages.");
+
+    final List <LangProfile> langs = new ArrayList<> (profiles);
+    final Set <String> names = new HashSet<> ();
+    for (final LangProfile profile : langs)
+      if (!names.add (profile.getName ()))
+        throw new IllegalArgumentException ("Duplicate language: " + profile.getName ());
+
+    // Features: the most probable n-grams of each language.
+    final Map <String, Integer> featureIndex = new LinkedHashMap<> ();
+    for (final LangProfile profile : langs)
+    {
+      final List <String> grams = new ArrayList<> ();
+      for (final String gram : profile.getAllGrams ())
+        if (gram.length () >= 1 && gram.length () <= NGram.N_GRAM && probability (profile, gram) > 0)
+          grams.add (gram);
+      grams.sort ( (a, b) -> {
+        final int cmp = Double.compare (probability (profile, b), probability (profile, a));
+        return cmp != 0 ? cmp : a.compareTo (b);
+      });
+      for (final String gram : grams.subList (0, Math.min (m_nFeaturesPerLanguage, grams.size ())))
+        featureIndex.putIfAbsent (gram, Integer.valueOf (featureIndex.size ()));
+    }
+
+    final List <byte []> features = new ArrayList<> (featureIndex.size ());
+    for (final String gram : featureIndex.keySet ())
+      features.add (gram.getBytes (StandardCharsets.UTF_8));
+    final CompactDsa dsa = DsaBuilder.build (features);
+
+    final int numClasses = langs.size ();
+    final int numFeatures = features.size ();
+    final double smoothing = m_dAlpha / BASE_FREQ;
+    final float [] nb_ptc = new float [numClasses * numFeatures];
+    final float [] nb_pc = new float [numClasses];
+    final String [] langClasses = new String [numClasses];
+    for (int c = 0; c < numClasses; c++)
+    {
+      final LangProfile profile = langs.get (c);
+      langClasses[c] = profile.getName ();
+      nb_pc[c] = (float) -Math.log (numClasses);
+      int f = c * numFeatures;
+      for (final String gram : featureIndex.keySet ())
+        nb_ptc[f++] = (float) Math.log (smoothing + probability (profile, gram));
+    }
+    return new Model (langClasses, nb_ptc, nb_pc, dsa);
+  }
+
+  /*
+   * Probability of an n-gram in a language, as computed by DetectorFactory.
+   */
+  private static double probability (final LangProfile profile, final String gram)
+  {
+    if (profile.getFrequencyObj (gram) == null)
+      return 0;
+    final int words = profile.getNWord (gram.length () - 1);
+    return words == 0 ? 0 : (double) profile.getFrequency (gram) / words;
+  }
+
+  /**
+   * Normalize text the way the Detector does before extracting n-grams:
+   * Vietnamese combining marks are composed, characters are normalized with
+   * {@link NGram#normalize(char)} and runs of spaces are collapsed.
+   *
+   * @param text
+   *        text to normalize
+   * @return normalized text
+   */
+  public static String normalize (final CharSequence text)
+  {
+    final String composed = NGram.normalize_vi (text.toString ());
+    final StringBuilder sb = new StringBuilder (composed.length ());
+    char pre = 0;
+    for (int i = 0; i < composed.length (); i++)
+    {
+      final char c = NGram.normalize (composed.charAt (i));
+      if (c != ' ' || pre != ' ')
+        sb.append (c);
+      pre = c;
+    }
+    return sb.toString ();
+  }
+}
@@ -0,0 +1,218 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a {@link Model} directly from its serialized form (as written by
+ * {@link Model#writeExternal(java.io.ObjectOutput)}) held in a byte buffer,
+ * without going through {@link java.io.ObjectInputStream}. Only the object
+ * stream constructs such a model consists of (arrays of primitives, arrays of
+ * strings and nested arrays) are supported.
+ * <p>
+ * Rows of the feature matrix are copied straight from the buffer, so a model
+ * restricted to a subset of languages never materializes the full matrix. The
+ * buffer may be a memory-mapped file.
+ */
+final class SerializedModelReader
+{
+  private final ByteBuffer m_aBuffer;
+
+  /** Objects with stream handles, in handle order (strings and class names). */
+  private final List <Object> m_aHandles = new ArrayList<> ();
+
+  private SerializedModelReader (final ByteBuffer buffer)
+  {
+    this.m_aBuffer = buffer.duplicate ().order (ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * @param buffer
+   *        Serialized model, from the buffer's position to its limit. The
+   *        buffer itself is not modified.
+   * @param langCodes
+   *        Languages to keep or <code>null</code> to read all of them.
+   */
+  static Model read (final ByteBuffer buffer, final Set <String> langCodes) throws IOException
+  {
+    return new SerializedModelReader (buffer).readModel (langCodes);
+  }
+
+  private Model readModel (final Set <String> langCodes) throws IOException
+  {
+    if (m_aBuffer.getShort () != ObjectStreamConstants.STREAM_MAGIC ||
+        m_aBuffer.getShort () != ObjectStreamConstants.STREAM_VERSION)
+    {
+      throw new StreamCorruptedException ("Not a serialized model.");
+    }
+
+    final String [] sourceClasses = readStringArray ();
+    final int [] kept = Model.selectClasses (sourceClasses, langCodes);
+    final String [] langClasses = new String [kept.length];
+    for (int j = 0; j < kept.length; j++)
+    {
+      langClasses[j] = sourceClasses[kept[j]];
+    }
+
+    // Copy the selected rows of the feature matrix.
+    final int ptcLength = readArrayHeader ("[F");
+    final int numFeatures = ptcLength / sourceClasses.length;
+    final int ptcStart = m_aBuffer.position ();
+    final float [] nb_ptc = new float [kept.length * numFeatures];
+    Model.copyRows (kept.length, numFeatures, j -> {
+      final ByteBuffer row = m_aBuffer.duplicate ().order (ByteOrder.BIG_ENDIAN);
+      row.position (ptcStart + 4 * kept[j] * numFeatures);
+      row.asFloatBuffer ().get (nb_ptc, j * numFeatures, numFeatures);
+    });
+    m_aBuffer.position (ptcStart + 4 * ptcLength);
+
+    final float [] sourcePc = new float [readArrayHeader ("[F")];
+    m_aBuffer.asFloatBuffer ().get (sourcePc);
+    m_aBuffer.position (m_aBuffer.position () + 4 * sourcePc.length);
+    final float [] nb_pc = new float [kept.length];
+    for (int j = 0; j < kept.length; j++)
+    {
+      nb_pc[j] = sourcePc[kept[j]];
+    }
+
+    final short [] dsa = new short [readArrayHeader ("[S")];
+    m_aBuffer.asShortBuffer ().get (dsa);
+    m_aBuffer.position (m_aBuffer.position () + 2 * dsa.length);
+
+    final int [] [] dsaOutput = new int [readArrayHeader ("[[I")] [];
+    for (int i = 0; i < dsaOutput.length; i++)
+    {
+      if (peek () == ObjectStreamConstants.TC_NULL)
+      {
+        m_aBuffer.get ();
+      }
+      else
+      {
+        dsaOutput[i] = new int [readArrayHeader ("[I")];
+        m_aBuffer.asIntBuffer ().get (dsaOutput[i]);
+        m_aBuffer.position (m_aBuffer.position () + 4 * dsaOutput[i].length);
+      }
+    }
+
+    return new Model (langClasses, nb_ptc, nb_pc, CompactDsa.compile (dsa, dsaOutput));
+  }
+
+  private byte peek ()
+  {
+    return m_aBuffer.get (m_aBuffer.position ());
+  }
+
+  private void expect (final byte tag) throws IOException
+  {
+    final byte actual = m_aBuffer.get ();
+    if (actual != tag)
+    {
+      throw new StreamCorruptedException ("Expected tag " +
+                                          Integer.toHexString (tag & 0xff) +
+                                          " but got " +
+                                          Integer.toHexString (actual & 0xff) +
+                                          " at offset " +
+                                          (m_aBuffer.position () - 1));
+    }
+  }
+
+  /*
+   * Read an array's class descriptor and length, leaving the buffer at the
+   * first element.
+   */
+  private int readArrayHeader (final String expectedClass) throws IOException
+  {
+    expect (ObjectStreamConstants.TC_ARRAY);
+    final String className = readClassDescriptor ();
+    if (!expectedClass.equals (className))
+    {
+      throw new StreamCorruptedException ("Expected an array of " + expectedClass + " but got: " + className);
+    }
+    m_aHandles.add (null);
+
+    final int length = m_aBuffer.getInt ();
+    if (length < 0)
+    {
+      throw new StreamCorruptedException ("Negative array length: " + length);
+    }
+    return length;
+  }
+
+  private String readClassDescriptor () throws IOException
+  {
+    final byte tag = m_aBuffer.get ();
+    if (tag == ObjectStreamConstants.TC_REFERENCE)
+    {
+      return (String) readReference ();
+    }
+    if (tag != ObjectStreamConstants.TC_CLASSDESC)
+    {
+      throw new StreamCorruptedException ("Unexpected class descriptor tag: " + Integer.toHexString (tag & 0xff));
+    }
+
+    final String className = readUtf (m_aBuffer.getShort () & 0xffff);
+    m_aHandles.add (className);
+    // serialVersionUID, flags.
+    m_aBuffer.getLong ();
+    m_aBuffer.get ();
+    if (m_aBuffer.getShort () != 0)
+    {
+      throw new StreamCorruptedException ("Unexpected fields in class: " + className);
+    }
+    expect (ObjectStreamConstants.TC_ENDBLOCKDATA);
+    expect (ObjectStreamConstants.TC_NULL);
+    return className;
+  }
+
+  private Object readReference () throws IOException
+  {
+    final int handle = m_aBuffer.getInt () - ObjectStreamConstants.baseWireHandle;
+    if (handle < 0 || handle >= m_aHandles.size ())
+    {
+      throw new StreamCorruptedException ("Invalid handle: " + handle);
+    }
+    return m_aHandles.get (handle);
+  }
+
+  private String [] readStringArray () throws IOException
+  {
+    final String [] strings = new String [readArrayHeader ("[Ljava.lang.String;")];
+    for (int i = 0; i < strings.length; i++)
+    {
+      final byte tag = m_aBuffer.get ();
+      switch (tag)
+      {
+        case ObjectStreamConstants.TC_STRING:
+          strings[i] = readUtf (m_aBuffer.getShort () & 0xffff);
+          m_aHandles.add (strings[i]);
+          break;
+        case ObjectStreamConstants.TC_REFERENCE:
+          strings[i] = (String) readReference ();
+          break;
+        default:
+          throw new StreamCorruptedException ("Unexpected string tag: " + Integer.toHexString (tag & 0xff));
+      }
+    }
+    return strings;
+  }
+
+  /*
+   * Decode a modified UTF-8 string of the given length (in bytes).
+   */
+  private String readUtf (final int length) throws IOException
+  {
+    final byte [] bytes = new byte [length + 2];
+    bytes[0] = (byte) (length >>> 8);
+    bytes[1] = (byte) length;
+    m_aBuffer.get (bytes, 2, length);
+    return new DataInputStream (new ByteArrayInputStream (bytes)).readUTF ();
+  }
+}
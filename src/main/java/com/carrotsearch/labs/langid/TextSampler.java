@@ -0,0 +1,209 @@
+package com.carrotsearch.labs.langid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks evenly spaced windows from long documents, so that only a bounded
+ * amount of text is classified, however long the document. Compared to
+ * classifying a prefix (as {@link com.cybozu.labs.langdetect.Detector} does
+ * with its maximum text length), a language used in a part of the document
+ * only (like navigation boilerplate at its beginning) does not decide the
+ * result.
+ * <p>
+ * The first window starts at the beginning of the document, the last one ends
+ * at its end. Windows of text never split a surrogate pair and are moved to
+ * word boundaries (whitespace) nearby if there are any; windows of UTF-8
+ * bytes never split a multi-byte sequence. Documents not longer than the
+ * budget ({@link #getBudget()}) are used whole.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class TextSampler
+{
+  public static final int DEFAULT_WINDOWS = 8;
+  public static final int DEFAULT_WINDOW_LENGTH = 1024;
+
+  /** How far a window boundary may move to a word boundary. */
+  private static final int MAX_WORD_ALIGNMENT = 32;
+
+  private final int m_nWindows;
+  private final int m_nWindowLength;
+
+  /**
+   * A sampler of {@link #DEFAULT_WINDOWS} windows of
+   * {@link #DEFAULT_WINDOW_LENGTH} characters (or bytes).
+   */
+  public TextSampler ()
+  {
+    this (DEFAULT_WINDOWS, DEFAULT_WINDOW_LENGTH);
+  }
+
+  /**
+   * @param windows
+   *        Number of windows.
+   * @param windowLength
+   *        Length of each window, in characters (or bytes).
+   */
+  public TextSampler (final int windows, final int windowLength)
+  {
+    if (windows < 1)
+      throw new IllegalArgumentException ("Number of windows must be positive: " + windows);
+    if (windowLength < 8)
+      throw new IllegalArgumentException ("Window length must be at least 8: " + windowLength);
+    this.m_nWindows = windows;
+    this.m_nWindowLength = windowLength;
+  }
+
+  /**
+   * @return the maximum number of characters (or bytes) sampled from a
+   *         document.
+   */
+  public int getBudget ()
+  {
+    return m_nWindows * m_nWindowLength;
+  }
+
+  /*
+   * Start of a window (before alignment).
+   */
+  private long windowStart (final int length, final int window)
+  {
+    return m_nWindows == 1 ? (length - m_nWindowLength) / 2
+                           : (long) (length - m_nWindowLength) * window / (m_nWindows - 1);
+  }
+
+  /**
+   * @return windows of the text, or the text itself if it's within the budget.
+   */
+  public List <CharSequence> sample (final CharSequence text)
+  {
+    final int length = text.length ();
+    if (length <= getBudget ())
+      return Collections.singletonList (text);
+
+    final List <CharSequence> windows = new ArrayList<> (m_nWindows);
+    for (int w = 0; w < m_nWindows; w++)
+    {
+      int start = (int) windowStart (length, w);
+      int end = start + m_nWindowLength;
+
+      if (start > 0)
+      {
+        final int limit = Math.min (start + MAX_WORD_ALIGNMENT, end);
+        for (int i = start; i < limit; i++)
+        {
+          if (Character.isWhitespace (text.charAt (i)))
+          {
+            start = i + 1;
+            break;
+          }
+        }
+        if (start < end && Character.isLowSurrogate (text.charAt (start)))
+          start++;
+      }
+      if (end < length)
+      {
+        final int limit = Math.max (end - MAX_WORD_ALIGNMENT, start);
+        for (int i = end - 1; i >= limit; i--)
+        {
+          if (Character.isWhitespace (text.charAt (i)))
+          {
+            end = i;
+            break;
+          }
+        }
+        if (end > start && Character.isHighSurrogate (text.charAt (end - 1)))
+          end--;
+      }
+      windows.add (text.subSequence (start, end));
+    }
+    return windows;
+  }
+
+  /**
+   * @return windows of the UTF-8 bytes between the buffer's position and
+   *         limit (views sharing its content), or a view of all of them if
+   *         they're within the budget. The buffer's position is not changed.
+   */
+  public List <ByteBuffer> sample (final ByteBuffer utf8)
+  {
+    final int length = utf8.remaining ();
+    if (length <= getBudget ())
+      return Collections.singletonList (utf8.slice ());
+
+    final int base = utf8.position ();
+    final List <ByteBuffer> windows = new ArrayList<> (m_nWindows);
+    for (int w = 0; w < m_nWindows; w++)
+    {
+      int start = base + (int) windowStart (length, w);
+      int end = start + m_nWindowLength;
+      // Skip continuation bytes (10xxxxxx) at the start, exclude a sequence
+      // split by the end.
+      while (start < end && isContinuation (utf8.get (start)))
+        start++;
+      while (end < base + length && end > start && isContinuation (utf8.get (end)))
+        end--;
+
+      final ByteBuffer window = utf8.duplicate ();
+      window.limit (end);
+      window.position (start);
+      windows.add (window.slice ());
+    }
+    return windows;
+  }
+
+  private static boolean isContinuation (final byte b)
+  {
+    return (b & 0xc0) == 0x80;
+  }
+
+  /**
+   * Classify the windows of a text together.
+   *
+   * @param classifier
+   *        The classifier (is reset first).
+   * @param text
+   *        The text.
+   * @param normalizeConfidence
+   *        normalize confidence?
+   * @return detected language
+   */
+  public DetectedLanguage classify (final ILangIdClassifier classifier,
+                                    final CharSequence text,
+                                    final boolean normalizeConfidence)
+  {
+    classifier.reset ();
+    for (final CharSequence window : sample (text))
+    {
+      classifier.append (window);
+    }
+    return classifier.classify (normalizeConfidence);
+  }
+
+  /**
+   * Classify the windows of UTF-8 bytes together.
+   *
+   * @param classifier
+   *        The classifier (is reset first).
+   * @param utf8
+   *        The bytes between the buffer's position and limit (the position is
+   *        not changed).
+   * @param normalizeConfidence
+   *        normalize confidence?
+   * @return detected language
+   */
+  public DetectedLanguage classify (final ILangIdClassifier classifier,
+                                    final ByteBuffer utf8,
+                                    final boolean normalizeConfidence)
+  {
+    classifier.reset ();
+    for (final ByteBuffer window : sample (utf8))
+    {
+      classifier.append (window);
+    }
+    return classifier.classify (normalizeConfidence);
+  }
+}
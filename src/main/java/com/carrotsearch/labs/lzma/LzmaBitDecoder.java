@@ -11,14 +11,27 @@ final class LzmaBitDecoder
   private static final int kBitModelTotal = (1 << kNumBitModelTotalBits);
   private static final int kNumMoveBits = 5;
 
+  /** Size of the input buffer, input is read from the stream in bulk. */
+  private static final int kBufferSize = 1 << 16;
+
   private int m_nRange;
   private int m_nCode;
 
   private InputStream m_aIS;
 
+  private final byte [] m_aBuffer = new byte [kBufferSize];
+  private int m_nBufferPos;
+  private int m_nBufferLimit;
+
+  /**
+   * Set the compressed input. The stream is read in bulk, so bytes past the
+   * end of the compressed data may be consumed from it.
+   */
   public final void setStream (final InputStream stream)
   {
     m_aIS = stream;
+    m_nBufferPos = 0;
+    m_nBufferLimit = 0;
   }
 
   public final void releaseStream ()
@@ -31,7 +44,31 @@ final class LzmaBitDecoder
     m_nCode = 0;
     m_nRange = -1;
     for (int i = 0; i < 5; i++)
-      m_nCode = (m_nCode << 8) | m_aIS.read ();
+      m_nCode = (m_nCode << 8) | readByte ();
+  }
+
+  /*
+   * Next input byte or -1 at the end of the stream (same as
+   * InputStream.read()).
+   */
+  private int readByte () throws IOException
+  {
+    if (m_nBufferPos == m_nBufferLimit && !fill ())
+      return -1;
+    return m_aBuffer[m_nBufferPos++] & 0xFF;
+  }
+
+  private boolean fill () throws IOException
+  {
+    int read;
+    do
+      read = m_aIS.read (m_aBuffer, 0, m_aBuffer.length);
+    while (read == 0);
+    if (read < 0)
+      return false;
+    m_nBufferPos = 0;
+    m_nBufferLimit = read;
+    return true;
   }
 
   public final int decodeDirectBits (final int numTotalBits) throws IOException
@@ -46,7 +83,7 @@ final class LzmaBitDecoder
 
       if ((m_nRange & kTopMask) == 0)
       {
-        m_nCode = (m_nCode << 8) | m_aIS.read ();
+        m_nCode = (m_nCode << 8) | readByte ();
         m_nRange <<= 8;
       }
     }
@@ -63,7 +100,7 @@ final class LzmaBitDecoder
       probs[index] = (short) (prob + ((kBitModelTotal - prob) >>> kNumMoveBits));
       if ((m_nRange & kTopMask) == 0)
       {
-        m_nCode = (m_nCode << 8) | m_aIS.read ();
+        m_nCode = (m_nCode << 8) | readByte ();
         m_nRange <<= 8;
       }
       return 0;
@@ -74,7 +111,7 @@ final class LzmaBitDecoder
     probs[index] = (short) (prob - ((prob) >>> kNumMoveBits));
     if ((m_nRange & kTopMask) == 0)
     {
-      m_nCode = (m_nCode << 8) | m_aIS.read ();
+      m_nCode = (m_nCode << 8) | readByte ();
       m_nRange <<= 8;
     }
     return 1;
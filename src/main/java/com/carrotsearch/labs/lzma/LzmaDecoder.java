@@ -1,6 +1,7 @@
 package com.carrotsearch.labs.lzma;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.Nonnull;
 
@@ -203,6 +204,29 @@ public class LzmaDecoder
   {
     m_RangeDecoder.setStream (inStream);
     m_OutWindow.setStream (outStream);
+    return _code (outSize);
+  }
+
+  /**
+   * Decode exactly <code>target.length</code> bytes (the stream size from the
+   * header) straight into the target array, without an intermediate window or
+   * output stream (the dictionary-sized window is not allocated). The input
+   * stream is read in bulk, so bytes past the end of the compressed data may
+   * be consumed.
+   *
+   * @return <code>false</code> if the compressed data is corrupted.
+   */
+  public boolean code (final InputStream inStream, final byte [] target) throws IOException
+  {
+    if (m_DictionarySizeCheck < 0)
+      throw new IllegalStateException ("Decoder properties not set.");
+    m_RangeDecoder.setStream (inStream);
+    m_OutWindow.setTarget (target);
+    return _code (target.length);
+  }
+
+  private boolean _code (final long outSize) throws IOException
+  {
     _init ();
 
     int state = LzmaBase.stateInit ();
@@ -297,7 +321,7 @@ public class LzmaDecoder
           else
             rep0 = posSlot;
         }
-        if (rep0 >= nowPos64 || rep0 >= m_DictionarySizeCheck)
+        if (rep0 >= nowPos64 || rep0 >= m_DictionarySizeCheck || len > m_OutWindow.remaining ())
         {
           // m_OutWindow.Flush();
           return false;
@@ -7,17 +7,29 @@ import java.io.OutputStream;
 
 final class LzmaOutWindow
 {
+  /** The buffer bytes are decoded to: the sliding window or the target. */
   private byte [] m_aBuffer;
   private int m_nPos;
   private int m_nWindowSize = 0;
   private int m_nStreamPos;
   private OutputStream m_aOS;
 
+  /**
+   * The sliding window, allocated on first use for decoding to a stream (a
+   * target array needs no window).
+   */
+  private byte [] m_aWindow;
+  private int m_nDictionaryWindowSize;
+
+  /**
+   * Set the size of the sliding window, which is allocated by
+   * {@link #setStream(OutputStream)}.
+   */
   public void create (final int windowSize)
   {
-    if (m_aBuffer == null || m_nWindowSize != windowSize)
-      m_aBuffer = new byte [windowSize];
-    m_nWindowSize = windowSize;
+    if (m_nDictionaryWindowSize != windowSize)
+      m_aWindow = null;
+    m_nDictionaryWindowSize = windowSize;
     m_nPos = 0;
     m_nStreamPos = 0;
   }
@@ -25,9 +37,34 @@ final class LzmaOutWindow
   public void setStream (final OutputStream stream) throws IOException
   {
     releaseStream ();
+    if (m_aWindow == null)
+      m_aWindow = new byte [m_nDictionaryWindowSize];
+    m_aBuffer = m_aWindow;
+    m_nWindowSize = m_nDictionaryWindowSize;
     m_aOS = stream;
   }
 
+  /**
+   * Decode directly into the target array instead of a sliding window flushed
+   * to a stream. The target must be large enough for the entire output, so the
+   * window never wraps and there is nothing to flush or copy.
+   */
+  public void setTarget (final byte [] target) throws IOException
+  {
+    releaseStream ();
+    m_aBuffer = target;
+    m_nWindowSize = target.length;
+  }
+
+  /**
+   * @return the number of bytes that can be decoded before the target array
+   *         (if any) is full.
+   */
+  public int remaining ()
+  {
+    return m_aOS == null ? m_nWindowSize - m_nPos : Integer.MAX_VALUE;
+  }
+
   public void releaseStream () throws IOException
   {
     flush ();
@@ -46,7 +83,7 @@ final class LzmaOutWindow
   public void flush () throws IOException
   {
     final int size = m_nPos - m_nStreamPos;
-    if (size == 0)
+    if (size == 0 || m_aOS == null)
       return;
     m_aOS.write (m_aBuffer, m_nStreamPos, size);
     if (m_nPos >= m_nWindowSize)
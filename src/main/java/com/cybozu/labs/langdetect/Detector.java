@@ -3,16 +3,30 @@ package com.cybozu.labs.langdetect;
 import java.io.IOException;
 import java.io.Reader;
 import java.lang.Character.UnicodeBlock;
+import java.lang.Character.UnicodeScript;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import com.carrotsearch.labs.langid.BudgetedResult;
+import com.carrotsearch.labs.langid.DetectionBudget;
+import com.carrotsearch.labs.langid.IDetectionMetrics;
+import com.carrotsearch.labs.langid.TextSampler;
+import com.cybozu.labs.langdetect.util.LanguageScripts;
 import com.cybozu.labs.langdetect.util.NGram;
+import com.cybozu.labs.langdetect.util.NGramAutomaton;
 
 /**
  * {@link Detector} class is to detect language from specified text. Its
@@ -27,8 +41,9 @@ import com.cybozu.labs.langdetect.util.NGram;
  * methods returns a list of multiple languages and their probabilities.
  * <p>
  * The detector has some parameters for language detection. See
- * {@link #setAlpha(double)}, {@link #setMaxTextLength(int)} and
- * {@link #setPriorMap(Map)}.
+ * {@link #setAlpha(double)}, {@link #setMaxTextLength(int)},
+ * {@link #setPriorMap(Map)}, {@link #setScriptRouting(boolean)} and
+ * {@link #setSinglePrecision(boolean)}.
  *
  * <pre>
  * import java.util.ArrayList;
@@ -74,13 +89,15 @@ public class Detector
   private static final double PROB_THRESHOLD = 0.1;
   private static final double CONV_THRESHOLD = 0.99999;
   private static final int BASE_FREQ = 10000;
-  private static final String UNKNOWN_LANG = "unknown";
+  static final String UNKNOWN_LANG = "unknown";
 
   private static final Pattern URL_REGEX = Pattern.compile ("https?://[-_.?&~;+=/#0-9A-Za-z]{1,2076}");
   private static final Pattern MAIL_REGEX = Pattern.compile ("[-_.0-9A-Za-z]{1,64}@[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}");
 
-  private final Map <String, double []> m_aWordLangProbMap;
-  private final List <String> m_aLanglist;
+  private final DetectorFactory m_aFactory;
+  private final Map <String, LangProbVector> m_aWordLangProbMap;
+  /** Languages to detect, a snapshot taken when detection starts. */
+  private List <String> m_aLanglist;
 
   private StringBuilder m_aText = new StringBuilder ();
   private double [] m_aLangProb;
@@ -88,9 +105,48 @@ public class Detector
   private double m_dAlpha = ALPHA_DEFAULT;
   private int m_nNTrial = 7;
   private int m_nMaxTextLength = 10000;
+  private Map <String, Double> m_aPriorMapSource;
   private double [] m_aPriorMap;
   private boolean m_bVerbose = false;
+  private boolean m_bScriptRouting = false;
+  private boolean m_bSinglePrecision = false;
+  private boolean m_bNGramAutomaton = false;
+  /** Indexes of languages scored for the current text. */
+  private int [] m_aCandidates;
   private final Long m_aSeed;
+  private final IDetectionMetrics m_aMetrics;
+  /** Characters of the text processed by the last detection. */
+  private int m_nProcessedChars;
+  /** Number of trials run by the last detection. */
+  private int m_nTrialsRun;
+  /** Number of n-grams sampled by the trials of the last detection. */
+  private final AtomicInteger m_aIterations = new AtomicInteger ();
+  /** Runs the trials concurrently if not null. */
+  private ForkJoinPool m_aTrialPool;
+  /** Budget of the current detection. */
+  private DetectionBudget m_aBudget = DetectionBudget.UNLIMITED;
+  /** Whether the budget ran out in the last detection. */
+  private volatile boolean m_bPartial;
+
+  // Incremental mode: state of the text processed so far.
+  private boolean m_bIncremental = false;
+  /** Number of characters of the text counted in the Latin statistics. */
+  private int m_nCountedLength;
+  private int m_nLatinCount;
+  private int m_nNonLatinCount;
+  /** Whether Latin letters are removed from the text (see _cleaningText). */
+  private boolean m_bWithoutLatin;
+  /** Scripts of the cleaned text up to m_nScannedLength. */
+  private final Set <UnicodeScript> m_aScripts = EnumSet.noneOf (UnicodeScript.class);
+  private int m_nScannedLength;
+  /** N-grams of the cleaned text up to m_nExtractedLength. */
+  private final List <String> m_aNGrams = new ArrayList<> ();
+  private NGram m_aNGram = new NGram ();
+  /** Replaces m_aNGram with the n-gram automaton (created on extraction). */
+  private NGramAutomaton.Matcher m_aMatcher;
+  private int m_nExtractedLength;
+  /** Number of languages when m_aNGrams was extracted. */
+  private int m_nExtractedLangCount;
 
   /**
    * Constructor. Detector instance can be constructed via
@@ -101,9 +157,11 @@ public class Detector
    */
   public Detector (@Nonnull final DetectorFactory aFactory)
   {
+    m_aFactory = aFactory;
     m_aWordLangProbMap = aFactory.getWordLangProbMap ();
     m_aLanglist = DetectorFactory.getLangList ();
     m_aSeed = aFactory.getSeed ();
+    m_aMetrics = aFactory.getMetrics ();
   }
 
   /**
@@ -126,6 +184,85 @@ public class Detector
     m_dAlpha = alpha;
   }
 
+  /**
+   * Restrict candidate languages to those written in the scripts of the text
+   * (Han, Hangul, Cyrillic, Arabic, ...). If a single language uses the
+   * script(s) of the text (like Hangul for Korean), it is returned without
+   * scoring. This is the first level of a two-level classification: only the
+   * candidates are scored. Scripts of languages without a built-in script are
+   * derived from their profiles, languages whose profiles have no letters are
+   * always candidates. Disabled by default.
+   *
+   * @param scriptRouting
+   *        <code>true</code> to enable
+   */
+  public void setScriptRouting (final boolean scriptRouting)
+  {
+    m_bScriptRouting = scriptRouting;
+  }
+
+  /**
+   * Compute language probabilities of each trial in single (float) instead of
+   * double precision. Probabilities differ slightly, the ranking of languages
+   * is expected to be the same (see the --paritytest command). Disabled by
+   * default.
+   *
+   * @param singlePrecision
+   *        <code>true</code> to enable
+   */
+  public void setSinglePrecision (final boolean singlePrecision)
+  {
+    m_bSinglePrecision = singlePrecision;
+  }
+
+  /**
+   * Find the n-grams of the text with an automaton of the n-grams of the
+   * profiles (one transition per character, see {@link NGramAutomaton})
+   * instead of building each candidate n-gram and looking it up. The n-grams
+   * and results are the same. The automaton is built on first use after
+   * profiles are loaded. Disabled by default.
+   *
+   * @param ngramAutomaton
+   *        <code>true</code> to enable
+   */
+  public void setNGramAutomaton (final boolean ngramAutomaton)
+  {
+    m_bNGramAutomaton = ngramAutomaton;
+    _resetExtraction ();
+  }
+
+  /**
+   * Run the trials of a detection concurrently on a fork-join pool, which
+   * lowers the latency of detecting long texts. Each trial gets its own random
+   * generator, seeded from the seed of the factory (if any) and the trial's
+   * number, so results are deterministic under
+   * {@link DetectorFactory#setSeed(long)}, but they differ from serial trials.
+   * Disabled by default.
+   *
+   * @param trialPool
+   *        the pool (like {@link ForkJoinPool#commonPool()}),
+   *        <code>null</code> to run the trials serially
+   */
+  public void setTrialPool (@Nullable final ForkJoinPool trialPool)
+  {
+    m_aTrialPool = trialPool;
+  }
+
+  /**
+   * Keep the state of the text processed by a detection, so that after
+   * appending more text the next detection only processes the new text (e.g.
+   * detect a conversation after each message). Results are the same as
+   * detecting the whole text at once. Disabled by default.
+   *
+   * @param incremental
+   *        <code>true</code> to enable
+   */
+  public void setIncremental (final boolean incremental)
+  {
+    m_bIncremental = incremental;
+    _resetIncremental ();
+  }
+
   /**
    * Set number of trials variable
    *
@@ -147,6 +284,13 @@ public class Detector
    */
   public void setPriorMap (final Map <String, Double> priorMap) throws LangDetectException
   {
+    m_aPriorMapSource = priorMap;
+    _computePriorMap ();
+  }
+
+  private void _computePriorMap () throws LangDetectException
+  {
+    final Map <String, Double> priorMap = m_aPriorMapSource;
     m_aPriorMap = new double [m_aLanglist.size ()];
     double sump = 0;
     for (int i = 0; i < m_aPriorMap.length; ++i)
@@ -224,6 +368,101 @@ public class Detector
         m_aText.append (c);
       pre = c;
     }
+    // Detect again with the new text.
+    m_aLangProb = null;
+  }
+
+  /**
+   * Append windows of a long text picked by a sampler instead of its prefix
+   * (see {@link TextSampler}), so that the detection is not decided by the
+   * beginning of the text only. The windows are appended as with
+   * {@link #append(String)}, separated by spaces.
+   *
+   * @param sText
+   *        the target text
+   * @param aSampler
+   *        the sampler, its budget should not exceed the maximum text length
+   *        (see {@link #setMaxTextLength(int)})
+   */
+  public void append (final String sText, @Nonnull final TextSampler aSampler)
+  {
+    for (final CharSequence window : aSampler.sample (sText))
+    {
+      append (window.toString ());
+      append (" ");
+    }
+  }
+
+  /**
+   * Discard the target text and the detection result, so that the detector can
+   * be reused for another text with the same parameters. Languages added to
+   * the factory since are picked up by the next detection.
+   */
+  public void reset ()
+  {
+    m_aText.setLength (0);
+    m_aLangProb = null;
+    m_aCandidates = null;
+    _resetIncremental ();
+  }
+
+  private void _resetIncremental ()
+  {
+    m_nCountedLength = m_nLatinCount = m_nNonLatinCount = 0;
+    m_bWithoutLatin = false;
+    _resetExtraction ();
+  }
+
+  private void _resetExtraction ()
+  {
+    m_aScripts.clear ();
+    m_nScannedLength = 0;
+    m_aNGrams.clear ();
+    m_aNGram = new NGram ();
+    m_aMatcher = null;
+    m_nExtractedLength = 0;
+    m_nExtractedLangCount = 0;
+  }
+
+  private static boolean _isLatin (final char c)
+  {
+    return c <= 'z' && c >= 'A';
+  }
+
+  /**
+   * Incremental version of {@link #_cleaningText()}: update the Latin
+   * statistics and the scripts with the text appended since the last
+   * detection. The text itself is kept, Latin letters are skipped on
+   * extraction instead. If the appended text changes the decision to remove
+   * Latin letters, the whole text is processed again.
+   */
+  private void _scanIncrementally ()
+  {
+    for (; m_nCountedLength < m_aText.length (); ++m_nCountedLength)
+    {
+      final char c = m_aText.charAt (m_nCountedLength);
+      if (_isLatin (c))
+        ++m_nLatinCount;
+      else
+        if (c >= '\u0300' && UnicodeBlock.of (c) != UnicodeBlock.LATIN_EXTENDED_ADDITIONAL)
+          ++m_nNonLatinCount;
+    }
+    final boolean withoutLatin = m_nLatinCount * 2 < m_nNonLatinCount;
+    if (withoutLatin != m_bWithoutLatin)
+    {
+      m_bWithoutLatin = withoutLatin;
+      _resetExtraction ();
+    }
+
+    for (; m_nScannedLength < m_aText.length (); ++m_nScannedLength)
+    {
+      final char c = m_aText.charAt (m_nScannedLength);
+      if (m_bWithoutLatin && _isLatin (c))
+        continue;
+      final UnicodeScript script = LanguageScripts.scriptOf (c);
+      if (script != null)
+        m_aScripts.add (script);
+    }
   }
 
   /**
@@ -288,55 +527,327 @@ public class Detector
    */
   public List <Language> getProbabilities () throws LangDetectException
   {
-    if (m_aLangProb == null)
-      _detectBlock ();
+    if (m_aLangProb == null || m_bPartial)
+    {
+      m_bPartial = false;
+      final long start = m_aMetrics != IDetectionMetrics.NONE ? System.nanoTime () : 0;
+      final int ngrams = _detectBlock ();
+      if (m_aMetrics != IDetectionMetrics.NONE)
+        m_aMetrics.onDetect (System.nanoTime () - start,
+                             m_nProcessedChars,
+                             ngrams,
+                             m_nTrialsRun,
+                             m_aIterations.get ());
+    }
 
     final List <Language> list = _sortProbability (m_aLangProb);
     return list;
   }
 
   /**
+   * Same as {@link #detect()}, but bounded by a budget.
+   *
+   * @param budget
+   *        limit of time and input characters
+   * @return detected language name which has most probability, partial if the
+   *         budget ran out
    * @throws LangDetectException
+   *         code = ErrorCode.CantDetectError : Can't detect because of no valid
+   *         features in the text processed
+   * @see #getProbabilities(DetectionBudget)
+   */
+  public BudgetedResult <String> detect (@Nonnull final DetectionBudget budget) throws LangDetectException
+  {
+    final BudgetedResult <List <Language>> probabilities = getProbabilities (budget);
+    final List <Language> list = probabilities.getResult ();
+    return new BudgetedResult<> (list.size () > 0 ? list.get (0).getLanguage () : UNKNOWN_LANG,
+                                 probabilities.isPartial ());
+  }
+
+  /**
+   * Same as {@link #getProbabilities()}, but bounded by a budget. Extraction of
+   * n-grams stops after the budget's number of characters or when its time
+   * runs out; so do the trials (a trial stops at its next convergence check,
+   * at least one trial is run). The result is then computed from the n-grams
+   * extracted and the trials run so far and is marked partial. A partial
+   * result is not kept, the next detection starts over.
+   *
+   * @param budget
+   *        limit of time and input characters
+   * @return possible languages list, partial if the budget ran out
+   * @throws LangDetectException
+   *         code = ErrorCode.CantDetectError : Can't detect because of no valid
+   *         features in the text processed
+   */
+  public BudgetedResult <List <Language>> getProbabilities (@Nonnull final DetectionBudget budget) throws LangDetectException
+  {
+    if (m_aLangProb != null && !m_bPartial)
+      return new BudgetedResult<> (_sortProbability (m_aLangProb), false);
+
+    m_aBudget = budget;
+    try
+    {
+      m_aLangProb = null;
+      final List <Language> list = getProbabilities ();
+      return new BudgetedResult<> (list, m_bPartial);
+    }
+    finally
+    {
+      m_aBudget = DetectionBudget.UNLIMITED;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the time budget ran out (the result is
+   *         partial then)
    */
-  private void _detectBlock () throws LangDetectException
+  private boolean _isExpired ()
   {
-    _cleaningText ();
-    final List <String> ngrams = _extractNGrams ();
+    if (m_aBudget.isExpired ())
+    {
+      m_bPartial = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return number of characters of the text to extract n-grams from (the
+   *         result is partial if less than all)
+   */
+  private int _extractionEnd ()
+  {
+    if (m_aText.length () > m_aBudget.getMaxChars ())
+    {
+      m_bPartial = true;
+      return (int) m_aBudget.getMaxChars ();
+    }
+    return m_aText.length ();
+  }
+
+  /**
+   * @return number of n-grams extracted (0 if the language was determined by
+   *         the script)
+   * @throws LangDetectException
+   */
+  private int _detectBlock () throws LangDetectException
+  {
+    // Load profiles for the scripts of the text (if registered lazily).
+    if (m_bIncremental)
+    {
+      _scanIncrementally ();
+      m_aLanglist = m_aFactory.loadProfilesFor (m_aScripts);
+    }
+    else
+    {
+      _cleaningText ();
+      m_aLanglist = m_aFactory.loadProfilesFor (m_aText);
+    }
+    if (m_aPriorMapSource != null && m_aPriorMap.length != m_aLanglist.size ())
+      _computePriorMap ();
+    m_aCandidates = _selectCandidates ();
+    m_nTrialsRun = 0;
+    if (m_aCandidates.length == 1)
+    {
+      // The script identifies the language.
+      m_nProcessedChars = m_aText.length ();
+      m_aLangProb = new double [m_aLanglist.size ()];
+      m_aLangProb[m_aCandidates[0]] = 1.0;
+      return 0;
+    }
+    final List <String> ngrams = m_bIncremental ? _extractNGramsIncrementally () : _extractNGrams ();
     if (ngrams.size () == 0)
       throw new LangDetectException (ELangDetectErrorCode.CantDetectError, "no features in text");
 
     m_aLangProb = new double [m_aLanglist.size ()];
+    m_aIterations.set (0);
+
+    if (m_aTrialPool != null && m_nNTrial > 1)
+    {
+      _runTrialsConcurrently (ngrams);
+      m_nTrialsRun = m_nNTrial;
+      return ngrams.size ();
+    }
 
     final Random rand = new Random ();
     if (m_aSeed != null)
       rand.setSeed (m_aSeed.longValue ());
-    for (int t = 0; t < m_nNTrial; ++t)
+    int trials = 0;
+    while (trials < m_nNTrial && (trials == 0 || !_isExpired ()))
+    {
+      _addTrial (_runTrial (ngrams, rand));
+      trials++;
+    }
+    m_nTrialsRun = trials;
+    if (trials < m_nNTrial)
+    {
+      // Average of the trials run.
+      for (int j = 0; j < m_aLangProb.length; ++j)
+        m_aLangProb[j] *= (double) m_nNTrial / trials;
+    }
+    return ngrams.size ();
+  }
+
+  /**
+   * Run the trials on {@link #m_aTrialPool}, the first one in the calling
+   * thread, and average them in trial order.
+   */
+  private void _runTrialsConcurrently (final List <String> ngrams)
+  {
+    final long seed = m_aSeed != null ? m_aSeed.longValue () : new Random ().nextLong ();
+    final List <ForkJoinTask <double []>> tasks = new ArrayList<> (m_nNTrial - 1);
+    for (int t = 1; t < m_nNTrial; ++t)
     {
-      final double [] prob = _initProbability ();
-      final double alpha = m_dAlpha + rand.nextGaussian () * ALPHA_WIDTH;
+      final Random rand = new Random (_trialSeed (seed, t));
+      tasks.add (m_aTrialPool.submit ( () -> _runTrial (ngrams, rand)));
+    }
+    _addTrial (_runTrial (ngrams, new Random (_trialSeed (seed, 0))));
+    for (final ForkJoinTask <double []> task : tasks)
+      _addTrial (task.join ());
+  }
+
+  /**
+   * @return a seed of a trial's random generator, statistically independent
+   *         of the other trials' (SplitMix64 of the seed and the trial number)
+   */
+  private static long _trialSeed (final long seed, final int trial)
+  {
+    long z = seed + (trial + 1) * 0x9e3779b97f4a7c15L;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
 
-      for (int i = 0;; ++i)
+  /**
+   * Run a single trial with a random smoothing parameter.
+   *
+   * @return language probabilities
+   */
+  private double [] _runTrial (final List <String> ngrams, final Random rand)
+  {
+    final double alpha = m_dAlpha + rand.nextGaussian () * ALPHA_WIDTH;
+    return m_bSinglePrecision ? _runTrialSingle (ngrams, rand, alpha) : _runTrial (ngrams, rand, alpha);
+  }
+
+  private void _addTrial (final double [] prob)
+  {
+    for (int j = 0; j < m_aLangProb.length; ++j)
+      m_aLangProb[j] += prob[j] / m_nNTrial;
+    if (m_bVerbose)
+      System.out.println ("==> " + _sortProbability (prob));
+  }
+
+  /**
+   * Run a single trial: update probabilities with randomly sampled n-grams
+   * until they converge.
+   *
+   * @return language probabilities
+   */
+  private double [] _runTrial (final List <String> ngrams, final Random rand, final double alpha)
+  {
+    final double [] prob = _initProbability ();
+    for (int i = 0;; ++i)
+    {
+      final int r = rand.nextInt (ngrams.size ());
+      _updateLangProb (prob, ngrams.get (r), alpha);
+      if (i % 5 == 0)
       {
-        final int r = rand.nextInt (ngrams.size ());
-        _updateLangProb (prob, ngrams.get (r), alpha);
-        if (i % 5 == 0)
+        if (_normalizeProb (prob) > CONV_THRESHOLD || i >= ITERATION_LIMIT || _isExpired ())
         {
-          if (_normalizeProb (prob) > CONV_THRESHOLD || i >= ITERATION_LIMIT)
-            break;
-          if (m_bVerbose)
-            System.out.println ("> " + _sortProbability (prob));
+          m_aIterations.addAndGet (i + 1);
+          break;
         }
+        if (m_bVerbose)
+          System.out.println ("> " + _sortProbability (prob));
+      }
+    }
+    return prob;
+  }
+
+  /**
+   * Same as {@link #_runTrial(List, Random, double)} but computed in single
+   * precision.
+   *
+   * @return language probabilities
+   */
+  private double [] _runTrialSingle (final List <String> ngrams, final Random rand, final double alpha)
+  {
+    final double [] init = _initProbability ();
+    final float [] prob = new float [init.length];
+    for (int i = 0; i < prob.length; ++i)
+      prob[i] = (float) init[i];
+
+    final float invWeight = (float) (BASE_FREQ / alpha);
+    for (int i = 0;; ++i)
+    {
+      final int r = rand.nextInt (ngrams.size ());
+      _updateLangProbSingle (prob, ngrams.get (r), invWeight);
+      if (i % 5 == 0)
+      {
+        if (_normalizeProbSingle (prob) > CONV_THRESHOLD || i >= ITERATION_LIMIT || _isExpired ())
+        {
+          m_aIterations.addAndGet (i + 1);
+          break;
+        }
+        if (m_bVerbose)
+          System.out.println ("> " + _sortProbability (_toDouble (prob)));
       }
-      for (int j = 0; j < m_aLangProb.length; ++j)
-        m_aLangProb[j] += prob[j] / m_nNTrial;
-      if (m_bVerbose)
-        System.out.println ("==> " + _sortProbability (prob));
     }
+    return _toDouble (prob);
+  }
+
+  private static double [] _toDouble (final float [] prob)
+  {
+    final double [] result = new double [prob.length];
+    for (int i = 0; i < prob.length; ++i)
+      result[i] = prob[i];
+    return result;
+  }
+
+  /**
+   * Select languages to score: all of them or, with script routing, those
+   * written in the scripts of the text.
+   *
+   * @return indexes of candidate languages
+   */
+  private int [] _selectCandidates ()
+  {
+    final int [] all = new int [m_aLanglist.size ()];
+    for (int i = 0; i < all.length; ++i)
+      all[i] = i;
+    if (!m_bScriptRouting)
+      return all;
+
+    final Set <UnicodeScript> scripts = m_bIncremental ? m_aScripts : LanguageScripts.scriptsOf (m_aText);
+    final int [] candidates = new int [all.length];
+    int count = 0;
+    boolean bUnknown = false;
+    for (int i = 0; i < all.length; ++i)
+    {
+      final Set <UnicodeScript> langScripts = m_aFactory.getScripts (m_aLanglist.get (i));
+      if (langScripts == null)
+        bUnknown = true;
+      else
+        if (Collections.disjoint (langScripts, scripts))
+          continue;
+      if (m_aPriorMap != null && m_aPriorMap[i] == 0)
+        continue;
+      candidates[count++] = i;
+    }
+
+    // No language for these scripts (or only languages of unknown script):
+    // score all languages as usual.
+    if (count == 0 || (count == 1 && bUnknown))
+      return all;
+    final int [] result = new int [count];
+    System.arraycopy (candidates, 0, result, 0, count);
+    return result;
   }
 
   /**
    * Initialize the map of language probabilities. If there is the specified
-   * prior map, use it as initial map.
+   * prior map, use it as initial map. Only candidate languages get a non-zero
+   * probability.
    *
    * @return initialized map of language probabilities
    */
@@ -345,13 +856,13 @@ public class Detector
     final double [] prob = new double [m_aLanglist.size ()];
     if (m_aPriorMap != null)
     {
-      for (int i = 0; i < prob.length; ++i)
+      for (final int i : m_aCandidates)
         prob[i] = m_aPriorMap[i];
     }
     else
     {
-      for (int i = 0; i < prob.length; ++i)
-        prob[i] = 1.0 / m_aLanglist.size ();
+      for (final int i : m_aCandidates)
+        prob[i] = 1.0 / m_aCandidates.length;
     }
     return prob;
   }
@@ -363,10 +874,16 @@ public class Detector
    */
   private List <String> _extractNGrams ()
   {
+    if (m_bNGramAutomaton)
+      return _extractNGramsWithAutomaton ();
     final List <String> list = new ArrayList<> ();
     final NGram ngram = new NGram ();
-    for (int i = 0; i < m_aText.length (); ++i)
+    final int end = _extractionEnd ();
+    int i = 0;
+    for (; i < end; ++i)
     {
+      if ((i & 0xff) == 0xff && _isExpired ())
+        break;
       ngram.addChar (m_aText.charAt (i));
       for (int n = 1; n <= NGram.N_GRAM; ++n)
       {
@@ -375,40 +892,154 @@ public class Detector
           list.add (w);
       }
     }
+    m_nProcessedChars = i;
     return list;
   }
 
+  /**
+   * Same as {@link #_extractNGrams()} with the n-gram automaton.
+   *
+   * @return n-grams list
+   */
+  private List <String> _extractNGramsWithAutomaton ()
+  {
+    final List <String> list = new ArrayList<> ();
+    final NGramAutomaton.Matcher matcher = m_aFactory.getNGramAutomaton ().matcher ();
+    final int end = _extractionEnd ();
+    int i = 0;
+    for (; i < end; ++i)
+    {
+      if ((i & 0xff) == 0xff && _isExpired ())
+        break;
+      matcher.addChar (m_aText.charAt (i));
+      for (int n = 0; n < matcher.size (); ++n)
+        list.add (matcher.get (n));
+    }
+    m_nProcessedChars = i;
+    return list;
+  }
+
+  /**
+   * Extract n-grams of the text appended since the last detection and add
+   * them to those extracted before. Everything is extracted again if
+   * languages were added meanwhile (their n-grams may have been skipped).
+   *
+   * @return n-grams list of the whole text
+   */
+  private List <String> _extractNGramsIncrementally ()
+  {
+    if (m_nExtractedLangCount != m_aLanglist.size ())
+    {
+      m_aNGrams.clear ();
+      m_aNGram = new NGram ();
+      m_aMatcher = null;
+      m_nExtractedLength = 0;
+      m_nExtractedLangCount = m_aLanglist.size ();
+    }
+    if (m_bNGramAutomaton && m_aMatcher == null)
+      m_aMatcher = m_aFactory.getNGramAutomaton ().matcher ();
+    final int end = _extractionEnd ();
+    for (; m_nExtractedLength < end; ++m_nExtractedLength)
+    {
+      if ((m_nExtractedLength & 0xff) == 0xff && _isExpired ())
+        break;
+      final char c = m_aText.charAt (m_nExtractedLength);
+      if (m_bWithoutLatin && _isLatin (c))
+        continue;
+      if (m_aMatcher != null)
+      {
+        m_aMatcher.addChar (c);
+        for (int n = 0; n < m_aMatcher.size (); ++n)
+          m_aNGrams.add (m_aMatcher.get (n));
+        continue;
+      }
+      m_aNGram.addChar (c);
+      for (int n = 1; n <= NGram.N_GRAM; ++n)
+      {
+        final String w = m_aNGram.get (n);
+        if (w != null && m_aWordLangProbMap.containsKey (w))
+          m_aNGrams.add (w);
+      }
+    }
+    m_nProcessedChars = m_nExtractedLength;
+    return m_aNGrams;
+  }
+
+
   /**
    * update language probabilities with N-gram string(N=1,2,3)
+   * <p>
+   * Each probability is multiplied by <code>weight + p(word|lang)</code>. As
+   * probabilities are normalized, it is the same to multiply by
+   * <code>1 + p(word|lang) / weight</code>, which leaves languages the word
+   * does not occur in unchanged, so only the languages in the sparse vector
+   * are visited.
    *
    * @param word
    *        N-gram string
    */
   private boolean _updateLangProb (final double [] prob, final String word, final double alpha)
   {
-    if (word == null || !m_aWordLangProbMap.containsKey (word))
+    final LangProbVector langProbMap = _getLangProbMap (word);
+    if (langProbMap == null)
       return false;
 
-    final double [] langProbMap = m_aWordLangProbMap.get (word);
-    if (m_bVerbose)
-      System.out.println (word + "(" + _unicodeEncode (word) + "):" + _wordProbToString (langProbMap));
+    final double invWeight = BASE_FREQ / alpha;
+    final int [] langIds = langProbMap.m_aLangIds;
+    final float [] probs = langProbMap.m_aProbs;
+    for (int k = 0; k < langIds.length; ++k)
+    {
+      // Languages loaded after detection started are not part of it.
+      final int i = langIds[k];
+      if (i < prob.length)
+        prob[i] *= 1.0 + probs[k] * invWeight;
+    }
+    return true;
+  }
 
-    final double weight = alpha / BASE_FREQ;
-    for (int i = 0; i < prob.length; ++i)
+  /**
+   * update language probabilities with N-gram string(N=1,2,3) in single
+   * precision
+   *
+   * @param word
+   *        N-gram string
+   */
+  private boolean _updateLangProbSingle (final float [] prob, final String word, final float invWeight)
+  {
+    final LangProbVector langProbMap = _getLangProbMap (word);
+    if (langProbMap == null)
+      return false;
+
+    final int [] langIds = langProbMap.m_aLangIds;
+    final float [] probs = langProbMap.m_aProbs;
+    for (int k = 0; k < langIds.length; ++k)
     {
-      prob[i] *= weight + langProbMap[i];
+      final int i = langIds[k];
+      if (i < prob.length)
+        prob[i] *= 1.0f + probs[k] * invWeight;
     }
     return true;
   }
 
-  private String _wordProbToString (final double [] prob)
+  private LangProbVector _getLangProbMap (final String word)
+  {
+    if (word == null)
+      return null;
+    final LangProbVector langProbMap = m_aWordLangProbMap.get (word);
+    if (langProbMap != null && m_bVerbose)
+      System.out.println (word + "(" + _unicodeEncode (word) + "):" + _wordProbToString (langProbMap));
+    return langProbMap;
+  }
+
+  private String _wordProbToString (final LangProbVector prob)
   {
     try (final Formatter formatter = new Formatter ())
     {
-      for (int j = 0; j < prob.length; ++j)
+      for (int k = 0; k < prob.size (); ++k)
       {
-        final double p = prob[j];
-        if (p >= 0.00001)
+        final int j = prob.m_aLangIds[k];
+        final double p = prob.m_aProbs[k];
+        if (j < m_aLanglist.size () && p >= 0.00001)
           formatter.format (" %s:%.5f", m_aLanglist.get (j), Double.valueOf (p));
       }
       return formatter.toString ();
@@ -435,6 +1066,27 @@ public class Detector
     return maxp;
   }
 
+  /**
+   * normalize probabilities and check convergence by the maximum probability
+   * (single precision)
+   *
+   * @return maximum of probabilities
+   */
+  static private float _normalizeProbSingle (final float [] prob)
+  {
+    float maxp = 0, sump = 0;
+    for (final float aElement : prob)
+      sump += aElement;
+    for (int i = 0; i < prob.length; ++i)
+    {
+      final float p = prob[i] / sump;
+      if (maxp < p)
+        maxp = p;
+      prob[i] = p;
+    }
+    return maxp;
+  }
+
   /**
    * @param prob
    *        HashMap
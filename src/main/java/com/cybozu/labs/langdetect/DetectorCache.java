@@ -0,0 +1,111 @@
+package com.cybozu.labs.langdetect;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.carrotsearch.labs.langid.DetectionCache;
+
+/**
+ * Caches language detection results of texts, so that repeated texts are
+ * detected only once. Detectors are constructed via
+ * {@link DetectorFactory#create()} on a cache miss. Returned lists are
+ * immutable.
+ * <p>
+ * Results are cached by the text's prefix of
+ * {@link DetectionCache#getPrefixLength()} characters (see
+ * {@link DetectionCache}). Clear the cache when profiles are reloaded. Note
+ * that without a seed ({@link DetectorFactory#setSeed(long)}) detection is not
+ * deterministic, the first result is kept.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @see DetectionCache
+ */
+public class DetectorCache
+{
+  private final DetectionCache <List <Language>> m_aCache;
+  private final Consumer <Detector> m_aConfigurer;
+
+  /**
+   * @param maxEntries
+   *        Maximum number of cached results.
+   */
+  public DetectorCache (final int maxEntries)
+  {
+    this (new DetectionCache<> (maxEntries), null);
+  }
+
+  /**
+   * @param aCache
+   *        cache to keep results in
+   * @param aConfigurer
+   *        called to set parameters of each new {@link Detector} (like
+   *        {@link Detector#setAlpha(double)}), may be <code>null</code>
+   */
+  public DetectorCache (@Nonnull final DetectionCache <List <Language>> aCache,
+                        @Nullable final Consumer <Detector> aConfigurer)
+  {
+    m_aCache = aCache;
+    m_aConfigurer = aConfigurer;
+  }
+
+  @Nonnull
+  public DetectionCache <List <Language>> getCache ()
+  {
+    return m_aCache;
+  }
+
+  /**
+   * Detect language of the text and return the language name which has the
+   * highest probability.
+   *
+   * @param text
+   *        the target text
+   * @return detected language name which has most probability.
+   * @throws LangDetectException
+   *         code = ErrorCode.CantDetectError : Can't detect because of no valid
+   *         features in text
+   * @see Detector#detect()
+   */
+  public String detect (@Nonnull final String text) throws LangDetectException
+  {
+    final List <Language> probabilities = getProbabilities (text);
+    if (probabilities.size () > 0)
+      return probabilities.get (0).getLanguage ();
+    return Detector.UNKNOWN_LANG;
+  }
+
+  /**
+   * Get language candidates of the text which have high probabilities
+   *
+   * @param text
+   *        the target text
+   * @return possible languages list (whose probabilities are over
+   *         PROB_THRESHOLD, ordered by probabilities descendently
+   * @throws LangDetectException
+   *         code = ErrorCode.CantDetectError : Can't detect because of no valid
+   *         features in text
+   * @see Detector#getProbabilities()
+   */
+  @Nonnull
+  public List <Language> getProbabilities (@Nonnull final String text) throws LangDetectException
+  {
+    final long key = m_aCache.keyOf (text, 0);
+    List <Language> probabilities = m_aCache.get (key);
+    if (probabilities == null)
+    {
+      final Detector detector = DetectorFactory.create ();
+      if (m_aConfigurer != null)
+        m_aConfigurer.accept (detector);
+      detector.append (text);
+      // Language is immutable, a read-only list is enough.
+      probabilities = Collections.unmodifiableList (detector.getProbabilities ());
+      m_aCache.put (key, probabilities);
+    }
+    return probabilities;
+  }
+}
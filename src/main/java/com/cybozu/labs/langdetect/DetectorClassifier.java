@@ -0,0 +1,111 @@
+package com.cybozu.labs.langdetect;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.carrotsearch.labs.langid.DetectedLanguage;
+import com.carrotsearch.labs.langid.ILangIdClassifier;
+
+/**
+ * A {@link Detector} behind the {@link ILangIdClassifier} interface, so that
+ * both engines can be used interchangeably (e.g. as stages of a
+ * {@link com.carrotsearch.labs.langid.CascadeClassifier}).
+ * <p>
+ * Confidences are always the detector's probabilities (normalized). Texts
+ * without features are classified as <code>unknown</code> with zero
+ * confidence. UTF-8 input must not split characters between appends.
+ * <p>
+ * <strong>Thread safety:</strong> not thread safe, as the detector.
+ *
+ * @see DetectorFactory#createClassifier()
+ */
+public class DetectorClassifier implements ILangIdClassifier
+{
+  private final Detector m_aDetector;
+
+  public DetectorClassifier (@Nonnull final Detector aDetector)
+  {
+    m_aDetector = aDetector;
+  }
+
+  @Nonnull
+  public Detector getDetector ()
+  {
+    return m_aDetector;
+  }
+
+  public DetectedLanguage classify (final CharSequence str, final boolean normalizeConfidence)
+  {
+    reset ();
+    append (str);
+    return classify (normalizeConfidence);
+  }
+
+  public void reset ()
+  {
+    m_aDetector.reset ();
+  }
+
+  public void append (final CharSequence str)
+  {
+    m_aDetector.append (str.toString ());
+  }
+
+  public void append (final ByteBuffer buffer)
+  {
+    m_aDetector.append (StandardCharsets.UTF_8.decode (buffer).toString ());
+  }
+
+  public void append (final byte [] array, final int start, final int length)
+  {
+    m_aDetector.append (new String (array, start, length, StandardCharsets.UTF_8));
+  }
+
+  public DetectedLanguage classify (final boolean normalizeConfidence)
+  {
+    return classify (m_aDetector);
+  }
+
+  /**
+   * Returns the languages whose probabilities are over the detector's
+   * threshold only, most probable first.
+   */
+  public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+  {
+    final List <DetectedLanguage> ret = new ArrayList<> ();
+    try
+    {
+      for (final Language lang : m_aDetector.getProbabilities ())
+        ret.add (new DetectedLanguage (lang.getLanguage (), (float) lang.getProbability ()));
+    }
+    catch (final LangDetectException e)
+    {
+      // No features in text.
+    }
+    return Collections.unmodifiableList (ret);
+  }
+
+  /**
+   * @return the most probable language of the detector's text, or
+   *         <code>unknown</code> with zero confidence if it has no features.
+   */
+  static DetectedLanguage classify (@Nonnull final Detector aDetector)
+  {
+    try
+    {
+      final List <Language> probabilities = aDetector.getProbabilities ();
+      if (probabilities.size () > 0)
+        return new DetectedLanguage (probabilities.get (0).getLanguage (), (float) probabilities.get (0).getProbability ());
+    }
+    catch (final LangDetectException e)
+    {
+      // No features in text.
+    }
+    return new DetectedLanguage (Detector.UNKNOWN_LANG, 0);
+  }
+}
@@ -1,16 +1,32 @@
 package com.cybozu.labs.langdetect;
 
 import java.io.File;
+import java.lang.Character.UnicodeScript;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 
+import com.carrotsearch.labs.langid.CascadeClassifier;
+import com.carrotsearch.labs.langid.ClassifierPool;
+import com.carrotsearch.labs.langid.DetectionProcessor;
+import com.carrotsearch.labs.langid.IDetectionMetrics;
+import com.carrotsearch.labs.langid.ILangIdClassifier;
+import com.carrotsearch.labs.langid.LangIdV3;
+import com.carrotsearch.labs.langid.Model;
 import com.cybozu.labs.langdetect.util.LangProfile;
+import com.cybozu.labs.langdetect.util.LanguageScripts;
 import com.cybozu.labs.langdetect.util.NGram;
+import com.cybozu.labs.langdetect.util.NGramAutomaton;
 import com.helger.json.IJson;
 import com.helger.json.serialize.JsonReader;
 
@@ -21,6 +37,11 @@ import com.helger.json.serialize.JsonReader;
  * initialization parameters. When the language detection, construct Detector
  * instance via {@link DetectorFactory#create()}. See also {@link Detector}'s
  * sample code.
+ * <p>
+ * Profiles can also be registered with
+ * {@link DetectorFactory#loadProfileLazily(String)}: they are indexed by the
+ * script of their language and only loaded when a detector first sees text in
+ * that script.
  * <ul>
  * <li>4x faster improvement based on Elmer Garduno's code. Thanks!</li>
  * </ul>
@@ -30,25 +51,78 @@ import com.helger.json.serialize.JsonReader;
  */
 public class DetectorFactory
 {
-  private final Map <String, double []> m_aWordLangProbMap = new HashMap<> ();
-  private final List <String> m_aLanglist = new ArrayList<> ();
+  /*
+   * Profiles may be loaded lazily while detectors are running: probability
+   * vectors for a new language are filled in before the language is published
+   * in the language list, and detectors only look at the languages of the list
+   * snapshot they took.
+   */
+  private final Map <String, LangProbVector> m_aWordLangProbMap = new ConcurrentHashMap<> ();
+  private final List <String> m_aLanglist = new CopyOnWriteArrayList<> ();
+  /** Immutable copy of m_aLanglist, replaced whenever a language is added. */
+  private volatile List <String> m_aLanglistSnapshot = Collections.emptyList ();
+  /** Scripts of the loaded languages, known or derived from their profiles. */
+  private final Map <String, Set <UnicodeScript>> m_aLangScripts = new ConcurrentHashMap<> ();
+  /** Registered but not yet loaded profiles, by language. Guarded by this. */
+  private final Map <String, File> m_aPendingProfiles = new LinkedHashMap<> ();
+  /** Whether m_aPendingProfiles is not empty, readable without the lock. */
+  private volatile boolean m_bHasPendingProfiles;
+  /** Automaton of the n-grams of m_aWordLangProbMap, built on demand. */
+  private volatile NGramAutomaton m_aNGramAutomaton;
   private Long m_aSeed;
+  private volatile IDetectionMetrics m_aMetrics = IDetectionMetrics.NONE;
 
   private DetectorFactory ()
   {}
 
   private static DetectorFactory s_aInstance = new DetectorFactory ();
 
-  Map <String, double []> getWordLangProbMap ()
+  Map <String, LangProbVector> getWordLangProbMap ()
   {
     return m_aWordLangProbMap;
   }
 
+  /**
+   * @return the automaton of the n-grams of the loaded profiles (built on
+   *         first use after profiles were added)
+   */
+  @Nonnull
+  NGramAutomaton getNGramAutomaton ()
+  {
+    NGramAutomaton ret = m_aNGramAutomaton;
+    if (ret == null)
+    {
+      synchronized (this)
+      {
+        ret = m_aNGramAutomaton;
+        if (ret == null)
+          m_aNGramAutomaton = ret = new NGramAutomaton (m_aWordLangProbMap.keySet ());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param sLang
+   *        a loaded language
+   * @return its scripts or <code>null</code> if unknown (its profile has no
+   *         letters)
+   */
+  Set <UnicodeScript> getScripts (final String sLang)
+  {
+    return m_aLangScripts.get (sLang);
+  }
+
   Long getSeed ()
   {
     return m_aSeed;
   }
 
+  IDetectionMetrics getMetrics ()
+  {
+    return m_aMetrics;
+  }
+
   /**
    * Load profiles from specified directory. This method must be called once
    * before language detection.
@@ -83,24 +157,231 @@ public class DetectorFactory
       throw new LangDetectException (ELangDetectErrorCode.NeedLoadProfileError,
                                      "Not found profile: " + profileDirectory);
 
-    final int langsize = listFiles.length;
-    int index = 0;
     for (final File file : listFiles)
     {
       if (file.getName ().startsWith (".") || !file.isFile ())
         continue;
 
-      final IJson aJson = JsonReader.readFromFile (file);
-      if (aJson == null || !aJson.isObject ())
-        throw new LangDetectException (ELangDetectErrorCode.FormatError,
-                                       "profile format error in '" + file.getName () + "'");
+      final long start = System.nanoTime ();
+      final LangProfile profile = _readProfile (file);
+      _addProfile (profile, start);
+    }
+  }
 
-      final LangProfile profile = LangProfile.createFromJson (aJson.getAsObject ());
-      addProfile (profile, index, langsize);
-      ++index;
+  /**
+   * Load profiles of the given languages only from specified directory. This
+   * method must be called once before language detection.
+   *
+   * @param profileDirectory
+   *        profile directory path
+   * @param langs
+   *        languages to load (profile file names)
+   * @throws LangDetectException
+   *         Can't open profiles(error code =
+   *         {@link ELangDetectErrorCode#FileLoadError}) or profile's format is
+   *         wrong (error code = {@link ELangDetectErrorCode#FormatError})
+   */
+  public static void loadProfile (final String profileDirectory, final Set <String> langs) throws LangDetectException
+  {
+    loadProfile (new File (profileDirectory), langs);
+  }
+
+  /**
+   * Load profiles of the given languages only from specified directory. This
+   * method must be called once before language detection.
+   *
+   * @param profileDirectory
+   *        profile directory path
+   * @param langs
+   *        languages to load (profile file names)
+   * @throws LangDetectException
+   *         Can't open profiles(error code =
+   *         {@link ELangDetectErrorCode#FileLoadError}) or profile's format is
+   *         wrong (error code = {@link ELangDetectErrorCode#FormatError})
+   */
+  public static void loadProfile (final File profileDirectory, final Set <String> langs) throws LangDetectException
+  {
+    final List <File> files = new ArrayList<> ();
+    for (final String lang : langs)
+    {
+      final File file = new File (profileDirectory, lang);
+      if (!file.isFile ())
+        throw new LangDetectException (ELangDetectErrorCode.NeedLoadProfileError, "Not found profile: " + file);
+      files.add (file);
+    }
+
+    synchronized (s_aInstance)
+    {
+      for (final File file : files)
+      {
+        s_aInstance.m_aPendingProfiles.remove (file.getName ());
+        final long start = System.nanoTime ();
+        _addProfile (_readProfile (file), start);
+      }
+      s_aInstance._updatePendingFlag ();
+    }
+  }
+
+  /**
+   * Register profiles from specified directory without loading them. Profiles
+   * are indexed by the script of their language and loaded the first time a
+   * detector sees text in that script, so only languages relevant for the
+   * processed texts take memory. Profiles of languages with an unknown script
+   * are loaded immediately.
+   *
+   * @param profileDirectory
+   *        profile directory path
+   * @throws LangDetectException
+   *         Can't open profiles(error code =
+   *         {@link ELangDetectErrorCode#FileLoadError}) or profile's format is
+   *         wrong (error code = {@link ELangDetectErrorCode#FormatError})
+   */
+  public static void loadProfileLazily (final String profileDirectory) throws LangDetectException
+  {
+    loadProfileLazily (new File (profileDirectory));
+  }
+
+  /**
+   * Register profiles from specified directory without loading them. Profiles
+   * are indexed by the script of their language and loaded the first time a
+   * detector sees text in that script, so only languages relevant for the
+   * processed texts take memory. Profiles of languages with an unknown script
+   * are loaded immediately.
+   *
+   * @param profileDirectory
+   *        profile directory path
+   * @throws LangDetectException
+   *         Can't open profiles(error code =
+   *         {@link ELangDetectErrorCode#FileLoadError}) or profile's format is
+   *         wrong (error code = {@link ELangDetectErrorCode#FormatError})
+   */
+  public static void loadProfileLazily (final File profileDirectory) throws LangDetectException
+  {
+    final File [] listFiles = profileDirectory.listFiles ();
+    if (listFiles == null)
+      throw new LangDetectException (ELangDetectErrorCode.NeedLoadProfileError,
+                                     "Not found profile: " + profileDirectory);
+
+    synchronized (s_aInstance)
+    {
+      final List <File> unknown = new ArrayList<> ();
+      for (final File file : listFiles)
+      {
+        if (file.getName ().startsWith (".") || !file.isFile ())
+          continue;
+
+        final String sLang = file.getName ();
+        if (s_aInstance.m_aLanglist.contains (sLang) || s_aInstance.m_aPendingProfiles.containsKey (sLang))
+          throw new LangDetectException (ELangDetectErrorCode.DuplicateLangError,
+                                         "duplicate the same language profile");
+        if (LanguageScripts.getScripts (sLang) == null)
+          unknown.add (file);
+        else
+          s_aInstance.m_aPendingProfiles.put (sLang, file);
+      }
+      s_aInstance._updatePendingFlag ();
+      s_aInstance._loadPending (unknown);
     }
   }
 
+  /**
+   * Load registered profiles of languages written in any of the scripts of
+   * the text.
+   *
+   * @param text
+   *        text to detect
+   * @return snapshot of the loaded languages
+   * @throws LangDetectException
+   *         if a profile can't be loaded
+   */
+  List <String> loadProfilesFor (final CharSequence text) throws LangDetectException
+  {
+    return _loadProfilesFor ( () -> LanguageScripts.scriptsOf (text));
+  }
+
+  /**
+   * Same as {@link #loadProfilesFor(CharSequence)}, for the scripts of a text.
+   */
+  List <String> loadProfilesFor (final Set <UnicodeScript> scripts) throws LangDetectException
+  {
+    return _loadProfilesFor ( () -> scripts);
+  }
+
+  /*
+   * Without pending profiles (the common case) this takes no lock and
+   * allocates nothing. Otherwise the matching profiles are read without the
+   * lock, so that other detections don't wait for the disk, and added under
+   * it unless another detection loaded them meanwhile.
+   */
+  private List <String> _loadProfilesFor (final Supplier <Set <UnicodeScript>> textScripts) throws LangDetectException
+  {
+    if (!m_bHasPendingProfiles)
+      return m_aLanglistSnapshot;
+
+    final Set <UnicodeScript> scripts = textScripts.get ();
+    final List <File> files = new ArrayList<> ();
+    synchronized (this)
+    {
+      for (final Map.Entry <String, File> entry : m_aPendingProfiles.entrySet ())
+        if (!Collections.disjoint (LanguageScripts.getScripts (entry.getKey ()), scripts))
+          files.add (entry.getValue ());
+    }
+    if (files.isEmpty ())
+      return m_aLanglistSnapshot;
+
+    final List <LangProfile> profiles = new ArrayList<> (files.size ());
+    final long [] starts = new long [files.size ()];
+    for (int i = 0; i < files.size (); ++i)
+    {
+      starts[i] = System.nanoTime ();
+      profiles.add (_readPendingProfile (files.get (i)));
+    }
+
+    synchronized (this)
+    {
+      for (int i = 0; i < profiles.size (); ++i)
+        if (m_aPendingProfiles.remove (files.get (i).getName ()) != null)
+          _addProfile (profiles.get (i), starts[i]);
+      _updatePendingFlag ();
+    }
+    return m_aLanglistSnapshot;
+  }
+
+  private void _updatePendingFlag ()
+  {
+    m_bHasPendingProfiles = !m_aPendingProfiles.isEmpty ();
+  }
+
+  /*
+   * Load profiles appending them to the already loaded ones.
+   */
+  private void _loadPending (final List <File> files) throws LangDetectException
+  {
+    for (final File file : files)
+    {
+      final long start = System.nanoTime ();
+      _addProfile (_readPendingProfile (file), start);
+    }
+  }
+
+  private static LangProfile _readPendingProfile (final File file) throws LangDetectException
+  {
+    final LangProfile profile = _readProfile (file);
+    if (!file.getName ().equals (profile.getName ()))
+      throw new LangDetectException (ELangDetectErrorCode.FormatError,
+                                     "profile name differs from file name in '" + file.getName () + "'");
+    return profile;
+  }
+
+  private static LangProfile _readProfile (final File file) throws LangDetectException
+  {
+    final IJson aJson = JsonReader.readFromFile (file);
+    if (aJson == null || !aJson.isObject ())
+      throw new LangDetectException (ELangDetectErrorCode.FormatError,
+                                     "profile format error in '" + file.getName () + "'");
+    return LangProfile.createFromJson (aJson.getAsObject ());
+  }
+
   /**
    * Load profiles from specified directory. This method must be called once
    * before language detection.
@@ -114,61 +395,90 @@ public class DetectorFactory
    */
   public static void loadProfile (final List <String> json_profiles) throws LangDetectException
   {
-    int index = 0;
-    final int langsize = json_profiles.size ();
-    if (langsize < 2)
+    if (json_profiles.size () < 2)
       throw new LangDetectException (ELangDetectErrorCode.NeedLoadProfileError, "Need more than 2 profiles");
 
     for (final String json : json_profiles)
     {
+      final long start = System.nanoTime ();
       final IJson aJson = JsonReader.readFromString (json);
       if (aJson == null || !aJson.isObject ())
         throw new LangDetectException (ELangDetectErrorCode.FormatError, "profile format error");
 
       final LangProfile profile = LangProfile.createFromJson (aJson.getAsObject ());
-      addProfile (profile, index, langsize);
-      ++index;
+      _addProfile (profile, start);
     }
   }
 
+  /*
+   * Add a profile and report the time it took to read and add it.
+   */
+  private static void _addProfile (@Nonnull final LangProfile aProfile, final long nStartNanos) throws LangDetectException
+  {
+    addProfile (aProfile);
+    s_aInstance.m_aMetrics.onProfileLoad (aProfile.getName (), System.nanoTime () - nStartNanos);
+  }
+
   /**
+   * Add a profile after the loaded ones. Its language index is the number of
+   * languages loaded before.
+   *
    * @param aProfile
-   * @param nLangsize
-   * @param nIndex
    * @throws LangDetectException
    */
-  static void addProfile (@Nonnull final LangProfile aProfile,
-                          final int nIndex,
-                          final int nLangsize) throws LangDetectException
+  static void addProfile (@Nonnull final LangProfile aProfile) throws LangDetectException
   {
-    final String sLang = aProfile.getName ();
-    if (sLang == null)
-      throw new LangDetectException (ELangDetectErrorCode.FormatError, "no language present");
+    synchronized (s_aInstance)
+    {
+      final String sLang = aProfile.getName ();
+      if (sLang == null)
+        throw new LangDetectException (ELangDetectErrorCode.FormatError, "no language present");
 
-    if (s_aInstance.m_aLanglist.contains (sLang))
-      throw new LangDetectException (ELangDetectErrorCode.DuplicateLangError, "duplicate the same language profile");
+      if (s_aInstance.m_aLanglist.contains (sLang))
+        throw new LangDetectException (ELangDetectErrorCode.DuplicateLangError, "duplicate the same language profile");
 
-    s_aInstance.m_aLanglist.add (sLang);
-    for (final String word : aProfile.getAllGrams ())
-    {
-      final int nLength = word.length ();
-      if (nLength >= 1 && nLength <= NGram.N_GRAM)
+      final int nIndex = s_aInstance.m_aLanglist.size ();
+      for (final String word : aProfile.getAllGrams ())
       {
-        final double prob = (double) aProfile.getFrequency (word) / aProfile.getNWord (nLength - 1);
+        final int nLength = word.length ();
+        if (nLength >= 1 && nLength <= NGram.N_GRAM)
+        {
+          final double prob = (double) aProfile.getFrequency (word) / aProfile.getNWord (nLength - 1);
 
-        final double [] aLangProb = s_aInstance.m_aWordLangProbMap.computeIfAbsent (word, k -> new double [nLangsize]);
-        aLangProb[nIndex] = prob;
+          final LangProbVector aLangProb = s_aInstance.m_aWordLangProbMap.getOrDefault (word, LangProbVector.EMPTY);
+          s_aInstance.m_aWordLangProbMap.put (word, aLangProb.with (nIndex, prob));
+        }
       }
+      s_aInstance.m_aNGramAutomaton = null;
+      Set <UnicodeScript> aScripts = LanguageScripts.getScripts (sLang);
+      if (aScripts == null)
+        aScripts = LanguageScripts.scriptsOf (aProfile);
+      if (!aScripts.isEmpty ())
+        s_aInstance.m_aLangScripts.put (sLang, aScripts);
+      // Publish the language after its probabilities are in place.
+      s_aInstance.m_aLanglist.add (sLang);
+      final String [] aLangs = s_aInstance.m_aLanglist.toArray (new String [0]);
+      s_aInstance.m_aLanglistSnapshot = Collections.unmodifiableList (Arrays.asList (aLangs));
     }
   }
 
   /**
-   * Clear loaded language profiles (reinitialization to be available)
+   * Clear loaded language profiles and the seed (reinitialization to be
+   * available)
    */
   static public void clear ()
   {
-    s_aInstance.m_aLanglist.clear ();
-    s_aInstance.m_aWordLangProbMap.clear ();
+    synchronized (s_aInstance)
+    {
+      s_aInstance.m_aLanglist.clear ();
+      s_aInstance.m_aLanglistSnapshot = Collections.emptyList ();
+      s_aInstance.m_aWordLangProbMap.clear ();
+      s_aInstance.m_aNGramAutomaton = null;
+      s_aInstance.m_aLangScripts.clear ();
+      s_aInstance.m_aPendingProfiles.clear ();
+      s_aInstance.m_bHasPendingProfiles = false;
+      s_aInstance.m_aSeed = null;
+    }
   }
 
   /**
@@ -199,14 +509,106 @@ public class DetectorFactory
     return detector;
   }
 
+  /**
+   * Create a pool of detectors, for many threads (e.g. virtual threads)
+   * sharing a few detectors. Released detectors are {@link Detector#reset()}.
+   *
+   * @param maxIdle
+   *        maximum number of idle detectors retained
+   * @return a new pool
+   * @throws LangDetectException
+   *         if no language is present
+   */
+  public static ClassifierPool <Detector> createPool (final int maxIdle) throws LangDetectException
+  {
+    // Fail now rather than in borrowers.
+    final Detector first = _createDetector ();
+    final ClassifierPool <Detector> pool = new ClassifierPool<> (maxIdle, () -> new Detector (s_aInstance), Detector::reset);
+    pool.release (first);
+    return pool;
+  }
+
+  /**
+   * Create a Reactive Streams processor detecting the language of texts with
+   * detectors of a pool. Texts without features are reported as
+   * <code>unknown</code> with zero confidence.
+   *
+   * @param pool
+   *        detectors to use, see {@link #createPool(int)}
+   * @param executor
+   *        executor running the detections
+   * @param parallelism
+   *        maximum number of texts requested and not yet emitted
+   * @param ordered
+   *        emit results in the order of the texts?
+   * @return a new processor
+   * @see DetectionProcessor
+   */
+  public static DetectionProcessor <CharSequence> createProcessor (final ClassifierPool <Detector> pool,
+                                                                   final Executor executor,
+                                                                   final int parallelism,
+                                                                   final boolean ordered)
+  {
+    return new DetectionProcessor<> (text -> pool.apply (detector -> {
+      detector.append (text.toString ());
+      return DetectorClassifier.classify (detector);
+    }), executor, parallelism, ordered);
+  }
+
+  /**
+   * Construct a Detector behind the {@link ILangIdClassifier} interface.
+   *
+   * @return a new classifier
+   * @throws LangDetectException
+   *         if no language is present
+   */
+  public static DetectorClassifier createClassifier () throws LangDetectException
+  {
+    return new DetectorClassifier (_createDetector ());
+  }
+
+  /**
+   * Construct a cascade of a {@link LangIdV3} classifier (fast stage) and a
+   * Detector (slow stage, only for uncertain or confusable results).
+   *
+   * @param model
+   *        model of the fast stage
+   * @param threshold
+   *        confidence of the fast stage below which the Detector decides, see
+   *        {@link CascadeClassifier#DEFAULT_THRESHOLD}
+   * @return a new classifier
+   * @throws LangDetectException
+   *         if no language is present
+   */
+  public static CascadeClassifier createCascade (@Nonnull final Model model, final float threshold) throws LangDetectException
+  {
+    return new CascadeClassifier (new LangIdV3 (model),
+                                  createClassifier (),
+                                  threshold,
+                                  CascadeClassifier.DEFAULT_CONFUSABLE_PAIRS);
+  }
+
   private static Detector _createDetector () throws LangDetectException
   {
-    if (s_aInstance.m_aLanglist.isEmpty ())
+    if (s_aInstance.m_aLanglist.isEmpty () && !s_aInstance.m_bHasPendingProfiles)
       throw new LangDetectException (ELangDetectErrorCode.NeedLoadProfileError, "need to load profiles");
     final Detector detector = new Detector (s_aInstance);
     return detector;
   }
 
+  /**
+   * Set metrics hooks reporting profile loads and detections of detectors
+   * created afterwards.
+   *
+   * @param aMetrics
+   *        metrics, {@link IDetectionMetrics#NONE} (the default) to collect
+   *        nothing
+   */
+  public static void setMetrics (@Nonnull final IDetectionMetrics aMetrics)
+  {
+    s_aInstance.m_aMetrics = aMetrics;
+  }
+
   public static void setSeed (final long seed)
   {
     s_aInstance.m_aSeed = Long.valueOf (seed);
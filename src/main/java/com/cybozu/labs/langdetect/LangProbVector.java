@@ -0,0 +1,77 @@
+package com.cybozu.labs.langdetect;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Probabilities of an n-gram in the languages it occurs in (sparse vector of
+ * language indexes and probabilities). Most n-grams occur in a few languages
+ * only, so this takes a fraction of the memory of a dense vector over all
+ * languages. Instances are immutable, adding a language creates a new vector.
+ */
+final class LangProbVector
+{
+  static final LangProbVector EMPTY = new LangProbVector (new int [0], new float [0]);
+
+  /** Language indexes, ascending. */
+  final int [] m_aLangIds;
+  /** Probability of the n-gram in the language at the same position. */
+  final float [] m_aProbs;
+
+  private LangProbVector (final int [] langIds, final float [] probs)
+  {
+    m_aLangIds = langIds;
+    m_aProbs = probs;
+  }
+
+  /**
+   * @return number of languages the n-gram occurs in
+   */
+  int size ()
+  {
+    return m_aLangIds.length;
+  }
+
+  /**
+   * @param nLangId
+   *        language index
+   * @return probability of the n-gram in the language (0 if it does not occur
+   *         in it)
+   */
+  double get (final int nLangId)
+  {
+    final int pos = Arrays.binarySearch (m_aLangIds, nLangId);
+    return pos < 0 ? 0 : m_aProbs[pos];
+  }
+
+  /**
+   * @param nLangId
+   *        language index
+   * @param dProb
+   *        probability of the n-gram in the language
+   * @return a copy of this vector with the probability of the language set
+   */
+  @Nonnull
+  LangProbVector with (final int nLangId, final double dProb)
+  {
+    int pos = Arrays.binarySearch (m_aLangIds, nLangId);
+    if (pos >= 0)
+    {
+      final float [] probs = m_aProbs.clone ();
+      probs[pos] = (float) dProb;
+      return new LangProbVector (m_aLangIds, probs);
+    }
+
+    pos = -pos - 1;
+    final int [] langIds = new int [m_aLangIds.length + 1];
+    final float [] probs = new float [m_aProbs.length + 1];
+    System.arraycopy (m_aLangIds, 0, langIds, 0, pos);
+    System.arraycopy (m_aProbs, 0, probs, 0, pos);
+    langIds[pos] = nLangId;
+    probs[pos] = (float) dProb;
+    System.arraycopy (m_aLangIds, pos, langIds, pos + 1, m_aLangIds.length - pos);
+    System.arraycopy (m_aProbs, pos, probs, pos + 1, m_aProbs.length - pos);
+    return new LangProbVector (langIds, probs);
+  }
+}
@@ -1,19 +1,27 @@
 package com.cybozu.labs.langdetect;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import com.carrotsearch.labs.langid.Model;
+import com.carrotsearch.labs.langid.ModelTrainer;
+import com.carrotsearch.labs.langid.ProfileModelCompiler;
 import com.cybozu.labs.langdetect.util.LangProfile;
 import com.helger.commons.io.EAppend;
 import com.helger.commons.io.file.FileHelper;
@@ -38,6 +46,8 @@ public class MainCommand
   /** for Command line easy parser */
   private final Map <String, String> m_aCmdOptWithValue = new HashMap<> ();
   private final Map <String, String> m_aCmdValues = new HashMap<> ();
+  /** Keys of the options given on the command line (not defaulted). */
+  private final Set <String> m_aCmdGivenKeys = new HashSet<> ();
   private final Set <String> m_aCmdOptWithoutValue = new HashSet<> ();
   private final List <String> m_aCmdArgs = new ArrayList<> ();
 
@@ -62,6 +72,7 @@ public class MainCommand
       {
         final String key = m_aCmdOptWithValue.get (args[i]);
         m_aCmdValues.put (key, args[i + 1]);
+        m_aCmdGivenKeys.add (key);
         ++i;
       }
       else
@@ -81,6 +92,11 @@ public class MainCommand
     return m_aCmdValues.get (key);
   }
 
+  private boolean _isCmdValueGiven (final String key)
+  {
+    return m_aCmdGivenKeys.contains (key);
+  }
+
   private Long _getCmdValueAsLong (final String key)
   {
     return StringParser.parseLongObj (_getCmdValueAsString (key));
@@ -278,11 +294,30 @@ public class MainCommand
     }
   }
 
+  /**
+   * Create a detector with the smoothing parameter, script routing, precision
+   * and n-gram lookup options (-a, --script-routing, --single-precision,
+   * --parallel-trials, --ngram-automaton).
+   */
+  private Detector _createDetector () throws LangDetectException
+  {
+    final Detector detector = DetectorFactory.create (_getCmdValueAsDouble ("alpha", DEFAULT_ALPHA));
+    if (_hasOptWithoutValue ("--script-routing"))
+      detector.setScriptRouting (true);
+    if (_hasOptWithoutValue ("--single-precision"))
+      detector.setSinglePrecision (true);
+    if (_hasOptWithoutValue ("--parallel-trials"))
+      detector.setTrialPool (ForkJoinPool.commonPool ());
+    if (_hasOptWithoutValue ("--ngram-automaton"))
+      detector.setNGramAutomaton (true);
+    return detector;
+  }
+
   /**
    * Language detection test for each file (--detectlang option)
    *
    * <pre>
-   * usage: --detectlang -d [profile directory] -a [alpha] -s [seed] [test file(s)]
+   * usage: --detectlang -d [profile directory] -a [alpha] -s [seed] [--script-routing] [test file(s)]
    * </pre>
    */
   private void _detectLang ()
@@ -293,7 +328,7 @@ public class MainCommand
       try (final BufferedReader is = new BufferedReader (new InputStreamReader (new FileInputStream (filename),
                                                                                 StandardCharsets.UTF_8)))
       {
-        final Detector detector = DetectorFactory.create (_getCmdValueAsDouble ("alpha", DEFAULT_ALPHA));
+        final Detector detector = _createDetector ();
         if (_hasOptWithoutValue ("--debug"))
           detector.setVerbose ();
         detector.append (is);
@@ -310,7 +345,7 @@ public class MainCommand
    * Batch Test of Language Detection (--batchtest option)
    *
    * <pre>
-   * usage: --batchtest -d [profile directory] -a [alpha] -s [seed] [test data(s)]
+   * usage: --batchtest -d [profile directory] -a [alpha] -s [seed] [--script-routing] [test data(s)]
    * </pre>
    *
    * The format of test data(s):
@@ -337,7 +372,7 @@ public class MainCommand
           final String correctLang = line.substring (0, idx);
           final String text = line.substring (idx + 1);
 
-          final Detector detector = DetectorFactory.create (_getCmdValueAsDouble ("alpha", DEFAULT_ALPHA));
+          final Detector detector = _createDetector ();
           detector.append (text);
           String lang = "";
           try
@@ -410,6 +445,229 @@ public class MainCommand
     }
   }
 
+  /**
+   * Ranking parity of single and double precision detection (--paritytest
+   * option). Both detectors use the same seed (0 unless given with -s).
+   *
+   * <pre>
+   * usage: --paritytest -d [profile directory] -a [alpha] -s [seed] [test data(s)]
+   * </pre>
+   *
+   * The format of test data(s) is the same as for --batchtest.
+   */
+  private void _parityTest ()
+  {
+    _loadProfile ();
+    if (_getCmdValueAsLong ("seed") == null)
+      DetectorFactory.setSeed (0);
+
+    int total = 0, topMismatches = 0, rankingMismatches = 0;
+    double maxDiff = 0;
+    for (final String filename : m_aCmdArgs)
+    {
+      try (NonBlockingBufferedReader is = new NonBlockingBufferedReader (new InputStreamReader (new FileInputStream (filename),
+                                                                                                StandardCharsets.UTF_8)))
+      {
+        while (is.ready ())
+        {
+          final String line = is.readLine ();
+          final int idx = line.indexOf ('\t');
+          if (idx <= 0)
+            continue;
+          final String text = line.substring (idx + 1);
+
+          final Detector detector = _createDetector ();
+          detector.setSinglePrecision (false);
+          detector.append (text);
+          final Detector single = _createDetector ();
+          single.setSinglePrecision (true);
+          single.append (text);
+
+          final List <Language> expected, actual;
+          try
+          {
+            expected = detector.getProbabilities ();
+            actual = single.getProbabilities ();
+          }
+          catch (final LangDetectException e)
+          {
+            // No features in text, the same for both.
+            continue;
+          }
+
+          ++total;
+          boolean sameRanking = expected.size () == actual.size ();
+          for (int i = 0; i < Math.min (expected.size (), actual.size ()); ++i)
+          {
+            if (!expected.get (i).getLanguage ().equals (actual.get (i).getLanguage ()))
+              sameRanking = false;
+            else
+              maxDiff = Math.max (maxDiff,
+                                  Math.abs (expected.get (i).getProbability () - actual.get (i).getProbability ()));
+          }
+          if (!sameRanking)
+          {
+            ++rankingMismatches;
+            if (expected.isEmpty () ||
+                actual.isEmpty () ||
+                !expected.get (0).getLanguage ().equals (actual.get (0).getLanguage ()))
+              ++topMismatches;
+            if (_hasOptWithoutValue ("--debug"))
+              System.out.println (expected +
+                                  "," +
+                                  actual +
+                                  "," +
+                                  (text.length () > 100 ? text.substring (0, 100) : text));
+          }
+        }
+      }
+      catch (final IOException | LangDetectException e)
+      {
+        e.printStackTrace ();
+      }
+    }
+    System.out.println (String.format ("total: %d, ranking mismatches: %d, top-1 mismatches: %d, max probability difference: %.6f",
+                                       Integer.valueOf (total),
+                                       Integer.valueOf (rankingMismatches),
+                                       Integer.valueOf (topMismatches),
+                                       Double.valueOf (maxDiff)));
+  }
+
+  /**
+   * Generate a LangIdV3 model from training data (--genmodel option)
+   *
+   * <pre>
+   * usage: --genmodel -o [model file] [training data(s)]
+   * </pre>
+   *
+   * The format of training data(s) is the same as for --batchtest.
+   */
+  private void _generateModel ()
+  {
+    final String output = _getCmdValueAsString ("output");
+    if (output == null || m_aCmdArgs.isEmpty ())
+    {
+      System.err.println ("Need to specify model file path(-o) and training data");
+      return;
+    }
+
+    final ModelTrainer trainer = new ModelTrainer ();
+    for (final String filename : m_aCmdArgs)
+    {
+      try (final BufferedReader is = new BufferedReader (new InputStreamReader (new FileInputStream (filename),
+                                                                                StandardCharsets.UTF_8)))
+      {
+        System.out.println (filename + ":" + trainer.addTabDelimited (is));
+      }
+      catch (final IOException e)
+      {
+        e.printStackTrace ();
+        return;
+      }
+    }
+
+    final Model model;
+    try
+    {
+      model = trainer.train ();
+    }
+    catch (final IllegalStateException | IllegalArgumentException e)
+    {
+      System.err.println ("ERROR: " + e.getMessage ());
+      return;
+    }
+
+    // Only open (and truncate) the output once there is a model to write.
+    try (final OutputStream os = new BufferedOutputStream (new FileOutputStream (output)))
+    {
+      ModelTrainer.write (model, os);
+      System.out.println (output + ": " + model.getDetectedLanguages ());
+    }
+    catch (final IOException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+
+  /**
+   * Compile the language profiles into a LangIdV3 model (--compilemodel
+   * option)
+   *
+   * <pre>
+   * usage: --compilemodel -d [profile directory] -o [model file]
+   * </pre>
+   *
+   * The smoothing parameter (-a) is compiled into the model. The profile
+   * directory must be given, every file in it is read as a profile.
+   */
+  private void _compileModel ()
+  {
+    final String output = _getCmdValueAsString ("output");
+    if (output == null)
+    {
+      System.err.println ("Need to specify model file path(-o)");
+      return;
+    }
+    if (!_isCmdValueGiven ("directory"))
+    {
+      System.err.println ("Need to specify profile directory(-d)");
+      return;
+    }
+
+    final File directory = new File (_getCmdValueAsString ("directory"));
+    final File [] files = directory.listFiles ();
+    if (files == null)
+    {
+      System.err.println ("Not a profile directory: " + directory);
+      return;
+    }
+    // The order of languages in the model.
+    Arrays.sort (files);
+
+    final List <LangProfile> profiles = new ArrayList<> ();
+    try
+    {
+      for (final File file : files)
+      {
+        if (file.getName ().startsWith (".") || !file.isFile ())
+          continue;
+        final IJson aJson = JsonReader.readFromFile (file);
+        if (aJson == null || !aJson.isObject ())
+          throw new LangDetectException (ELangDetectErrorCode.FileLoadError, "Failed to parse JSON from " + file);
+        profiles.add (LangProfile.createFromJson (aJson.getAsObject ()));
+      }
+    }
+    catch (final LangDetectException e)
+    {
+      System.err.println ("ERROR: " + e.getMessage ());
+      return;
+    }
+
+    final ProfileModelCompiler compiler = new ProfileModelCompiler ();
+    compiler.setAlpha (_getCmdValueAsDouble ("alpha", DEFAULT_ALPHA));
+    final Model model;
+    try
+    {
+      model = compiler.compile (profiles);
+    }
+    catch (final IllegalArgumentException e)
+    {
+      System.err.println ("ERROR: " + e.getMessage ());
+      return;
+    }
+
+    // Only open (and truncate) the output once there is a model to write.
+    try (final OutputStream os = new BufferedOutputStream (new FileOutputStream (output)))
+    {
+      ModelTrainer.write (model, os);
+      System.out.println (output + ": " + model.getDetectedLanguages ());
+    }
+    catch (final IOException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+
   /**
    * Command Line Interface
    *
@@ -424,6 +682,7 @@ public class MainCommand
     command._addOpt ("-s", "seed", null);
     command._addOpt ("-l", "lang", null);
     command._addOpt ("-u", "update", null);
+    command._addOpt ("-o", "output", null);
     command._parse (args);
 
     if (command._hasOptWithoutValue ("--genprofile"))
@@ -451,14 +710,32 @@ public class MainCommand
               command._cleanupProfile ();
             }
             else
-            {
-              System.err.println ("Command missing!");
-              System.err.println ("  --genprofile");
-              System.err.println ("  --genprofile-text");
-              System.err.println ("  --detectlang");
-              System.err.println ("  --batchtest");
-              System.err.println ("  --trim-profile");
-            }
+              if (command._hasOptWithoutValue ("--genmodel"))
+              {
+                command._generateModel ();
+              }
+              else
+                if (command._hasOptWithoutValue ("--paritytest"))
+                {
+                  command._parityTest ();
+                }
+                else
+                  if (command._hasOptWithoutValue ("--compilemodel"))
+                  {
+                    command._compileModel ();
+                  }
+                  else
+                  {
+                    System.err.println ("Command missing!");
+                    System.err.println ("  --genprofile");
+                    System.err.println ("  --genprofile-text");
+                    System.err.println ("  --detectlang");
+                    System.err.println ("  --batchtest");
+                    System.err.println ("  --trim-profile");
+                    System.err.println ("  --genmodel");
+                    System.err.println ("  --paritytest");
+                    System.err.println ("  --compilemodel");
+                  }
   }
 
 }
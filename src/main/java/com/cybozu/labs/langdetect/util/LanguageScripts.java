@@ -0,0 +1,147 @@
+package com.cybozu.labs.langdetect.util;
+
+import java.lang.Character.UnicodeScript;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Writing systems (Unicode scripts) of the languages of the bundled profiles,
+ * or derived from the profiles of other languages. Users don't use this class
+ * directly.
+ */
+public final class LanguageScripts
+{
+  /** Minimum share of the letters of a profile in a script, see {@link #scriptsOf(LangProfile)}. */
+  public static final double MIN_SCRIPT_SHARE = 0.15;
+
+  private static final Map <String, Set <UnicodeScript>> SCRIPTS = new HashMap<> ();
+
+  static
+  {
+    for (final String lang : "af cs da de en es et fi fr hr hu id it lt lv nl no pl pt ro sk sl so sq sv sw tl tr vi".split (" "))
+      _add (lang, UnicodeScript.LATIN);
+    for (final String lang : new String [] { "bg", "mk", "ru", "uk" })
+      _add (lang, UnicodeScript.CYRILLIC);
+    for (final String lang : new String [] { "ar", "fa", "ur" })
+      _add (lang, UnicodeScript.ARABIC);
+    for (final String lang : new String [] { "hi", "mr", "ne" })
+      _add (lang, UnicodeScript.DEVANAGARI);
+    for (final String lang : new String [] { "zh-cn", "zh-tw" })
+      _add (lang, UnicodeScript.HAN);
+    _add ("ja", UnicodeScript.HIRAGANA, UnicodeScript.KATAKANA, UnicodeScript.HAN);
+    _add ("ko", UnicodeScript.HANGUL);
+    _add ("bn", UnicodeScript.BENGALI);
+    _add ("el", UnicodeScript.GREEK);
+    _add ("gu", UnicodeScript.GUJARATI);
+    _add ("he", UnicodeScript.HEBREW);
+    _add ("kn", UnicodeScript.KANNADA);
+    _add ("ml", UnicodeScript.MALAYALAM);
+    _add ("pa", UnicodeScript.GURMUKHI);
+    _add ("ta", UnicodeScript.TAMIL);
+    _add ("te", UnicodeScript.TELUGU);
+    _add ("th", UnicodeScript.THAI);
+  }
+
+  private LanguageScripts ()
+  {}
+
+  private static void _add (final String lang, final UnicodeScript first, final UnicodeScript... rest)
+  {
+    SCRIPTS.put (lang, Collections.unmodifiableSet (EnumSet.of (first, rest)));
+  }
+
+  /**
+   * @param lang
+   *        language name (profile name)
+   * @return scripts the language is written in or <code>null</code> if the
+   *         language is not known.
+   */
+  @Nullable
+  public static Set <UnicodeScript> getScripts (final String lang)
+  {
+    return SCRIPTS.get (lang);
+  }
+
+  /**
+   * Scripts a language is written in, derived from its profile: the scripts of
+   * at least {@link #MIN_SCRIPT_SHARE} of the occurrences of its letters
+   * (1-grams).
+   *
+   * @param aProfile
+   *        language profile
+   * @return scripts of the profile, empty if it has no letters
+   */
+  @Nonnull
+  public static Set <UnicodeScript> scriptsOf (@Nonnull final LangProfile aProfile)
+  {
+    final Map <UnicodeScript, Long> counts = new EnumMap<> (UnicodeScript.class);
+    long total = 0;
+    for (final String gram : aProfile.getAllGrams ())
+    {
+      if (gram.length () != 1)
+        continue;
+      final UnicodeScript script = scriptOf (gram.charAt (0));
+      if (script == null)
+        continue;
+      final int freq = aProfile.getFrequency (gram);
+      counts.merge (script, Long.valueOf (freq), Long::sum);
+      total += freq;
+    }
+
+    final Set <UnicodeScript> scripts = EnumSet.noneOf (UnicodeScript.class);
+    for (final Map.Entry <UnicodeScript, Long> entry : counts.entrySet ())
+      if (entry.getValue ().longValue () >= total * MIN_SCRIPT_SHARE)
+        scripts.add (entry.getKey ());
+    return scripts;
+  }
+
+  /**
+   * Scripts of the letters in the text. Characters shared between scripts
+   * (digits, punctuation, combining marks) are ignored.
+   *
+   * @param text
+   *        text to scan
+   * @return scripts occurring in the text
+   */
+  @Nonnull
+  public static Set <UnicodeScript> scriptsOf (@Nonnull final CharSequence text)
+  {
+    final Set <UnicodeScript> scripts = EnumSet.noneOf (UnicodeScript.class);
+    UnicodeScript last = null;
+    for (int i = 0; i < text.length (); ++i)
+    {
+      final UnicodeScript script = scriptOf (text.charAt (i));
+      if (script != last)
+      {
+        last = script;
+        if (script != null)
+          scripts.add (script);
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * @param c
+   *        character
+   * @return script of the character or <code>null</code> if it is shared
+   *         between scripts (digits, punctuation, combining marks)
+   */
+  @Nullable
+  public static UnicodeScript scriptOf (final char c)
+  {
+    if (c < 'A')
+      return null;
+    final UnicodeScript script = UnicodeScript.of (c);
+    if (script == UnicodeScript.COMMON || script == UnicodeScript.INHERITED || script == UnicodeScript.UNKNOWN)
+      return null;
+    return script;
+  }
+}
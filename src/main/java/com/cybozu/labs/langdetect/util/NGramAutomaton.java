@@ -0,0 +1,291 @@
+package com.cybozu.labs.langdetect.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Aho-Corasick automaton of an n-gram vocabulary (the n-grams of the language
+ * profiles), matching all n-grams ending at a character with one transition
+ * per normalized character instead of building and looking up the
+ * {@link NGram#N_GRAM} candidate strings. Users don't use this class
+ * directly.
+ * <p>
+ * States are the prefixes of the n-grams. The goto function is kept in an
+ * open addressing hash table keyed by state and character, the n-grams
+ * emitted by each state (including those of its failure states) in two flat
+ * arrays. N-grams are emitted shortest first, as by {@link NGram#get(int)}
+ * for n = 1 to {@link NGram#N_GRAM}, and as the instances passed to the
+ * constructor.
+ * <p>
+ * Instances are immutable and thread safe, {@link Matcher} is not.
+ */
+public final class NGramAutomaton
+{
+  private static final int ROOT = 0;
+  private static final long EMPTY_KEY = -1;
+
+  /** The n-grams, by id. */
+  private final String [] m_aGrams;
+
+  /** Goto function: keys are <code>state &lt;&lt; 16 | char</code>. */
+  private final long [] m_aKeys;
+  private final int [] m_aTargets;
+  private final int m_nMask;
+
+  /** State of the longest proper suffix of each state in the automaton. */
+  private final int [] m_aFailure;
+
+  /**
+   * N-grams emitted by state <code>s</code> are at indexes
+   * <code>[m_aOutputOffsets[s], m_aOutputOffsets[s + 1])</code> of
+   * {@link #m_aOutputs}.
+   */
+  private final int [] m_aOutputOffsets;
+  private final int [] m_aOutputs;
+
+  /** State after the leading space of a text (see {@link NGram#NGram()}). */
+  private final int m_nInitialState;
+
+  /**
+   * Build the automaton.
+   *
+   * @param grams
+   *        the n-gram vocabulary. N-grams that {@link NGram} never extracts
+   *        (longer than {@link NGram#N_GRAM}, spaces inside) are ignored.
+   */
+  public NGramAutomaton (@Nonnull final Collection <String> grams)
+  {
+    final List <String> valid = new ArrayList<> ();
+    for (final String gram : grams)
+      if (_isExtracted (gram))
+        valid.add (gram);
+    m_aGrams = valid.toArray (new String [valid.size ()]);
+    final Map <String, Integer> gramIds = new HashMap<> ();
+    for (int i = 0; i < m_aGrams.length; ++i)
+      gramIds.put (m_aGrams[i], Integer.valueOf (i));
+
+    // States: all prefixes, shorter ones first.
+    final Map <String, Integer> stateIds = new HashMap<> ();
+    final List <String> states = new ArrayList<> ();
+    stateIds.put ("", Integer.valueOf (ROOT));
+    states.add ("");
+    for (int len = 1; len <= NGram.N_GRAM; ++len)
+    {
+      final Set <String> prefixes = new HashSet<> ();
+      for (final String gram : m_aGrams)
+        if (gram.length () >= len)
+          prefixes.add (gram.substring (0, len));
+      for (final String prefix : prefixes)
+      {
+        stateIds.put (prefix, Integer.valueOf (states.size ()));
+        states.add (prefix);
+      }
+    }
+
+    final int numStates = states.size ();
+    final int capacity = Integer.highestOneBit (Math.max (2, numStates) * 2 - 1) << 1;
+    m_aKeys = new long [capacity];
+    m_aTargets = new int [capacity];
+    m_nMask = capacity - 1;
+    Arrays.fill (m_aKeys, EMPTY_KEY);
+
+    m_aFailure = new int [numStates];
+    m_aOutputOffsets = new int [numStates + 1];
+    final List <Integer> outputs = new ArrayList<> ();
+    for (int s = 0; s < numStates; ++s)
+    {
+      final String label = states.get (s);
+      if (s != ROOT)
+      {
+        final int parent = stateIds.get (label.substring (0, label.length () - 1)).intValue ();
+        _put (parent, label.charAt (label.length () - 1), s);
+
+        // Longest proper suffix that is a state.
+        for (int i = 1; i <= label.length (); ++i)
+        {
+          final Integer suffix = stateIds.get (label.substring (i));
+          if (suffix != null)
+          {
+            m_aFailure[s] = suffix.intValue ();
+            break;
+          }
+        }
+      }
+
+      // All n-grams that are suffixes of the state, shortest first.
+      m_aOutputOffsets[s] = outputs.size ();
+      for (int i = label.length () - 1; i >= 0; --i)
+      {
+        final Integer id = gramIds.get (label.substring (i));
+        if (id != null)
+          outputs.add (id);
+      }
+    }
+    m_aOutputOffsets[numStates] = outputs.size ();
+    m_aOutputs = new int [outputs.size ()];
+    for (int i = 0; i < m_aOutputs.length; ++i)
+      m_aOutputs[i] = outputs.get (i).intValue ();
+
+    m_nInitialState = nextState (ROOT, ' ');
+  }
+
+  /**
+   * @return whether {@link NGram} extracts such an n-gram: 1 to
+   *         {@link NGram#N_GRAM} characters, spaces only at the ends and not a
+   *         single space
+   */
+  private static boolean _isExtracted (final String gram)
+  {
+    final int len = gram.length ();
+    if (len < 1 || len > NGram.N_GRAM)
+      return false;
+    if (len == 1)
+      return gram.charAt (0) != ' ';
+    for (int i = 1; i < len - 1; ++i)
+      if (gram.charAt (i) == ' ')
+        return false;
+    return gram.charAt (0) != ' ' || gram.charAt (len - 1) != ' ' || len > 2;
+  }
+
+  private static int _slot (final long key)
+  {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void _put (final int state, final char c, final int target)
+  {
+    final long key = (long) state << 16 | c;
+    int slot = _slot (key) & m_nMask;
+    while (m_aKeys[slot] != EMPTY_KEY)
+      slot = (slot + 1) & m_nMask;
+    m_aKeys[slot] = key;
+    m_aTargets[slot] = target;
+  }
+
+  private int _goto (final int state, final char c)
+  {
+    final long key = (long) state << 16 | c;
+    int slot = _slot (key) & m_nMask;
+    long k;
+    while ((k = m_aKeys[slot]) != EMPTY_KEY)
+    {
+      if (k == key)
+        return m_aTargets[slot];
+      slot = (slot + 1) & m_nMask;
+    }
+    return -1;
+  }
+
+  /**
+   * @param state
+   *        current state
+   * @param c
+   *        next (normalized) character
+   * @return the state after the character
+   */
+  public int nextState (final int state, final char c)
+  {
+    int s = state;
+    while (true)
+    {
+      final int target = _goto (s, c);
+      if (target >= 0)
+        return target;
+      if (s == ROOT)
+        return ROOT;
+      s = m_aFailure[s];
+    }
+  }
+
+  /**
+   * @return number of n-grams in the automaton
+   */
+  public int size ()
+  {
+    return m_aGrams.length;
+  }
+
+  /**
+   * @return number of states
+   */
+  public int getStateCount ()
+  {
+    return m_aFailure.length;
+  }
+
+  /**
+   * @return a new matcher at the beginning of a text
+   */
+  @Nonnull
+  public Matcher matcher ()
+  {
+    return new Matcher ();
+  }
+
+  /**
+   * Matches the n-grams of a text character by character, with the same rules
+   * as {@link NGram}: characters are normalized, runs of spaces count as one
+   * and words of capital letters have no n-grams.
+   */
+  public final class Matcher
+  {
+    private int m_nState = m_nInitialState;
+    private char m_cLastChar = ' ';
+    private int m_nStart;
+    private int m_nEnd;
+
+    Matcher ()
+    {}
+
+    /**
+     * Append a character, the n-grams ending at it are available from
+     * {@link #size()} and {@link #get(int)}.
+     *
+     * @param c
+     *        char to add
+     */
+    public void addChar (final char c)
+    {
+      final char cNormalized = NGram.normalize (c);
+      m_nStart = m_nEnd = 0;
+      if (cNormalized == ' ' && m_cLastChar == ' ')
+        return;
+      m_nState = nextState (m_nState, cNormalized);
+      final boolean bCapitalWord = Character.isUpperCase (cNormalized) && Character.isUpperCase (m_cLastChar);
+      m_cLastChar = cNormalized;
+      if (!bCapitalWord)
+      {
+        m_nStart = m_aOutputOffsets[m_nState];
+        m_nEnd = m_aOutputOffsets[m_nState + 1];
+      }
+    }
+
+    /**
+     * @return number of n-grams ending at the last character
+     */
+    public int size ()
+    {
+      return m_nEnd - m_nStart;
+    }
+
+    /**
+     * @param i
+     *        index of the n-gram, shortest first
+     * @return the n-gram
+     */
+    @Nonnull
+    public String get (final int i)
+    {
+      return m_aGrams[m_aOutputs[m_nStart + i]];
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestCascadeClassifier
+{
+  /** A slow stage always answering the same, counting its classifications. */
+  private static final class FixedClassifier implements ILangIdClassifier
+  {
+    private final String m_sLangCode;
+    private final StringBuilder m_aText = new StringBuilder ();
+    private int m_nCalls;
+
+    FixedClassifier (final String langCode)
+    {
+      this.m_sLangCode = langCode;
+    }
+
+    public DetectedLanguage classify (final CharSequence str, final boolean normalizeConfidence)
+    {
+      reset ();
+      append (str);
+      return classify (normalizeConfidence);
+    }
+
+    public void reset ()
+    {
+      m_aText.setLength (0);
+    }
+
+    public void append (final CharSequence str)
+    {
+      m_aText.append (str);
+    }
+
+    public void append (final ByteBuffer buffer)
+    {
+      m_aText.append (StandardCharsets.UTF_8.decode (buffer));
+    }
+
+    public void append (final byte [] array, final int start, final int length)
+    {
+      m_aText.append (new String (array, start, length, StandardCharsets.UTF_8));
+    }
+
+    public DetectedLanguage classify (final boolean normalizeConfidence)
+    {
+      m_nCalls++;
+      return new DetectedLanguage (m_aText.length () == 0 ? CascadeClassifier.UNKNOWN_LANG : m_sLangCode, 1);
+    }
+
+    public List <DetectedLanguage> rank (final boolean normalizeConfidence)
+    {
+      return Collections.singletonList (classify (normalizeConfidence));
+    }
+  }
+
+  @Test
+  public void testStages ()
+  {
+    final FixedClassifier slow = new FixedClassifier ("xx");
+    final CascadeClassifier cascade = new CascadeClassifier (new LangIdV3 (),
+                                                             slow,
+                                                             CascadeClassifier.DEFAULT_THRESHOLD,
+                                                             CascadeClassifier.DEFAULT_CONFUSABLE_PAIRS);
+
+    final String confident = "The committee has approved the report on the new agricultural policy.";
+    assertEquals ("en", cascade.classify (confident, true).getLangCode ());
+    assertSame (CascadeClassifier.EStage.FAST, cascade.getLastStage ());
+    assertEquals (0, slow.m_nCalls);
+
+    // Too short to be confident.
+    assertEquals ("xx", cascade.classify ("ok", true).getLangCode ());
+    assertSame (CascadeClassifier.EStage.SLOW, cascade.getLastStage ());
+    assertEquals (1, slow.m_nCalls);
+
+    // The slow stage only gets the input when it decides.
+    cascade.reset ();
+    cascade.append (ByteBuffer.wrap (confident.getBytes (StandardCharsets.UTF_8)));
+    assertEquals ("en", cascade.classify (true).getLangCode ());
+    assertEquals ("", slow.m_aText.toString ());
+
+    cascade.reset ();
+    final byte [] bytes = "ok ok".getBytes (StandardCharsets.UTF_8);
+    cascade.append (bytes, 0, 2);
+    cascade.append (ByteBuffer.wrap (bytes, 2, 3));
+    // Appended buffers may be reused by the caller.
+    Arrays.fill (bytes, (byte) 'x');
+    assertEquals ("xx", cascade.classify (true).getLangCode ());
+    assertEquals ("ok ok", slow.m_aText.toString ());
+
+    assertEquals (2, cascade.getFastCount ());
+    assertEquals (2, cascade.getSlowCount ());
+  }
+
+  @Test
+  public void testConfusablePairs ()
+  {
+    final String text = "Dette er en norsk setning om været i dag.";
+    final LangIdV3 fast = new LangIdV3 ();
+    fast.append (text);
+    DetectedLanguage first = null;
+    DetectedLanguage second = null;
+    for (final DetectedLanguage lang : fast.rank (true))
+    {
+      if (first == null || lang.m_fConfidence > first.m_fConfidence)
+      {
+        second = first;
+        first = lang;
+      }
+      else
+        if (second == null || lang.m_fConfidence > second.m_fConfidence)
+          second = lang;
+    }
+
+    // Even a fully confident fast stage defers on a confusable pair.
+    final CascadeClassifier cascade = new CascadeClassifier (fast,
+                                                             new FixedClassifier ("xx"),
+                                                             0,
+                                                             Collections.singleton (CascadeClassifier.pair (second.getLangCode (),
+                                                                                                            first.getLangCode ())));
+    assertEquals ("xx", cascade.classify (text, true).getLangCode ());
+    assertSame (CascadeClassifier.EStage.SLOW, cascade.getLastStage ());
+  }
+
+  @Test
+  public void testFallback ()
+  {
+    // The slow stage cannot classify empty text, the fast stage decides.
+    final CascadeClassifier cascade = new CascadeClassifier (new LangIdV3 (),
+                                                             new FixedClassifier ("xx"),
+                                                             1.1f,
+                                                             Collections.emptySet ());
+    assertEquals (new LangIdV3 ().classify ("", true).getLangCode (), cascade.classify ("", true).getLangCode ());
+    assertSame (CascadeClassifier.EStage.FAST, cascade.getLastStage ());
+  }
+}
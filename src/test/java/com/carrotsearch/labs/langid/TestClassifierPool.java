@@ -0,0 +1,76 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestClassifierPool
+{
+  @Test
+  public void testReuse ()
+  {
+    final ClassifierPool <LangIdV3> pool = ClassifierPool.forModel (Model.defaultModel (), 2);
+    final LangIdV3 first = pool.borrow ();
+    first.append ("Dies ist ein deutscher Satz.");
+    pool.release (first);
+    assertEquals (1, pool.getIdleCount ());
+
+    // Released instances are reset.
+    final LangIdV3 second = pool.borrow ();
+    assertSame (first, second);
+    assertEquals ("en", pool.apply (langid -> langid.classify ("This is an English sentence.", true).getLangCode ()));
+    assertEquals (2, pool.getCreatedCount ());
+    pool.release (second);
+    assertEquals (2, pool.getIdleCount ());
+  }
+
+  @Test
+  public void testMaxIdle ()
+  {
+    final ClassifierPool <Object> pool = new ClassifierPool<> (2, Object::new, o -> {});
+    final List <Object> borrowed = new ArrayList<> ();
+    for (int i = 0; i < 5; i++)
+      borrowed.add (pool.borrow ());
+    for (final Object o : borrowed)
+      pool.release (o);
+    assertEquals (5, pool.getCreatedCount ());
+    assertEquals (2, pool.getIdleCount ());
+  }
+
+  @Test
+  public void testManyThreads () throws Exception
+  {
+    final ClassifierPool <LangIdV3> pool = ClassifierPool.forModel (Model.defaultModel (), 4);
+    final int concurrency = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool (concurrency);
+    try
+    {
+      final List <Future <String>> results = new ArrayList<> ();
+      for (int i = 0; i < 1000; i++)
+      {
+        // A new thread for every task would not change the number of instances.
+        final String text = i % 2 == 0 ? "This is an English sentence." : "Dies ist ein deutscher Satz.";
+        results.add (executor.submit ( () -> pool.apply (langid -> langid.classify (text, true).getLangCode ())));
+      }
+      for (int i = 0; i < results.size (); i++)
+        assertEquals (i % 2 == 0 ? "en" : "de", results.get (i).get ());
+    }
+    finally
+    {
+      executor.shutdown ();
+      executor.awaitTermination (10, TimeUnit.SECONDS);
+    }
+    // With maxIdle >= concurrency, an instance is only created when all others
+    // are borrowed.
+    assertTrue (Long.toString (pool.getCreatedCount ()), pool.getCreatedCount () <= concurrency);
+  }
+}
@@ -0,0 +1,82 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestDetectionCache
+{
+  @Test
+  public void testHitsAndEviction ()
+  {
+    final DetectionCache <String> cache = new DetectionCache<> (100);
+    for (int i = 0; i < 1000; i++)
+    {
+      final long key = cache.keyOf ("text " + i, 0);
+      assertNull (cache.get (key));
+      cache.put (key, Integer.toString (i));
+    }
+    assertEquals (0, cache.getHitCount ());
+    assertEquals (1000, cache.getMissCount ());
+    assertEquals (100, cache.size ());
+
+    // The most recently added entries are kept.
+    assertEquals ("999", cache.get (cache.keyOf ("text 999", 0)));
+    assertNull (cache.get (cache.keyOf ("text 0", 0)));
+    assertEquals (1, cache.getHitCount ());
+
+    cache.clear ();
+    assertEquals (0, cache.size ());
+  }
+
+  @Test
+  public void testKeys ()
+  {
+    final DetectionCache <String> cache = new DetectionCache<> (10, 8);
+    assertEquals (cache.keyOf ("ab  cd\t\n", 0), cache.keyOf (" ab cd", 0));
+    assertNotEquals (cache.keyOf ("ab cd", 0), cache.keyOf ("abcd", 0));
+    assertNotEquals (cache.keyOf ("ab cd", 0), cache.keyOf ("ab cd", 1));
+    // Only the prefix counts.
+    assertEquals (cache.keyOf ("01234567", 0), cache.keyOf ("01234567xyz", 0));
+    assertNotEquals (cache.keyOfFullText ("01234567", 0), cache.keyOfFullText ("01234567xyz", 0));
+    assertEquals (cache.keyOfFullText ("0123 4567xyz", 0), cache.keyOfFullText ("0123\t4567xyz ", 0));
+  }
+
+  @Test
+  public void testCachingClassifier ()
+  {
+    final CachingLangIdClassifier classifier = new CachingLangIdClassifier (new LangIdV3 (),
+                                                                            new DetectionCache <DetectedLanguage []> (10));
+    final String text = "This is a test sentence written in English.";
+    final DetectedLanguage expected = new LangIdV3 ().classify (text, true);
+
+    final DetectedLanguage first = classifier.classify (text, true);
+    final DetectedLanguage second = classifier.classify (text, true);
+    assertEquals (expected, first);
+    assertEquals (expected, second);
+    assertNotSame (first, second);
+    assertEquals (1, classifier.getCache ().getHitCount ());
+
+    // Rankings are deep copies, modifying them does not affect the cache.
+    final List <DetectedLanguage> ranking = classifier.rank (text, false);
+    ranking.get (0).m_fConfidence = 42;
+    assertNotEquals (42, classifier.rank (text, false).get (0).m_fConfidence, 0f);
+    assertEquals (2, classifier.getCache ().getHitCount ());
+
+    // A long shared header does not make documents share a result.
+    final StringBuilder header = new StringBuilder ();
+    while (header.length () < DetectionCache.DEFAULT_PREFIX_LENGTH)
+      header.append ("Dies ist ein deutscher Satz. ");
+    final String german = header + "Noch ein deutscher Satz.";
+    final String english = header + String.join (" ", Collections.nCopies (2000, text));
+    assertEquals (new LangIdV3 ().classify (german, false), classifier.classify (german, false));
+    assertEquals (new LangIdV3 ().classify (english, false), classifier.classify (english, false));
+    assertNotEquals (classifier.classify (german, false).getLangCode (), classifier.classify (english, false).getLangCode ());
+  }
+}
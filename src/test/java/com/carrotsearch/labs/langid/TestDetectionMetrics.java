@@ -0,0 +1,80 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class TestDetectionMetrics
+{
+  @Test
+  public void testHistogram ()
+  {
+    final LongAdderHistogram histogram = new LongAdderHistogram ();
+    assertEquals (0, histogram.getQuantile (0.5));
+    for (int i = 1; i <= 100; i++)
+    {
+      histogram.record (i);
+    }
+    assertEquals (100, histogram.getCount ());
+    assertEquals (5050, histogram.getSum ());
+    assertEquals (100, histogram.getMax ());
+    assertEquals (50.5, histogram.getMean (), 0.0);
+
+    // Accurate to a factor of two.
+    final long p50 = histogram.getQuantile (0.5);
+    assertTrue (Long.toString (p50), p50 >= 50 && p50 < 100);
+    assertEquals (100, histogram.getQuantile (1.0));
+
+    histogram.reset ();
+    assertEquals (0, histogram.getCount ());
+  }
+
+  @Test
+  public void testClassifierMetrics () throws Exception
+  {
+    final DetectionMetrics metrics = new DetectionMetrics ();
+    final LangIdV3 langid = new LangIdV3 ();
+    langid.setMetrics (metrics);
+
+    final String text = "This is a test sentence written in English.";
+    langid.classify (text, true);
+    assertEquals (1, metrics.getClassifyCount ());
+    assertEquals (text.length (), metrics.getClassifyBytes ());
+    assertTrue (metrics.getClassifyFeaturesHit () > 0);
+    assertEquals (0, metrics.getClassifyEarlyExits ());
+
+    langid.reset ();
+    final byte [] bytes = text.getBytes (StandardCharsets.UTF_8);
+    langid.append (bytes, 0, 10);
+    langid.classify (false);
+    assertEquals (2, metrics.getClassifyCount ());
+    assertEquals (text.length () + 10, metrics.getClassifyBytes ());
+    assertEquals (0, metrics.getClassifyEarlyExits ());
+
+    // Only input cut short by a budget is an early exit.
+    langid.classify (text, false, DetectionBudget.ofChars (10));
+    assertEquals (3, metrics.getClassifyCount ());
+    assertEquals (1, metrics.getClassifyEarlyExits ());
+    langid.rank (text, false, DetectionBudget.UNLIMITED);
+    assertEquals (4, metrics.getClassifyCount ());
+    assertEquals (1, metrics.getClassifyEarlyExits ());
+
+    final ObjectName name = metrics.register ("test");
+    try
+    {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+      assertEquals (Long.valueOf (4), server.getAttribute (name, "ClassifyCount"));
+    }
+    finally
+    {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (name);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class TestDetectionProcessor
+{
+  private static ExecutorService s_aExecutor;
+
+  @BeforeClass
+  public static void createExecutor ()
+  {
+    s_aExecutor = Executors.newFixedThreadPool (4);
+  }
+
+  @AfterClass
+  public static void shutdownExecutor ()
+  {
+    s_aExecutor.shutdown ();
+  }
+
+  /** Publishes items on request, counting requested items. */
+  private static final class ListPublisher implements Publisher <Object>
+  {
+    final List <?> m_aItems;
+    final AtomicLong m_aRequested = new AtomicLong ();
+
+    ListPublisher (final List <?> items)
+    {
+      m_aItems = items;
+    }
+
+    public void subscribe (final Subscriber <? super Object> subscriber)
+    {
+      subscriber.onSubscribe (new Subscription ()
+      {
+        int m_nNext;
+        boolean m_bDone;
+
+        public synchronized void request (final long n)
+        {
+          m_aRequested.addAndGet (n);
+          for (long i = 0; i < n && m_nNext < m_aItems.size (); i++)
+            subscriber.onNext (m_aItems.get (m_nNext++));
+          if (m_nNext == m_aItems.size () && !m_bDone)
+          {
+            m_bDone = true;
+            subscriber.onComplete ();
+          }
+        }
+
+        public void cancel ()
+        {
+          m_bDone = true;
+        }
+      });
+    }
+  }
+
+  /** Requests one result at a time. */
+  private static final class Collector implements Subscriber <DetectedLanguage>
+  {
+    final List <String> m_aResults = Collections.synchronizedList (new ArrayList<> ());
+    final CountDownLatch m_aDone = new CountDownLatch (1);
+    volatile Throwable m_aError;
+    Subscription m_aSubscription;
+
+    public void onSubscribe (final Subscription subscription)
+    {
+      m_aSubscription = subscription;
+      subscription.request (1);
+    }
+
+    public void onNext (final DetectedLanguage item)
+    {
+      m_aResults.add (item.getLangCode ());
+      m_aSubscription.request (1);
+    }
+
+    public void onError (final Throwable t)
+    {
+      m_aError = t;
+      m_aDone.countDown ();
+    }
+
+    public void onComplete ()
+    {
+      m_aDone.countDown ();
+    }
+  }
+
+  private static List <Object> _items (final int count)
+  {
+    final List <Object> items = new ArrayList<> ();
+    for (int i = 0; i < count; i++)
+    {
+      final String text = i % 2 == 0 ? "This is an English sentence." : "Dies ist ein deutscher Satz.";
+      items.add (i % 3 == 0 ? ByteBuffer.wrap (text.getBytes (StandardCharsets.UTF_8)) : text);
+    }
+    return items;
+  }
+
+  @Test
+  public void testOrdered () throws Exception
+  {
+    final DetectionProcessor <Object> processor = DetectionProcessor.forClassifiers (ClassifierPool.forModel (Model.defaultModel (),
+                                                                                                              4),
+                                                                                     s_aExecutor,
+                                                                                     8,
+                                                                                     true);
+    final ListPublisher publisher = new ListPublisher (_items (200));
+    final Collector collector = new Collector ();
+    processor.subscribe (collector);
+    publisher.subscribe (processor);
+    assertTrue (collector.m_aDone.await (10, TimeUnit.SECONDS));
+    assertNull (collector.m_aError);
+    assertEquals (200, collector.m_aResults.size ());
+    for (int i = 0; i < 200; i++)
+      assertEquals (i % 2 == 0 ? "en" : "de", collector.m_aResults.get (i));
+  }
+
+  @Test
+  public void testUnordered () throws Exception
+  {
+    final DetectionProcessor <Object> processor = DetectionProcessor.forClassifiers (ClassifierPool.forModel (Model.defaultModel (),
+                                                                                                              4),
+                                                                                     s_aExecutor,
+                                                                                     8,
+                                                                                     false);
+    final ListPublisher publisher = new ListPublisher (_items (200));
+    final Collector collector = new Collector ();
+    publisher.subscribe (processor);
+    processor.subscribe (collector);
+    assertTrue (collector.m_aDone.await (10, TimeUnit.SECONDS));
+    assertEquals (200, collector.m_aResults.size ());
+    assertEquals (100, Collections.frequency (collector.m_aResults, "en"));
+  }
+
+  @Test
+  public void testBackpressure () throws Exception
+  {
+    final DetectionProcessor <Object> processor = DetectionProcessor.forClassifiers (ClassifierPool.forModel (Model.defaultModel (),
+                                                                                                              4),
+                                                                                     s_aExecutor,
+                                                                                     4,
+                                                                                     true);
+    final ListPublisher publisher = new ListPublisher (_items (100));
+    final List <String> results = Collections.synchronizedList (new ArrayList<> ());
+    final Subscription [] subscription = new Subscription [1];
+    processor.subscribe (new Subscriber <DetectedLanguage> ()
+    {
+      public void onSubscribe (final Subscription s)
+      {
+        subscription[0] = s;
+      }
+
+      public void onNext (final DetectedLanguage item)
+      {
+        results.add (item.getLangCode ());
+      }
+
+      public void onError (final Throwable t)
+      {}
+
+      public void onComplete ()
+      {}
+    });
+    publisher.subscribe (processor);
+
+    // Nothing requested downstream: only the window is requested upstream.
+    Thread.sleep (100);
+    assertEquals (4, publisher.m_aRequested.get ());
+    assertEquals (0, results.size ());
+
+    subscription[0].request (2);
+    final long deadline = System.currentTimeMillis () + 10000;
+    while (results.size () < 2 && System.currentTimeMillis () < deadline)
+      Thread.sleep (10);
+    Thread.sleep (50);
+    assertEquals (2, results.size ());
+    assertEquals (6, publisher.m_aRequested.get ());
+  }
+
+  @Test
+  public void testError () throws Exception
+  {
+    final DetectionProcessor <Object> processor = new DetectionProcessor<> (item -> {
+      throw new IllegalStateException ("failed");
+    }, s_aExecutor, 4, true);
+    final Collector collector = new Collector ();
+    processor.subscribe (collector);
+    new ListPublisher (_items (10)).subscribe (processor);
+    assertTrue (collector.m_aDone.await (10, TimeUnit.SECONDS));
+    assertEquals ("failed", collector.m_aError.getMessage ());
+  }
+}
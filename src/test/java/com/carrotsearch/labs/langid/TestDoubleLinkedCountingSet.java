@@ -31,6 +31,46 @@ public class TestDoubleLinkedCountingSet
     assertEquals (2, s.counts[0]);
   }
 
+  @Test
+  public void testDecrement ()
+  {
+    final DoubleLinkedCountingSet s = new DoubleLinkedCountingSet (10, 5);
+    s.increment (3);
+    s.increment (5);
+    s.increment (3);
+    s.increment (8);
+    s.decrement (3);
+    assertEquals (3, s.elementsCount);
+    assertEquals (1, s.counts[0]);
+    s.decrement (3);
+    // The last key takes the place of the removed one.
+    assertEquals (2, s.elementsCount);
+    assertEquals (8, s.dense[0]);
+    assertEquals (5, s.dense[1]);
+    s.increment (3);
+    s.increment (8);
+    assertEquals (3, s.elementsCount);
+    assertEquals (2, s.counts[0]);
+    assertEquals (3, s.dense[2]);
+  }
+
+  @Test
+  public void testAddAll ()
+  {
+    final DoubleLinkedCountingSet s = new DoubleLinkedCountingSet (10, 5);
+    s.increment (3);
+    s.add (7, 4);
+    final OpenHashCountingSet o = new OpenHashCountingSet (2);
+    o.add (7, 2);
+    o.increment (1);
+    s.addAll (o);
+    assertEquals (3, s.elementsCount);
+    assertEquals (1, s.counts[0]);
+    assertEquals (6, s.counts[1]);
+    assertEquals (1, s.dense[2]);
+    assertEquals (1, s.counts[2]);
+  }
+
   @Test
   public void testRandomized ()
   {
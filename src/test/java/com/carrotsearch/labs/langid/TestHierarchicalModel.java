@@ -0,0 +1,86 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestHierarchicalModel
+{
+  private static final String [] TEXTS = { "Dies ist ein deutscher Satz über das Wetter.",
+                                           "This is an English sentence about the weather.",
+                                           "Ceci est une phrase en français sur la météo.",
+                                           "Это предложение на русском языке о погоде.",
+                                           "これは天気についての日本語の文です。",
+                                           "Esta es una frase en español sobre el tiempo.",
+                                           "Dette er en dansk sætning om vejret." };
+
+  @Test
+  public void testClusters ()
+  {
+    final Model model = Model.defaultModel ();
+    final HierarchicalModel hierarchical = HierarchicalModel.build (model);
+    assertTrue (hierarchical.getClusterCount () >= 2);
+
+    // The clusters partition the languages.
+    final Set <String> all = new HashSet<> ();
+    int total = 0;
+    for (int k = 0; k < hierarchical.getClusterCount (); k++)
+    {
+      final Set <String> langs = hierarchical.getClusterModel (k).getDetectedLanguages ();
+      assertTrue (langs.size () >= 2);
+      all.addAll (langs);
+      total += langs.size ();
+    }
+    assertEquals (model.numClasses, total);
+    assertEquals (model.getDetectedLanguages (), all);
+  }
+
+  @Test
+  public void testClassify ()
+  {
+    final HierarchicalModel hierarchical = HierarchicalModel.build (Model.defaultModel ());
+    final LangIdV3 flat = new LangIdV3 ();
+
+    // All clusters scored: the same as the full model.
+    final HierarchicalLangId exhaustive = new HierarchicalLangId (hierarchical, hierarchical.getClusterCount ());
+    final HierarchicalLangId langid = new HierarchicalLangId (hierarchical);
+    for (final String text : TEXTS)
+    {
+      final DetectedLanguage expected = flat.classify (text, true);
+      assertEquals (expected.getLangCode (), exhaustive.classify (text, true).getLangCode ());
+      assertEquals (expected.getConfidence (), exhaustive.classify (text, true).getConfidence (), 1e-4);
+      assertEquals (text, expected.getLangCode (), langid.classify (text, true).getLangCode ());
+    }
+
+    // Unscored languages have no confidence.
+    langid.reset ();
+    langid.append (TEXTS[0]);
+    final List <DetectedLanguage> ranking = langid.rank (true);
+    assertEquals (Model.defaultModel ().numClasses, ranking.size ());
+    int scored = 0;
+    double sum = 0;
+    for (final DetectedLanguage lang : ranking)
+    {
+      if (lang.getConfidence () > 0)
+      {
+        scored++;
+      }
+      sum += lang.getConfidence ();
+    }
+    assertTrue (scored < ranking.size ());
+    assertEquals (1, sum, 1e-4);
+  }
+
+  @Test
+  public void testQuantized ()
+  {
+    final HierarchicalModel hierarchical = HierarchicalModel.build (Model.defaultModel ().quantize (), 4);
+    final HierarchicalLangId langid = new HierarchicalLangId (hierarchical, 1);
+    assertEquals ("de", langid.classify (TEXTS[0], false).getLangCode ());
+  }
+}
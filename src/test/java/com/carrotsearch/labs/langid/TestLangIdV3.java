@@ -1,10 +1,16 @@
 package com.carrotsearch.labs.langid;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -110,4 +116,104 @@ public class TestLangIdV3
       assertEquals (c1, v1.classify (normalizeConfidence));
     }
   }
+
+  /**
+   * The hash-based feature vector must yield the same predictions.
+   */
+  @Test
+  public void testFeatureVectorImplementations ()
+  {
+    final Model model = Model.defaultModel ();
+    assertTrue (LangIdV3.createFeatureVector (model, 10) instanceof OpenHashCountingSet);
+    assertTrue (LangIdV3.createFeatureVector (model,
+                                              LangIdV3.DEFAULT_EXPECTED_DOCUMENT_LENGTH) instanceof DoubleLinkedCountingSet);
+
+    final LangIdV3 v1 = new LangIdV3 (model);
+    final LangIdV3 v2 = new LangIdV3 (model, 10);
+    for (int i = 0; i < 1000; i++)
+    {
+      final String in = ofCodeUnitsLength (1, 300);
+      final boolean normalizeConfidence = RandomHelper.getRandom ().nextBoolean ();
+      assertEquals (v1.classify (in, normalizeConfidence), v2.classify (in, normalizeConfidence));
+    }
+  }
+
+  @Test
+  public void testBudget ()
+  {
+    final LangIdV3 langid = new LangIdV3 ();
+    final StringBuilder text = new StringBuilder ("Dies ist ein deutscher Satz. ");
+    for (int i = 0; i < 500; i++)
+      text.append ("This is an English sentence. ");
+
+    BudgetedResult <DetectedLanguage> result = langid.classify (text, true, DetectionBudget.UNLIMITED);
+    assertFalse (result.isPartial ());
+    assertEquals (langid.classify (text, true), result.getResult ());
+
+    // Only the German prefix.
+    result = langid.classify (text, true, DetectionBudget.ofChars (28));
+    assertTrue (result.isPartial ());
+    assertEquals ("de", result.getResult ().getLangCode ());
+
+    result = langid.classify (text, true, DetectionBudget.ofTime (0, TimeUnit.NANOSECONDS));
+    assertTrue (result.isPartial ());
+
+    final BudgetedResult <List <DetectedLanguage>> ranking = langid.rank ("Dies ist ein deutscher Satz.",
+                                                                         false,
+                                                                         DetectionBudget.ofChars (1000));
+    assertFalse (ranking.isPartial ());
+    assertEquals (langid.getModel ().numClasses, ranking.getResult ().size ());
+  }
+
+  /**
+   * Parallel extraction must count the same features as a serial one.
+   */
+  @Test
+  public void testParallelExtraction ()
+  {
+    final StringBuilder text = new StringBuilder ();
+    while (text.length () < 300000)
+    {
+      text.append (ofCodeUnitsLength (1, 300)).append (" Zażółć gęślą jaźń. 日本語のテキスト。 ");
+    }
+    final byte [] bytes = text.toString ().getBytes (StandardCharsets.UTF_8);
+
+    final LangIdV3 serial = new LangIdV3 ();
+    serial.append (bytes, 0, bytes.length);
+    final List <DetectedLanguage> expected = new ArrayList<> ();
+    for (final DetectedLanguage lang : serial.rank (false))
+    {
+      expected.add (lang.clone ());
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool (4);
+    try
+    {
+      final LangIdV3 parallel = new LangIdV3 ();
+      parallel.setExtractionPool (pool, 1);
+      parallel.append (bytes, 0, bytes.length);
+      assertRanks (expected, parallel.rank (false));
+
+      parallel.reset ();
+      final ByteBuffer buffer = ByteBuffer.wrap (bytes);
+      parallel.append (buffer);
+      assertFalse (buffer.hasRemaining ());
+      assertRanks (expected, parallel.rank (false));
+    }
+    finally
+    {
+      pool.shutdown ();
+    }
+  }
+
+  private static void assertRanks (final List <DetectedLanguage> expected, final List <DetectedLanguage> actual)
+  {
+    assertEquals (expected.size (), actual.size ());
+    for (int i = 0; i < expected.size (); i++)
+    {
+      final double confidence = expected.get (i).getConfidence ();
+      // Only the order of summation differs.
+      assertEquals (confidence, actual.get (i).getConfidence (), Math.abs (confidence) * 1e-5);
+    }
+  }
 }
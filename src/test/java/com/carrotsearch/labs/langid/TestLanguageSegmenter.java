@@ -0,0 +1,75 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLanguageSegmenter
+{
+  private static final String DE = "Das Parlament hat heute den Bericht über die neue Agrarpolitik angenommen, " +
+                                   "nachdem die Abgeordneten lange über die Zukunft der ländlichen Räume diskutiert hatten. ";
+  private static final String EN = "The committee has approved the report on the new agricultural policy, " +
+                                   "after members discussed the future of rural areas for a long time. ";
+
+  private static String repeat (final String s, final int times)
+  {
+    final StringBuilder sb = new StringBuilder ();
+    for (int i = 0; i < times; i++)
+      sb.append (s);
+    return sb.toString ();
+  }
+
+  @Test
+  public void testSpans ()
+  {
+    final String de1 = repeat (DE, 4);
+    final String en = repeat (EN, 4);
+    final String text = de1 + en + repeat (DE, 4);
+
+    final List <LanguageSpan> spans = new LanguageSegmenter ().segment (text);
+    assertEquals (spans.toString (), 3, spans.size ());
+    assertEquals ("de", spans.get (0).getLangCode ());
+    assertEquals ("en", spans.get (1).getLangCode ());
+    assertEquals ("de", spans.get (2).getLangCode ());
+
+    // Boundaries near the actual ones, at word boundaries.
+    assertTrue (spans.toString (), Math.abs (spans.get (1).getStart () - de1.length ()) <= 2 * LanguageSegmenter.DEFAULT_STEP);
+    assertTrue (spans.toString (),
+                Math.abs (spans.get (2).getStart () - de1.length () - en.length ()) <= 2 * LanguageSegmenter.DEFAULT_STEP);
+    assertEquals (' ', text.charAt (spans.get (1).getStart () - 1));
+
+    // Contiguous, covering the text.
+    assertEquals (0, spans.get (0).getStart ());
+    assertEquals (spans.get (0).getEnd (), spans.get (1).getStart ());
+    assertEquals (spans.get (1).getEnd (), spans.get (2).getStart ());
+    assertEquals (text.length (), spans.get (2).getEnd ());
+    for (final LanguageSpan span : spans)
+      assertTrue (span.getConfidence () > 0.5);
+  }
+
+  @Test
+  public void testShortText ()
+  {
+    final LanguageSegmenter segmenter = new LanguageSegmenter ();
+    assertTrue (segmenter.segment ("").isEmpty ());
+
+    final String text = "Ceci est une phrase en français.";
+    final List <LanguageSpan> spans = segmenter.segment (text);
+    assertEquals (1, spans.size ());
+    assertEquals (new LangIdV3 ().classify (text, true).getLangCode (), spans.get (0).getLangCode ());
+    assertEquals (text.length (), spans.get (0).getEnd ());
+  }
+
+  @Test
+  public void testQuantizedModel ()
+  {
+    final String text = repeat (EN, 3) + repeat (DE, 3);
+    final List <LanguageSpan> spans = new LanguageSegmenter (Model.defaultModel ().quantize (), 256, 32).segment (text);
+    assertEquals (spans.toString (), 2, spans.size ());
+    assertEquals ("en", spans.get (0).getLangCode ());
+    assertEquals ("de", spans.get (1).getLangCode ());
+  }
+}
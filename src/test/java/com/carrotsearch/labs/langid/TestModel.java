@@ -2,11 +2,22 @@ package com.carrotsearch.labs.langid;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.junit.Test;
 
+import com.carrotsearch.labs.lzma.LzmaDecoder;
 import com.helger.commons.collection.impl.CommonsHashSet;
 
 public class TestModel
@@ -22,13 +33,35 @@ public class TestModel
     assertArrayEquals (n.nb_ptc, d.nb_ptc, 0.0f);
     assertEquals (n.numClasses, d.numClasses);
     assertEquals (n.numFeatures, d.numFeatures);
-    assertArrayEquals (n.m_aDsa, d.m_aDsa);
+    assertArrayEquals (n.m_aDsa.m_aByteClasses, d.m_aDsa.m_aByteClasses);
+    assertArrayEquals (n.m_aDsa.m_aTransitions, d.m_aDsa.m_aTransitions);
+    assertArrayEquals (n.m_aDsa.m_aOutputOffsets, d.m_aDsa.m_aOutputOffsets);
+    assertArrayEquals (n.m_aDsa.m_aOutputs, d.m_aDsa.m_aOutputs);
+  }
+
+  @Test
+  public void testCompactDsaRoundTrip ()
+  {
+    final CompactDsa dsa = Model.defaultModel ().m_aDsa;
+    assertTrue (dsa.numByteClasses <= 256);
 
-    assertEquals (n.m_aDsaOutput.length, d.m_aDsaOutput.length);
-    for (int i = 0; i < n.m_aDsaOutput.length; i++)
+    final short [] transitions = dsa.toTransitionTable ();
+    final int [] [] outputs = dsa.toOutputTable ();
+    assertEquals (dsa.numStates * 256, transitions.length);
+    for (int state = 0; state < dsa.numStates; state++)
     {
-      assertArrayEquals (n.m_aDsaOutput[i], d.m_aDsaOutput[i]);
+      for (int b = 0; b < 256; b++)
+      {
+        assertEquals (transitions[(state << 8) + b], (short) dsa.nextState (state, b));
+      }
     }
+
+    final CompactDsa copy = CompactDsa.compile (transitions, outputs);
+    assertEquals (dsa.numByteClasses, copy.numByteClasses);
+    assertArrayEquals (dsa.m_aByteClasses, copy.m_aByteClasses);
+    assertArrayEquals (dsa.m_aTransitions, copy.m_aTransitions);
+    assertArrayEquals (dsa.m_aOutputOffsets, copy.m_aOutputOffsets);
+    assertArrayEquals (dsa.m_aOutputs, copy.m_aOutputs);
   }
 
   @Test
@@ -50,4 +83,155 @@ public class TestModel
       }
     }
   }
+
+  @Test
+  public void testSubsetRows ()
+  {
+    final Model d = Model.defaultModel ();
+    final Set <String> allowed = new CommonsHashSet<> ("pl", "en", "de");
+    for (final Model m : new Model [] { d, d.quantize () })
+    {
+      final Model s = m.subset (allowed);
+      assertEquals (3, s.numClasses);
+      assertEquals (m.numFeatures, s.numFeatures);
+      assertTrue (s.m_aDsa == m.m_aDsa);
+      for (int j = 0; j < s.numClasses; j++)
+      {
+        final int i = Arrays.asList (m.m_aLangClasses).indexOf (s.m_aLangClasses[j]);
+        assertTrue (allowed.contains (s.m_aLangClasses[j]));
+        assertEquals (m.nb_pc[i], s.nb_pc[j], 0.0f);
+        if (m.isQuantized ())
+        {
+          assertArrayEquals (Arrays.copyOfRange (m.nb_ptc_q, i * m.numFeatures, (i + 1) * m.numFeatures),
+                             Arrays.copyOfRange (s.nb_ptc_q, j * s.numFeatures, (j + 1) * s.numFeatures));
+          assertEquals (m.nb_ptc_min[i], s.nb_ptc_min[j], 0.0f);
+          assertEquals (m.nb_ptc_scale[i], s.nb_ptc_scale[j], 0.0f);
+        }
+        else
+        {
+          assertArrayEquals (Arrays.copyOfRange (m.nb_ptc, i * m.numFeatures, (i + 1) * m.numFeatures),
+                             Arrays.copyOfRange (s.nb_ptc, j * s.numFeatures, (j + 1) * s.numFeatures),
+                             0.0f);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubsetTooFewLanguages ()
+  {
+    Model.detectOnly (new CommonsHashSet<> ("en", "xx"));
+  }
+
+  @Test
+  public void testReadSubset () throws IOException
+  {
+    final Model d = Model.defaultModel ();
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+    ModelTrainer.write (d, baos);
+    final ByteBuffer serialized = ByteBuffer.wrap (baos.toByteArray ());
+
+    final Model full = Model.readSubset (serialized, null);
+    assertEquals (0, serialized.position ());
+    assertArrayEquals (d.m_aLangClasses, full.m_aLangClasses);
+    assertArrayEquals (d.nb_pc, full.nb_pc, 0.0f);
+    assertArrayEquals (d.nb_ptc, full.nb_ptc, 0.0f);
+    assertArrayEquals (d.m_aDsa.m_aTransitions, full.m_aDsa.m_aTransitions);
+    assertArrayEquals (d.m_aDsa.m_aOutputs, full.m_aDsa.m_aOutputs);
+
+    final Set <String> allowed = new CommonsHashSet<> ("en", "de", "es", "fr", "it", "pl");
+    final Model expected = d.subset (allowed);
+    final Model trimmed = Model.readSubset (serialized, allowed);
+    assertArrayEquals (expected.m_aLangClasses, trimmed.m_aLangClasses);
+    assertArrayEquals (expected.nb_pc, trimmed.nb_pc, 0.0f);
+    assertArrayEquals (expected.nb_ptc, trimmed.nb_ptc, 0.0f);
+  }
+
+  @Test
+  public void testLzmaDecodeIntoArray () throws IOException
+  {
+    final byte [] [] decoded = new byte [2] [];
+    for (int k = 0; k < decoded.length; k++)
+    {
+      try (final DataInputStream is = new DataInputStream (Model.class.getResourceAsStream ("langid.lzma")))
+      {
+        final byte [] header = new byte [13];
+        is.readFully (header);
+        final LzmaDecoder decoder = new LzmaDecoder ();
+        assertTrue (decoder.setDecoderProperties (header));
+        long size = 0;
+        for (int i = 13; --i >= 5;)
+          size = (size << 8) | (header[i] & 0xFF);
+
+        if (k == 0)
+        {
+          final ByteArrayOutputStream os = new ByteArrayOutputStream ();
+          assertTrue (decoder.code (is, os, size));
+          decoded[k] = os.toByteArray ();
+        }
+        else
+        {
+          decoded[k] = new byte [(int) size];
+          assertTrue (decoder.code (is, decoded[k]));
+        }
+      }
+    }
+    assertArrayEquals (decoded[0], decoded[1]);
+
+    // A decoder that decoded into an array (without a window) still decodes
+    // to a stream.
+    final LzmaDecoder decoder = new LzmaDecoder ();
+    for (int k = 0; k < 2; k++)
+    {
+      try (final DataInputStream is = new DataInputStream (Model.class.getResourceAsStream ("langid.lzma")))
+      {
+        final byte [] header = new byte [13];
+        is.readFully (header);
+        assertTrue (decoder.setDecoderProperties (header));
+        if (k == 0)
+        {
+          assertTrue (decoder.code (is, new byte [decoded[0].length]));
+        }
+        else
+        {
+          final ByteArrayOutputStream os = new ByteArrayOutputStream ();
+          assertTrue (decoder.code (is, os, decoded[0].length));
+          assertArrayEquals (decoded[0], os.toByteArray ());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testQuantizedModel () throws IOException
+  {
+    final Model d = Model.defaultModel ();
+    final Model q = d.quantize ();
+    assertFalse (d.isQuantized ());
+    assertTrue (q.isQuantized ());
+    assertEquals (d.numClasses, q.numClasses);
+    assertEquals (d.numFeatures, q.numFeatures);
+
+    // Accuracy on EuroParl must not regress noticeably.
+    final LangIdV3 v1 = new LangIdV3 (d);
+    final LangIdV3 v2 = new LangIdV3 (q);
+    int total = 0, correct1 = 0, correct2 = 0;
+    try (final BufferedReader reader = new BufferedReader (new InputStreamReader (TestModel.class.getResourceAsStream ("/europarl.21.test"),
+                                                                                  StandardCharsets.UTF_8)))
+    {
+      String line;
+      while ((line = reader.readLine ()) != null)
+      {
+        final int tabIndex = line.indexOf ('\t');
+        final String expected = line.substring (0, tabIndex);
+        final String text = line.substring (tabIndex + 1);
+        total++;
+        if (expected.equals (v1.classify (text, false).m_sLangCode))
+          correct1++;
+        if (expected.equals (v2.classify (text, false).m_sLangCode))
+          correct2++;
+      }
+    }
+    assertTrue (correct1 + " vs. " + correct2, correct1 - correct2 <= total / 1000);
+  }
 }
@@ -0,0 +1,106 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestModelTrainer
+{
+  @Test
+  public void testDsaBuilder ()
+  {
+    final List <byte []> features = new ArrayList<> ();
+    for (final String s : new String [] { "a", "ab", "bc", "abc", "c" })
+      features.add (s.getBytes (StandardCharsets.UTF_8));
+    final CompactDsa dsa = DsaBuilder.build (features);
+
+    // All features ending at each position must be emitted.
+    final List <String> emitted = new ArrayList<> ();
+    int state = 0;
+    for (final byte b : "xabcab".getBytes (StandardCharsets.UTF_8))
+    {
+      state = dsa.nextState (state, b);
+      final int [] outputs = Arrays.copyOfRange (dsa.m_aOutputs,
+                                                 dsa.m_aOutputOffsets[state],
+                                                 dsa.m_aOutputOffsets[state + 1]);
+      Arrays.sort (outputs);
+      emitted.add (Arrays.toString (outputs));
+    }
+    assertEquals (Arrays.asList ("[]", "[0]", "[1]", "[2, 3, 4]", "[0]", "[1]"), emitted);
+  }
+
+  @Test
+  public void testGramKeys ()
+  {
+    final byte [] bytes = { 1, (byte) 0xff, 3, 4 };
+    for (int len = 1; len <= ModelTrainer.MAX_ORDER; len++)
+    {
+      assertArrayEquals (Arrays.copyOf (bytes, len), ModelTrainer.bytesOf (ModelTrainer.gramKey (bytes, 0, len)));
+    }
+  }
+
+  @Test
+  public void testTrainOnEuroParl () throws Exception
+  {
+    // Train on every other line, evaluate on the remaining ones.
+    final ModelTrainer trainer = new ModelTrainer ();
+    trainer.setFeaturesPerLanguage (100);
+    final List <String []> test = new ArrayList<> ();
+    int line = 0;
+    for (final String [] doc : readEuroParl ())
+    {
+      if ((line++ & 1) == 0)
+        trainer.addDocument (doc[0], doc[1]);
+      else
+        test.add (doc);
+    }
+
+    final Model model = trainer.train ();
+    assertEquals (21, model.numClasses);
+    assertTrue (model.numFeatures <= 21 * 100);
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+    ModelTrainer.write (model, baos);
+    final Model copy = Model.readExternal (new ObjectInputStream (new ByteArrayInputStream (baos.toByteArray ())));
+    assertArrayEquals (model.nb_ptc, copy.nb_ptc, 0f);
+    assertArrayEquals (model.m_aDsa.m_aTransitions, copy.m_aDsa.m_aTransitions);
+
+    final LangIdV3 langid = new LangIdV3 (copy);
+    int correct = 0;
+    for (final String [] doc : test)
+    {
+      if (doc[0].equals (langid.classify (doc[1], false).m_sLangCode))
+        correct++;
+    }
+    assertTrue (correct + "/" + test.size (), correct > test.size () * 0.98);
+  }
+
+  private static List <String []> readEuroParl () throws IOException
+  {
+    final List <String []> docs = new ArrayList<> ();
+    try (final BufferedReader reader = new BufferedReader (new InputStreamReader (TestModelTrainer.class.getResourceAsStream ("/europarl.21.test"),
+                                                                                  StandardCharsets.UTF_8)))
+    {
+      String line;
+      while ((line = reader.readLine ()) != null)
+      {
+        final int tabIndex = line.indexOf ('\t');
+        docs.add (new String [] { line.substring (0, tabIndex), line.substring (tabIndex + 1) });
+      }
+    }
+    return docs;
+  }
+}
@@ -0,0 +1,76 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.helger.commons.mutable.MutableInt;
+import com.helger.commons.random.RandomHelper;
+
+public class TestOpenHashCountingSet
+{
+  @Test
+  public void testSimple ()
+  {
+    final OpenHashCountingSet s = new OpenHashCountingSet (1);
+    assertEquals (0, s.elementsCount);
+    s.increment (3);
+    assertEquals (1, s.elementsCount);
+    assertEquals (1, s.counts[0]);
+    assertEquals (3, s.dense[0]);
+    s.increment (1000000);
+    assertEquals (2, s.elementsCount);
+    assertEquals (1, s.counts[1]);
+    assertEquals (1000000, s.dense[1]);
+    s.increment (3);
+    assertEquals (2, s.elementsCount);
+    assertEquals (2, s.counts[0]);
+
+    // Force a few resizes.
+    for (int i = 0; i < 100; i++)
+      s.increment (i * 7 + 10);
+    assertEquals (102, s.elementsCount);
+    assertEquals (2, s.counts[0]);
+    assertEquals (1000000, s.dense[1]);
+
+    s.clear ();
+    assertEquals (0, s.elementsCount);
+    s.increment (1000000);
+    assertEquals (1, s.elementsCount);
+    assertEquals (1, s.counts[0]);
+  }
+
+  @Test
+  public void testRandomized ()
+  {
+    final int maxValue = 1 + RandomHelper.getRandom ().nextInt (100000);
+    final OpenHashCountingSet s = new OpenHashCountingSet (1 + RandomHelper.getRandom ().nextInt (100));
+
+    for (int round = 0; round < 3; round++)
+    {
+      final Map <Integer, MutableInt> ref = new HashMap<> ();
+      final int n = RandomHelper.getRandom ().nextInt (5000);
+      for (int i = 0; i < n; i++)
+      {
+        final int r = RandomHelper.getRandom ().nextInt (maxValue);
+        ref.computeIfAbsent (Integer.valueOf (r), x -> new MutableInt (0)).inc ();
+        s.increment (r);
+      }
+
+      final Map <Integer, MutableInt> result = new HashMap<> ();
+      for (int i = 0; i < s.elementsCount; i++)
+      {
+        final Integer k = Integer.valueOf (s.dense[i]);
+        assertTrue (!result.containsKey (k));
+        result.put (k, new MutableInt (s.counts[i]));
+      }
+
+      assertEquals (ref, result);
+      s.clear ();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cybozu.labs.langdetect.util.LangProfile;
+import com.helger.json.serialize.JsonReader;
+
+public class TestProfileModelCompiler
+{
+  private static List <LangProfile> loadProfiles (final String... langs)
+  {
+    final List <LangProfile> profiles = new ArrayList<> ();
+    final File [] files = new File ("profiles").listFiles ();
+    Arrays.sort (files);
+    for (final File file : files)
+      if (langs.length == 0 || Arrays.asList (langs).contains (file.getName ()))
+        profiles.add (LangProfile.createFromJson (JsonReader.readFromFile (file).getAsObject ()));
+    return profiles;
+  }
+
+  @Test
+  public void testCompile ()
+  {
+    final ProfileModelCompiler compiler = new ProfileModelCompiler ();
+    compiler.setFeaturesPerLanguage (300);
+    final Model model = compiler.compile (loadProfiles ("de", "en", "fr", "ja", "ru"));
+    assertEquals (5, model.numClasses);
+    assertEquals (Arrays.asList ("de", "en", "fr", "ja", "ru"), Arrays.asList (model.m_aLangClasses));
+
+    final LangIdV3 langid = new LangIdV3 (model);
+    assertEquals ("en", langid.classify ("This is a sentence in the English language.", false).m_sLangCode);
+    assertEquals ("de", langid.classify ("Das ist ein Satz in deutscher Sprache.", false).m_sLangCode);
+    assertEquals ("fr", langid.classify ("C'est une phrase en langue française.", false).m_sLangCode);
+    assertEquals ("ru", langid.classify ("Это предложение на русском языке.", false).m_sLangCode);
+    assertEquals ("ja",
+                  langid.classify (ProfileModelCompiler.normalize ("これは日本語の文章です。"), false).m_sLangCode);
+  }
+
+  @Test
+  public void testSmoothing ()
+  {
+    final ProfileModelCompiler compiler = new ProfileModelCompiler ();
+    compiler.setFeaturesPerLanguage (100);
+    compiler.setAlpha (2);
+    final Model model = compiler.compile (loadProfiles ("en", "ja"));
+
+    // N-grams of one language unseen in the other get the smoothing term only.
+    float min = Float.POSITIVE_INFINITY;
+    for (int c = 0; c < model.numClasses; c++)
+      for (int f = 0; f < model.numFeatures; f++)
+        min = Math.min (min, model.ptc (c, f));
+    assertEquals (Math.log (2.0 / 10000), min, 1e-6);
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testSingleLanguage ()
+  {
+    new ProfileModelCompiler ().compile (Collections.singletonList (loadProfiles ("en").get (0)));
+  }
+
+  @Test
+  public void testNormalize ()
+  {
+    assertEquals ("a b c", ProfileModelCompiler.normalize ("a, b;\t c"));
+  }
+
+  @Test
+  public void testEuroParl () throws Exception
+  {
+    final LangIdV3 langid = new LangIdV3 (new ProfileModelCompiler ().compile (loadProfiles ()));
+    int total = 0, correct = 0;
+    try (final BufferedReader reader = new BufferedReader (new InputStreamReader (TestProfileModelCompiler.class.getResourceAsStream ("/europarl.21.test"),
+                                                                                  StandardCharsets.UTF_8)))
+    {
+      String line;
+      while ((line = reader.readLine ()) != null)
+      {
+        final int tabIndex = line.indexOf ('\t');
+        total++;
+        if (line.substring (0, tabIndex).equals (langid.classify (line.substring (tabIndex + 1), false).m_sLangCode))
+          correct++;
+      }
+    }
+    assertTrue (correct + "/" + total, correct > total * 0.98);
+  }
+}
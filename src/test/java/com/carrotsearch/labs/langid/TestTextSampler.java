@@ -0,0 +1,97 @@
+package com.carrotsearch.labs.langid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestTextSampler
+{
+  private static String repeat (final String s, final int times)
+  {
+    final StringBuilder sb = new StringBuilder ();
+    for (int i = 0; i < times; i++)
+      sb.append (s);
+    return sb.toString ();
+  }
+
+  @Test
+  public void testShortText ()
+  {
+    final TextSampler sampler = new TextSampler (4, 100);
+    final String text = repeat ("a", 400);
+    final List <CharSequence> windows = sampler.sample (text);
+    assertEquals (1, windows.size ());
+    assertSame (text, windows.get (0));
+  }
+
+  @Test
+  public void testWindows ()
+  {
+    final TextSampler sampler = new TextSampler (4, 100);
+    final String text = repeat ("word ", 1000);
+    final List <CharSequence> windows = sampler.sample (text);
+    assertEquals (4, windows.size ());
+    assertTrue (text.startsWith (windows.get (0).toString ()));
+    for (final CharSequence window : windows)
+    {
+      assertTrue (window.length () <= 100 && window.length () > 50);
+      // Aligned to words.
+      assertTrue (window.toString (), window.toString ().startsWith ("word"));
+      assertTrue (window.toString (), window.toString ().trim ().endsWith ("word"));
+    }
+  }
+
+  @Test
+  public void testSurrogates ()
+  {
+    // No whitespace, surrogate pairs only.
+    final String text = repeat ("😀", 1001);
+    for (final CharSequence window : new TextSampler (3, 101).sample (text))
+    {
+      assertFalse (Character.isLowSurrogate (window.charAt (0)));
+      assertFalse (Character.isHighSurrogate (window.charAt (window.length () - 1)));
+    }
+  }
+
+  @Test
+  public void testUtf8 () throws CharacterCodingException
+  {
+    final byte [] bytes = repeat ("é中😀", 1000).getBytes (StandardCharsets.UTF_8);
+    final ByteBuffer buffer = ByteBuffer.wrap (bytes);
+    buffer.position (3);
+    final List <ByteBuffer> windows = new TextSampler (5, 101).sample (buffer);
+    assertEquals (5, windows.size ());
+    assertEquals (3, buffer.position ());
+    for (final ByteBuffer window : windows)
+    {
+      assertTrue (window.remaining () > 90);
+      // Decodes without malformed sequences.
+      StandardCharsets.UTF_8.newDecoder ().decode (window.duplicate ());
+    }
+  }
+
+  @Test
+  public void testBoilerplatePrefix ()
+  {
+    final StringBuilder text = new StringBuilder ();
+    text.append (repeat ("Startseite Impressum Kontakt Suche Anmelden Datenschutz ", 200));
+    text.append (repeat ("The committee has approved the report on the new agricultural policy. ", 400));
+    final String doc = text.toString ();
+
+    final LangIdV3 langid = new LangIdV3 ();
+    assertEquals ("de", langid.classify (doc.substring (0, 10000), true).getLangCode ());
+    final TextSampler sampler = new TextSampler ();
+    assertEquals ("en", sampler.classify (langid, doc, true).getLangCode ());
+    assertEquals ("en",
+                  sampler.classify (langid, ByteBuffer.wrap (doc.getBytes (StandardCharsets.UTF_8)), true)
+                         .getLangCode ());
+  }
+}
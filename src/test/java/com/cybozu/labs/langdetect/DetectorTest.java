@@ -1,15 +1,36 @@
 package com.cybozu.labs.langdetect;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
+import com.carrotsearch.labs.langid.BudgetedResult;
+import com.carrotsearch.labs.langid.CascadeClassifier;
+import com.carrotsearch.labs.langid.ClassifierPool;
+import com.carrotsearch.labs.langid.DetectedLanguage;
+import com.carrotsearch.labs.langid.DetectionBudget;
+import com.carrotsearch.labs.langid.DetectionMetrics;
+import com.carrotsearch.labs.langid.DetectionProcessor;
+import com.carrotsearch.labs.langid.IDetectionMetrics;
+import com.carrotsearch.labs.langid.Model;
+import com.carrotsearch.labs.langid.TextSampler;
 import com.cybozu.labs.langdetect.util.LangProfile;
+import com.cybozu.labs.langdetect.util.NGram;
 
 /**
  * Unit test for {@link Detector} and {@link DetectorFactory}.
@@ -25,30 +46,39 @@ public class DetectorTest
   private static final String JSON_LANG1 = "{\"freq\":{\"A\":3,\"B\":6,\"C\":3,\"AB\":2,\"BC\":1,\"ABC\":2,\"BBC\":1,\"CBA\":1},\"n_words\":[12,3,4],\"name\":\"lang1\"}";
   private static final String JSON_LANG2 = "{\"freq\":{\"A\":6,\"B\":3,\"C\":3,\"AA\":3,\"AB\":2,\"ABC\":1,\"ABA\":1,\"CAA\":1},\"n_words\":[12,5,3],\"name\":\"lang2\"}";
 
+  private static LangProfile _createProfile (final String lang, final String training)
+  {
+    final LangProfile profile = new LangProfile (lang);
+    for (final String w : training.split (" "))
+      profile.addNGram (w);
+    return profile;
+  }
+
+  /**
+   * @return probability of the n-gram in the profile, as in the detector
+   */
+  private static double _getProbability (final LangProfile profile, final String word)
+  {
+    if (profile.getFrequencyObj (word) == null)
+      return 0;
+    return (double) profile.getFrequency (word) / profile.getNWord (word.length () - 1);
+  }
+
   @Before
   public void setUp () throws Exception
   {
     DetectorFactory.clear ();
 
-    final LangProfile profile_en = new LangProfile ("en");
-    for (final String w : TRAINING_EN.split (" "))
-      profile_en.addNGram (w);
-    DetectorFactory.addProfile (profile_en, 0, 3);
-
-    final LangProfile profile_fr = new LangProfile ("fr");
-    for (final String w : TRAINING_FR.split (" "))
-      profile_fr.addNGram (w);
-    DetectorFactory.addProfile (profile_fr, 1, 3);
-
-    final LangProfile profile_ja = new LangProfile ("ja");
-    for (final String w : TRAINING_JA.split (" "))
-      profile_ja.addNGram (w);
-    DetectorFactory.addProfile (profile_ja, 2, 3);
+    DetectorFactory.addProfile (_createProfile ("en", TRAINING_EN));
+    DetectorFactory.addProfile (_createProfile ("fr", TRAINING_FR));
+    DetectorFactory.addProfile (_createProfile ("ja", TRAINING_JA));
   }
 
   @After
   public void tearDown () throws Exception
-  {}
+  {
+    DetectorFactory.clear ();
+  }
 
   @Test
   public final void testDetector1 () throws LangDetectException
@@ -113,4 +143,474 @@ public class DetectorTest
     assertEquals (langList.get (0), "lang1");
     assertEquals (langList.get (1), "lang2");
   }
+
+  @Test
+  public final void testLoadProfileSubset () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles", new HashSet<> (Arrays.asList ("en", "de", "ru")));
+    assertEquals (DetectorFactory.getLangList ().size (), 3);
+    assertTrue (DetectorFactory.getLangList ().containsAll (Arrays.asList ("en", "de", "ru")));
+
+    final Detector detect = DetectorFactory.create ();
+    detect.append ("Das ist ein kurzer Satz in deutscher Sprache.");
+    assertEquals (detect.detect (), "de");
+  }
+
+  @Test
+  public final void testLoadProfileLazily () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfileLazily ("profiles");
+    assertTrue (DetectorFactory.getLangList ().isEmpty ());
+
+    Detector detect = DetectorFactory.create ();
+    detect.append ("\u042d\u0442\u043e \u043a\u043e\u0440\u043e\u0442\u043a\u043e\u0435 \u043f\u0440\u0435\u0434\u043b\u043e\u0436\u0435\u043d\u0438\u0435.");
+    assertEquals (detect.detect (), "ru");
+    assertTrue (DetectorFactory.getLangList ().contains ("uk"));
+    assertFalse (DetectorFactory.getLangList ().contains ("en"));
+
+    detect = DetectorFactory.create ();
+    detect.append ("This is a short sentence written in English.");
+    assertEquals (detect.detect (), "en");
+    assertTrue (DetectorFactory.getLangList ().contains ("ru"));
+    assertFalse (DetectorFactory.getLangList ().contains ("ja"));
+  }
+
+  @Test
+  public final void testScriptRouting () throws LangDetectException
+  {
+    Detector detect = DetectorFactory.create ();
+    detect.setScriptRouting (true);
+    detect.append ("\u3042\u3042\u3042\u3042a");
+    assertEquals (detect.detect (), "ja");
+
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    detect = DetectorFactory.create ();
+    detect.setScriptRouting (true);
+    detect.append ("\ud55c\uad6d\uc5b4 \ubb38\uc7a5\uc785\ub2c8\ub2e4.");
+    final List <Language> probabilities = detect.getProbabilities ();
+    assertEquals (probabilities.size (), 1);
+    assertEquals (probabilities.get (0).getLanguage (), "ko");
+    assertEquals (probabilities.get (0).getProbability (), 1.0, 0.0);
+
+    detect = DetectorFactory.create ();
+    detect.setScriptRouting (true);
+    detect.append ("\u042d\u0442\u043e \u043a\u043e\u0440\u043e\u0442\u043a\u043e\u0435 \u043f\u0440\u0435\u0434\u043b\u043e\u0436\u0435\u043d\u0438\u0435.");
+    for (final Language language : detect.getProbabilities ())
+      assertTrue (Arrays.asList ("bg", "mk", "ru", "uk").contains (language.getLanguage ()));
+    assertEquals (detect.detect (), "ru");
+  }
+
+  /**
+   * Reference detection with the dense update of the original implementation:
+   * all languages multiplied by <code>weight + p</code>.
+   *
+   * @return averaged probabilities of the trials
+   */
+  private static double [] _detectDense (final LangProfile [] profiles,
+                                         final String text,
+                                         final double alpha,
+                                         final long seed)
+  {
+    // N-grams of the text in the profiles, as extracted by the detector.
+    final List <String> ngrams = new ArrayList<> ();
+    final NGram ngram = new NGram ();
+    for (int i = 0; i < text.length (); ++i)
+    {
+      ngram.addChar (text.charAt (i));
+      for (int n = 1; n <= NGram.N_GRAM; ++n)
+      {
+        final String w = ngram.get (n);
+        if (w != null)
+          for (final LangProfile profile : profiles)
+            if (profile.getFrequencyObj (w) != null)
+            {
+              ngrams.add (w);
+              break;
+            }
+      }
+    }
+
+    final Random rand = new Random (seed);
+    final int trials = 7;
+    final double [] ret = new double [profiles.length];
+    for (int t = 0; t < trials; ++t)
+    {
+      final double weight = (alpha + rand.nextGaussian () * 0.05) / 10000;
+      final double [] prob = new double [profiles.length];
+      Arrays.fill (prob, 1.0 / profiles.length);
+      for (int i = 0;; ++i)
+      {
+        final String word = ngrams.get (rand.nextInt (ngrams.size ()));
+        for (int j = 0; j < profiles.length; ++j)
+          prob[j] *= weight + _getProbability (profiles[j], word);
+        if (i % 5 == 0)
+        {
+          double maxp = 0, sump = 0;
+          for (final double p : prob)
+            sump += p;
+          for (int j = 0; j < prob.length; ++j)
+          {
+            prob[j] /= sump;
+            maxp = Math.max (maxp, prob[j]);
+          }
+          if (maxp > 0.99999 || i >= 1000)
+            break;
+        }
+      }
+      for (int j = 0; j < profiles.length; ++j)
+        ret[j] += prob[j] / trials;
+    }
+    return ret;
+  }
+
+  /**
+   * Test that the sparse update (only languages of the n-gram, multiplied by
+   * <code>1 + p / weight</code>) gives the probabilities of the original dense
+   * update for the same random samples
+   */
+  @Test
+  public final void testSparseUpdateSameAsDense () throws LangDetectException
+  {
+    final LangProfile [] profiles = { _createProfile ("en", TRAINING_EN),
+                                      _createProfile ("fr", TRAINING_FR),
+                                      _createProfile ("ja", TRAINING_JA) };
+    DetectorFactory.setSeed (1);
+    // With a large alpha the trials don't converge, the probabilities are not
+    // just 0 or 1.
+    for (final double alpha : new double [] { 0.5, 100000 })
+      for (final String text : new String [] { "a", "b d", "a d", "d e c a", "\u3042\u3044 b" })
+      {
+        final Detector detector = DetectorFactory.create ();
+        detector.setAlpha (alpha);
+        detector.append (text);
+        final List <Language> actual = detector.getProbabilities ();
+
+        final double [] expected = _detectDense (profiles, text, alpha, 1);
+        int count = 0;
+        for (final double p : expected)
+          if (p > 0.1)
+            count++;
+        assertEquals (text, count, actual.size ());
+        for (final Language language : actual)
+        {
+          final int j = DetectorFactory.getLangList ().indexOf (language.getLanguage ());
+          assertEquals (text, expected[j], language.getProbability (), 1e-6);
+        }
+      }
+  }
+
+  @Test
+  public final void testSinglePrecision () throws LangDetectException
+  {
+    DetectorFactory.setSeed (0);
+    for (final String text : new String [] { "a", "b d", "d e", "\u3042\u3042\u3042\u3042a" })
+    {
+      final Detector expected = DetectorFactory.create ();
+      expected.append (text);
+      final Detector actual = DetectorFactory.create ();
+      actual.setSinglePrecision (true);
+      actual.append (text);
+      assertEquals (expected.detect (), actual.detect ());
+      assertEquals (expected.getProbabilities ().get (0).getProbability (),
+                    actual.getProbabilities ().get (0).getProbability (),
+                    1e-4);
+    }
+  }
+
+  @Test
+  public final void testDetectorCache () throws LangDetectException
+  {
+    final DetectorCache cache = new DetectorCache (10);
+    assertEquals (cache.detect ("b d"), "fr");
+    final List <Language> first = cache.getProbabilities ("b  d ");
+    assertEquals (first.get (0).getLanguage (), "fr");
+    assertEquals (cache.getCache ().getHitCount (), 1);
+    assertEquals (cache.getCache ().getMissCount (), 1);
+  }
+
+  @Test
+  public final void testMetrics () throws LangDetectException
+  {
+    final DetectionMetrics metrics = new DetectionMetrics ();
+    DetectorFactory.setMetrics (metrics);
+    try
+    {
+      final Detector detect = DetectorFactory.create ();
+      detect.append ("b d");
+      assertEquals (detect.detect (), "fr");
+      assertEquals (metrics.getDetectCount (), 1);
+      assertEquals (metrics.getDetectChars (), 3);
+      assertEquals (metrics.getDetectNGrams (), 2);
+      assertEquals (metrics.getDetectTrials (), 7);
+      assertTrue (metrics.getDetectIterations () >= 7);
+
+      // Only the characters within the budget are processed.
+      final Detector prefix = DetectorFactory.create ();
+      prefix.append ("b d b d");
+      assertTrue (prefix.detect (DetectionBudget.ofChars (3)).isPartial ());
+      assertEquals (metrics.getDetectChars (), 3 + 3);
+      assertEquals (metrics.getDetectTrials (), 7 + 7);
+
+      DetectorFactory.clear ();
+      DetectorFactory.loadProfile ("profiles", new HashSet<> (Arrays.asList ("en", "de")));
+      assertEquals (metrics.getProfileLoadCount (), 2);
+    }
+    finally
+    {
+      DetectorFactory.setMetrics (IDetectionMetrics.NONE);
+    }
+  }
+
+  @Test
+  public final void testDetectorPool () throws LangDetectException
+  {
+    final ClassifierPool <Detector> pool = DetectorFactory.createPool (2);
+    final Detector detect = pool.borrow ();
+    detect.append ("a");
+    assertEquals (detect.detect (), "en");
+    pool.release (detect);
+
+    final Detector reused = pool.borrow ();
+    assertSame (detect, reused);
+    reused.append ("b d");
+    assertEquals (reused.detect (), "fr");
+    pool.release (reused);
+    assertEquals (pool.getCreatedCount (), 0);
+  }
+
+  @Test
+  public final void testDetectorProcessor () throws Exception
+  {
+    final DetectionProcessor <CharSequence> processor = DetectorFactory.createProcessor (DetectorFactory.createPool (2),
+                                                                                        Runnable::run,
+                                                                                        2,
+                                                                                        true);
+    final List <String> results = new ArrayList<> ();
+    processor.subscribe (new Subscriber <DetectedLanguage> ()
+    {
+      public void onSubscribe (final Subscription s)
+      {
+        s.request (Long.MAX_VALUE);
+      }
+
+      public void onNext (final DetectedLanguage item)
+      {
+        results.add (item.getLangCode ());
+      }
+
+      public void onError (final Throwable t)
+      {}
+
+      public void onComplete ()
+      {
+        results.add ("done");
+      }
+    });
+    processor.onSubscribe (new Subscription ()
+    {
+      public void request (final long n)
+      {}
+
+      public void cancel ()
+      {}
+    });
+    processor.onNext ("a");
+    processor.onNext ("b d");
+    processor.onNext (" ");
+    processor.onComplete ();
+    assertEquals (Arrays.asList ("en", "fr", "unknown", "done"), results);
+  }
+
+  @Test
+  public final void testAppendAfterDetect () throws LangDetectException
+  {
+    final Detector detect = DetectorFactory.create ();
+    detect.append ("a");
+    assertEquals (detect.detect (), "en");
+    // The result is not cached over appends.
+    detect.append ("\u3042\u3042\u3042\u3042");
+    assertEquals (detect.detect (), "ja");
+  }
+
+  @Test
+  public final void testNGramAutomaton () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+    final String [] texts = { "Hello, how are you? I am FINE, thanks.",
+                              "Ich bin gut, danke. Und dir?",
+                              "\u3053\u3093\u306b\u3061\u306f\u3001\u5143\u6c17\u3067\u3059\u304b\uff1f" };
+    for (final String text : texts)
+    {
+      final Detector lookup = DetectorFactory.create ();
+      lookup.append (text);
+      final Detector automaton = DetectorFactory.create ();
+      automaton.setNGramAutomaton (true);
+      automaton.append (text);
+      assertEquals (lookup.getProbabilities ().toString (), automaton.getProbabilities ().toString ());
+    }
+
+    // Incremental detection.
+    final Detector incremental = DetectorFactory.create ();
+    incremental.setIncremental (true);
+    incremental.setNGramAutomaton (true);
+    final Detector full = DetectorFactory.create ();
+    for (final String text : texts)
+    {
+      incremental.append (text);
+      full.append (text);
+      assertEquals (full.getProbabilities ().toString (), incremental.getProbabilities ().toString ());
+    }
+  }
+
+  @Test
+  public final void testIncremental () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+    final String [] messages = { "Hello, how are you?",
+                                 "Ich bin gut, danke. Und dir?",
+                                 "\u0425\u043e\u0440\u043e\u0448\u043e, \u0441\u043f\u0430\u0441\u0438\u0431\u043e \u0431\u043e\u043b\u044c\u0448\u043e\u0435!",
+                                 "\u042d\u0442\u043e \u043a\u043e\u0440\u043e\u0442\u043a\u043e\u0435 \u043f\u0440\u0435\u0434\u043b\u043e\u0436\u0435\u043d\u0438\u0435 OK.",
+                                 // Mostly Cyrillic from here: Latin letters are removed.
+                                 "\u0414\u0430, \u044d\u0442\u043e \u043e\u0447\u0435\u043d\u044c \u043a\u043e\u0440\u043e\u0442\u043a\u043e\u0435 \u043f\u0440\u0435\u0434\u043b\u043e\u0436\u0435\u043d\u0438\u0435 \u043d\u0430 \u0440\u0443\u0441\u0441\u043a\u043e\u043c \u044f\u0437\u044b\u043a\u0435." };
+    final Detector incremental = DetectorFactory.create ();
+    incremental.setIncremental (true);
+    for (int i = 0; i < messages.length; i++)
+    {
+      incremental.append (messages[i]);
+      final Detector full = DetectorFactory.create ();
+      for (int j = 0; j <= i; j++)
+        full.append (messages[j]);
+      assertEquals (incremental.getProbabilities ().toString (), full.getProbabilities ().toString ());
+    }
+  }
+
+  @Test
+  public final void testParallelTrials () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+    final String [] texts = { "This is a short English sentence.",
+                              "Das ist ein kurzer Satz in deutscher Sprache.",
+                              "Ceci est une courte phrase en fran\u00e7ais." };
+    final ForkJoinPool pool = new ForkJoinPool (2);
+    for (final String text : texts)
+    {
+      final Detector serial = DetectorFactory.create ();
+      serial.append (text);
+      final Detector parallel = DetectorFactory.create ();
+      parallel.setTrialPool (ForkJoinPool.commonPool ());
+      parallel.append (text);
+      final Detector again = DetectorFactory.create ();
+      again.setTrialPool (pool);
+      again.append (text);
+
+      assertEquals (serial.detect (), parallel.detect ());
+      // Deterministic under a seed, regardless of the pool.
+      assertEquals (parallel.getProbabilities ().toString (), again.getProbabilities ().toString ());
+    }
+    pool.shutdown ();
+  }
+
+  @Test
+  public final void testBudget () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+    final StringBuilder text = new StringBuilder ("Das ist ein kurzer Satz in deutscher Sprache. ");
+    for (int i = 0; i < 100; i++)
+      text.append ("This is a short English sentence. ");
+
+    final Detector detect = DetectorFactory.create ();
+    detect.append (text.toString ());
+    BudgetedResult <String> result = detect.detect (DetectionBudget.UNLIMITED);
+    assertFalse (result.isPartial ());
+    assertEquals ("en", result.getResult ());
+
+    // Only the German prefix.
+    final Detector prefix = DetectorFactory.create ();
+    prefix.append (text.toString ());
+    result = prefix.detect (DetectionBudget.ofChars (45));
+    assertTrue (result.isPartial ());
+    assertEquals ("de", result.getResult ());
+    // A partial result is not kept.
+    assertEquals ("en", prefix.detect ());
+
+    final Detector expired = DetectorFactory.create ();
+    expired.append (text.toString ());
+    final BudgetedResult <List <Language>> probabilities = expired.getProbabilities (DetectionBudget.ofTime (0,
+                                                                                                         TimeUnit.NANOSECONDS));
+    assertTrue (probabilities.isPartial ());
+    // One trial stopped at once: no language is above the threshold yet.
+    assertTrue (probabilities.getResult ().size () <= 1);
+  }
+
+  @Test
+  public final void testSampling () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+    final StringBuilder text = new StringBuilder ();
+    for (int i = 0; i < 200; i++)
+      text.append ("Startseite Impressum Kontakt Suche Anmelden Datenschutz ");
+    for (int i = 0; i < 400; i++)
+      text.append ("The committee has approved the report on the new agricultural policy. ");
+
+    final Detector prefix = DetectorFactory.create ();
+    prefix.append (text.toString ());
+    assertEquals ("de", prefix.detect ());
+
+    final Detector sampled = DetectorFactory.create ();
+    sampled.append (text.toString (), new TextSampler ());
+    assertEquals ("en", sampled.detect ());
+  }
+
+  @Test
+  public final void testCascade () throws LangDetectException
+  {
+    DetectorFactory.clear ();
+    DetectorFactory.loadProfile ("profiles");
+    DetectorFactory.setSeed (0);
+
+    final DetectorClassifier classifier = DetectorFactory.createClassifier ();
+    assertEquals ("de", classifier.classify ("Dies ist ein deutscher Satz.", true).getLangCode ());
+    assertEquals ("unknown", classifier.classify ("", true).getLangCode ());
+
+    final CascadeClassifier cascade = DetectorFactory.createCascade (Model.defaultModel (), 0.9f);
+    assertEquals ("en", cascade.classify ("The committee has approved the report on the new agricultural policy.", true)
+                               .getLangCode ());
+    assertSame (CascadeClassifier.EStage.FAST, cascade.getLastStage ());
+
+    // Danish and Norwegian are a confusable pair, the Detector decides.
+    final String text = "Dette er en norsk setning om været i dag.";
+    assertEquals (DetectorFactory.createClassifier ().classify (text, true).getLangCode (),
+                  cascade.classify (text, true).getLangCode ());
+    assertSame (CascadeClassifier.EStage.SLOW, cascade.getLastStage ());
+  }
+
+  @Test
+  public final void testDerivedScripts () throws LangDetectException
+  {
+    // No built-in script for "xx", derived from its (Greek) profile.
+    final LangProfile profile = new LangProfile ("xx");
+    for (final String w : "\u03b1 \u03b2 \u03b3 \u03b1\u03b2 \u03b2\u03b3".split (" "))
+      profile.addNGram (w);
+    DetectorFactory.addProfile (profile);
+
+    final Detector detect = DetectorFactory.create ();
+    detect.setScriptRouting (true);
+    detect.append ("\u03b1\u03b2\u03b3");
+    final List <Language> probabilities = detect.getProbabilities ();
+    assertEquals (1, probabilities.size ());
+    assertEquals ("xx", probabilities.get (0).getLanguage ());
+  }
 }
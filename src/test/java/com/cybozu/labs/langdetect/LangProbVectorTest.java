@@ -0,0 +1,61 @@
+package com.cybozu.labs.langdetect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LangProbVector}.
+ */
+public class LangProbVectorTest
+{
+  /**
+   * Test that absent languages have probability 0
+   */
+  @Test
+  public final void testAbsent ()
+  {
+    assertEquals (0, LangProbVector.EMPTY.size ());
+    assertEquals (0, LangProbVector.EMPTY.get (0), 0);
+
+    final LangProbVector vector = LangProbVector.EMPTY.with (2, 0.5);
+    assertEquals (0, vector.get (0), 0);
+    assertEquals (0, vector.get (1), 0);
+    assertEquals (0, vector.get (3), 0);
+  }
+
+  /**
+   * Test that languages are kept sorted when added in any order
+   */
+  @Test
+  public final void testAdd ()
+  {
+    final LangProbVector vector = LangProbVector.EMPTY.with (3, 0.3).with (0, 0.1).with (5, 0.5).with (1, 0.125);
+    assertEquals (4, vector.size ());
+    assertArrayEquals (new int [] { 0, 1, 3, 5 }, vector.m_aLangIds);
+    assertEquals (0.1, vector.get (0), 1e-7);
+    assertEquals (0.125, vector.get (1), 0);
+    assertEquals (0.3, vector.get (3), 1e-7);
+    assertEquals (0.5, vector.get (5), 0);
+    assertEquals (0, vector.get (2), 0);
+    assertEquals (0, vector.get (4), 0);
+  }
+
+  /**
+   * Test that setting a present language replaces its probability in a copy
+   */
+  @Test
+  public final void testReplace ()
+  {
+    final LangProbVector vector = LangProbVector.EMPTY.with (1, 0.25).with (4, 0.5);
+    final LangProbVector replaced = vector.with (4, 0.75);
+    assertNotSame (vector, replaced);
+    assertEquals (2, replaced.size ());
+    assertEquals (0.25, replaced.get (1), 0);
+    assertEquals (0.75, replaced.get (4), 0);
+    // The original is unchanged.
+    assertEquals (0.5, vector.get (4), 0);
+  }
+}
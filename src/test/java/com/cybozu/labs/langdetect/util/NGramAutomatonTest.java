@@ -0,0 +1,102 @@
+package com.cybozu.labs.langdetect.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link NGramAutomaton}.
+ */
+public class NGramAutomatonTest
+{
+  private static List <String> _extractWithNGram (final Set <String> grams, final String text)
+  {
+    final List <String> ret = new ArrayList<> ();
+    final NGram ngram = new NGram ();
+    for (int i = 0; i < text.length (); ++i)
+    {
+      ngram.addChar (text.charAt (i));
+      for (int n = 1; n <= NGram.N_GRAM; ++n)
+      {
+        final String w = ngram.get (n);
+        if (w != null && grams.contains (w))
+          ret.add (w);
+      }
+    }
+    return ret;
+  }
+
+  private static List <String> _extractWithAutomaton (final NGramAutomaton automaton, final String text)
+  {
+    final List <String> ret = new ArrayList<> ();
+    final NGramAutomaton.Matcher matcher = automaton.matcher ();
+    for (int i = 0; i < text.length (); ++i)
+    {
+      matcher.addChar (text.charAt (i));
+      for (int n = 0; n < matcher.size (); ++n)
+        ret.add (matcher.get (n));
+    }
+    return ret;
+  }
+
+  /**
+   * Test that the automaton finds the n-grams {@link NGram} extracts, in the
+   * same order
+   */
+  @Test
+  public final void testSameAsNGram ()
+  {
+    final Set <String> grams = new HashSet<> (Arrays.asList ("a",
+                                                             "b",
+                                                             "ab",
+                                                             "abc",
+                                                             "bc",
+                                                             "c ",
+                                                             " a",
+                                                             " ab",
+                                                             " c ",
+                                                             "bc ",
+                                                             "A",
+                                                             "Ab",
+                                                             "AB",
+                                                             "\u4E00",
+                                                             "\u4E00\u4E01",
+                                                             // Never extracted.
+                                                             " ",
+                                                             "  ",
+                                                             "a b",
+                                                             "abcd"));
+    final NGramAutomaton automaton = new NGramAutomaton (grams);
+    assertEquals (15, automaton.size ());
+    for (final String text : new String [] { "abc",
+                                             "ab abc  c abc. a b",
+                                             "ABC Abc AB ab",
+                                             "xabcx c, Ab",
+                                             "\u4E00\u4E03 \u4E00\u4E01a",
+                                             "" })
+      assertEquals (text, _extractWithNGram (grams, text), _extractWithAutomaton (automaton, text));
+  }
+
+  /**
+   * Test that the n-gram instances of the vocabulary are returned
+   */
+  @Test
+  public final void testInstances ()
+  {
+    final String gram = new String ("ab");
+    final NGramAutomaton.Matcher matcher = new NGramAutomaton (Arrays.asList (gram, "b")).matcher ();
+    matcher.addChar ('a');
+    assertEquals (0, matcher.size ());
+    matcher.addChar ('b');
+    assertEquals (2, matcher.size ());
+    assertEquals ("b", matcher.get (0));
+    assertSame (gram, matcher.get (1));
+  }
+}